@@ -0,0 +1,164 @@
+/* ArenaWindow.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.awt.BorderLayout;
+import java.awt.Cursor;
+import java.io.File;
+
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTextArea;
+import javax.swing.JTree;
+import javax.swing.SwingUtilities;
+import javax.swing.event.TreeSelectionEvent;
+import javax.swing.event.TreeSelectionListener;
+import javax.swing.tree.TreeModel;
+
+/**
+ * Implements the read-only window for browsing large task trees. The tree is loaded into a TaskArena and shown
+ * through a TaskArenaModel, so it takes a fraction of the memory of a tree opened in the MainWindow. The tree is not
+ * locked and nothing is written to it; the window can be used on a tree that is open in another window. The tree is
+ * loaded on a background thread while the window shows a progress bar.
+ * @author anonpds <anonpds@gmail.com>
+ */
+@SuppressWarnings("serial")
+public class ArenaWindow extends JFrame implements TreeSelectionListener {
+	/** The default width of the window. */
+	private static final int DEFAULT_WIDTH = 640;
+
+	/** The default height of the window. */
+	private static final int DEFAULT_HEIGHT = 400;
+
+	/** The model of the shown tree. */
+	private TaskArenaModel model;
+
+	/** The tree view. */
+	private JTree treeView;
+
+	/** The text area that shows the text of the selected task. */
+	private JTextArea textView;
+
+	/** The status bar. */
+	private JLabel statusBar;
+
+	/** The progress bar shown while the tree is loaded. */
+	private JProgressBar progressBar;
+
+	/**
+	 * Constructs the window and shows it, empty until the tree has been loaded.
+	 * @param path the path of the task tree
+	 */
+	private ArenaWindow(File path) {
+		/* set up the tree view; all the rows have the same height, so only the visible rows are measured */
+		this.treeView = new JTree((TreeModel) null);
+		this.treeView.setRootVisible(false);
+		this.treeView.setShowsRootHandles(true);
+		this.treeView.addTreeSelectionListener(this);
+		TaskNodeRenderer renderer = new TaskNodeRenderer();
+		this.treeView.setCellRenderer(renderer);
+		renderer.setLargeModel(this.treeView, true);
+
+		/* set up the text view */
+		this.textView = new JTextArea();
+		this.textView.setEditable(false);
+		this.textView.setLineWrap(true);
+		this.textView.setWrapStyleWord(true);
+
+		/* set up the status bar, with a progress bar until the tree has been loaded */
+		this.statusBar = new JLabel("Loading " + path.getPath() + "...");
+		this.progressBar = new JProgressBar();
+		this.progressBar.setIndeterminate(true);
+		JPanel statusPanel = new JPanel(new BorderLayout());
+		statusPanel.add(this.statusBar, BorderLayout.CENTER);
+		statusPanel.add(this.progressBar, BorderLayout.EAST);
+
+		/* lay out the components */
+		JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, new JScrollPane(this.treeView),
+		                                      new JScrollPane(this.textView));
+		JPanel mainPanel = new JPanel(new BorderLayout());
+		mainPanel.add(statusPanel, BorderLayout.SOUTH);
+		mainPanel.add(splitPane, BorderLayout.CENTER);
+		this.add(mainPanel);
+
+		/* show the window */
+		this.setTitle(TaskMistress.PROGRAM_NAME + " " + TaskMistress.PROGRAM_VERSION + " : " + path.getPath() +
+		              " (read-only)");
+		this.setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+		this.setSize(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+		this.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+		this.setVisible(true);
+		splitPane.setDividerLocation(0.30);
+	}
+
+	/**
+	 * Opens a task tree in a read-only window. The window is shown at once and the tree is loaded on a background
+	 * thread; if the load fails, the window is closed and the error is shown to the user.
+	 * @param path the path of the task tree
+	 */
+	public static void open(final File path) {
+		final ArenaWindow window = new ArenaWindow(path);
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					final TaskArena arena = FileSystemTask.loadArena(path);
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							window.loaded(arena);
+						}
+					});
+				} catch (final Exception e) {
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							window.dispose();
+							String title = TaskMistress.PROGRAM_NAME + " " + TaskMistress.PROGRAM_VERSION;
+							JOptionPane.showMessageDialog(null, "Task tree load failed: " + e.getMessage(), title,
+							                              JOptionPane.ERROR_MESSAGE);
+						}
+					});
+				}
+			}
+		}).start();
+	}
+
+	/**
+	 * Shows a loaded tree in the window.
+	 * @param arena the arena that holds the tasks of the tree
+	 */
+	private void loaded(TaskArena arena) {
+		this.model = new TaskArenaModel(arena);
+		this.treeView.setModel(this.model);
+
+		/* show the number of tasks and the estimated memory use; nothing is removed from the arena, so each allocated
+		 * id is a task (minus one for root) */
+		this.statusBar.getParent().remove(this.progressBar);
+		this.statusBar.setText((arena.size() - 1) + " tasks loaded read-only, about " +
+		                       (arena.estimateSize() / 1024) + " KiB in memory.");
+		this.setCursor(Cursor.getDefaultCursor());
+		this.validate();
+	}
+
+	/** Shows the text of the selected task. */
+	@Override
+	public void valueChanged(TreeSelectionEvent event) {
+		Object node = this.treeView.getLastSelectedPathComponent();
+		if (node == null) this.textView.setText("");
+		else this.textView.setText(this.model.getArena().getText(((TaskArenaModel.Node) node).getId()));
+		this.textView.setCaretPosition(0);
+	}
+}
@@ -0,0 +1,192 @@
+/* BlobStore.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A content-addressed store of task texts.
+ *
+ * Each text is stored once, in a file named by the SHA-1 hash of its UTF-8 bytes; the tasks refer to the text by the
+ * hash. The texts read from the store are shared in memory between the tasks that refer to the same hash.
+ *
+ * The texts that are no longer referred to are deleted by collect(), which counts the references of the tasks on disk.
+ * A text that was written or reused recently is never deleted, so a task that is being saved while the collection
+ * runs does not lose its text.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+class BlobStore {
+	/** The name of the blob directory in the task tree directory. */
+	public static final String BLOB_DIR = ".blobs";
+
+	/** The time in milliseconds a blob is kept after it was last written or reused, even if nothing refers to it. */
+	private static final long GRACE_TIME = 10 * 60 * 1000;
+
+	/** Hexadecimal digits. */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/** The blob directory. */
+	private final File path;
+
+	/** The texts read from the store by hash; shared by the tasks that have the same text. */
+	private final Map<String, WeakReference<Object>> loaded = new HashMap<String, WeakReference<Object>>();
+
+	/** Held while a blob is written or reused and while a blob is deleted. */
+	private final Object lock = new Object();
+
+	/**
+	 * Constructs a blob store.
+	 * @param path the blob directory; created when the first blob is written
+	 */
+	public BlobStore(File path) {
+		this.path = path;
+	}
+
+	/**
+	 * Returns the hash of a text.
+	 * @param text the text
+	 * @return the hash as a hexadecimal string
+	 * @throws Exception if the hash cannot be computed
+	 */
+	public static String hash(String text) throws Exception {
+		byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+		char[] chars = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			chars[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[digest[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Returns the file of a blob.
+	 * @param hash the hash of the blob
+	 * @return the file
+	 */
+	private File getFile(String hash) {
+		return new File(new File(this.path, hash.substring(0, 2)), hash);
+	}
+
+	/**
+	 * Stores a text. If the text is already stored, it is not written again.
+	 * @param text the text to store
+	 * @param compress true to compress the text, false to store it as plain text
+	 * @return the hash of the text
+	 * @throws Exception on IO errors
+	 */
+	public String put(String text, boolean compress) throws Exception {
+		String hash = hash(text);
+		File file = this.getFile(hash);
+
+		synchronized (this.lock) {
+			/* reuse the stored text; renew it, so it is not collected just before the task refers to it */
+			if (file.exists()) {
+				file.setLastModified(System.currentTimeMillis());
+				return hash;
+			}
+
+			/* write to a temporary file, so a blob is never seen half-written */
+			File dir = file.getParentFile();
+			if (!dir.exists() && !dir.mkdirs()) throw new Exception("cannot create " + dir.getPath());
+			File tempFile = new File(dir, hash + ".tmp");
+			TextFile.write(tempFile, text, compress);
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			           StandardCopyOption.ATOMIC_MOVE);
+		}
+		return hash;
+	}
+
+	/**
+	 * Reads a text from the store. A text that was already read is not read again, but shared.
+	 * @param hash the hash of the text
+	 * @return the text as a String or a PackedText
+	 * @throws Exception if the text does not exist or cannot be read
+	 */
+	public synchronized Object get(String hash) throws Exception {
+		WeakReference<Object> ref = this.loaded.get(hash);
+		Object text = (ref == null) ? null : ref.get();
+		if (text != null) return text;
+
+		File file = this.getFile(hash);
+		if (!file.exists()) throw new Exception("missing text " + file.getPath());
+		text = PackedText.pack(TextFile.read(file));
+		this.loaded.put(hash, new WeakReference<Object>(text));
+		return text;
+	}
+
+	/**
+	 * Deletes the blobs that no task refers to. The references are counted from the task meta data files under the
+	 * given directory, which includes the removed tasks in the trash that may still be restored.
+	 * @param root the task tree directory
+	 * @return the number of references to each blob in use
+	 * @throws Exception if the meta data of a task cannot be read; nothing is deleted then
+	 */
+	public Map<String, Integer> collect(File root) throws Exception {
+		/* count the references */
+		Map<String, Integer> refs = new HashMap<String, Integer>();
+		if (!this.path.isDirectory()) return refs;
+		this.countReferences(root, refs);
+
+		/* delete the unreferenced blobs that are old enough */
+		int deleted = 0;
+		long freed = 0;
+		File[] dirs = this.path.listFiles();
+		if (dirs == null) return refs;
+		for (File dir : dirs) {
+			File[] files = dir.listFiles();
+			if (files == null) continue;
+			for (File file : files) {
+				if (refs.containsKey(file.getName())) continue;
+				synchronized (this.lock) {
+					if (file.lastModified() > System.currentTimeMillis() - GRACE_TIME) continue;
+					long length = file.length();
+					if (file.delete()) {
+						deleted++;
+						freed += length;
+					}
+				}
+			}
+			synchronized (this.lock) {
+				dir.delete(); /* fails unless empty */
+			}
+		}
+		synchronized (this) {
+			this.loaded.keySet().retainAll(refs.keySet());
+		}
+
+		Debugger.addMessage("BlobStore.collect: " + refs.size() + " blobs in use, " + deleted + " deleted, " + freed +
+		                    " bytes freed");
+		return refs;
+	}
+
+	/**
+	 * Counts the blob references of the tasks in a directory tree.
+	 * @param path the directory
+	 * @param refs the map that receives the number of references to each blob
+	 * @throws Exception if the meta data of a task cannot be read
+	 */
+	private void countReferences(File path, Map<String, Integer> refs) throws Exception {
+		String hash = FileSystemTask.getBlobReference(path);
+		if (hash != null) refs.put(hash, refs.containsKey(hash) ? refs.get(hash) + 1 : 1);
+
+		File[] files = path.listFiles();
+		if (files == null) return;
+		for (File file : files) {
+			if (file.isDirectory() && !file.equals(this.path)) this.countReferences(file, refs);
+		}
+	}
+}
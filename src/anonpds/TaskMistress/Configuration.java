@@ -14,16 +14,59 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Set;
 
 /* TODO add support for sections, if needed */
 
 /**
  * Configuration file parser class.
+ *
+ * The files that are read again and again, like the meta data of the tasks, can be parsed with parseCached(), which
+ * keeps the recently parsed files in memory and parses a file again only if its size or modification time has
+ * changed. The cache holds a small number of files by default; an open task tree reserves room for the meta data of
+ * its tasks with reserveCache(), since a cache smaller than the tree would miss on every file when the tree is read
+ * again. The reserved room is capped, so the memory the cache takes stays bounded however large the trees are.
+ *
  * @author anonpds <anonpds@gmail.com>
  */
 public class Configuration {
+	/** The maximum number of parsed files kept in the cache, without reservations. */
+	private static final int CACHE_FILES = 1024;
+
+	/** The maximum total size of the parsed files kept in the cache without reservations, in bytes. */
+	private static final long CACHE_BYTES = 1024 * 1024;
+
+	/** The room made in the cache for each reserved file, in bytes. */
+	private static final long CACHE_FILE_BYTES = CACHE_BYTES / CACHE_FILES;
+
+	/** The maximum number of files reserved in the cache, in total over all the reservations. */
+	private static final int CACHE_MAX_RESERVED = 16 * 1024;
+
+	/**
+	 * A file modified less than this many milliseconds before it was parsed is not cached, since it may still change
+	 * without its modification time changing.
+	 */
+	private static final long CACHE_RACY_TIME = 2000;
+
+	/** The cache of parsed files by their absolute path, from the least to the most recently used. */
+	private static final LinkedHashMap<String, CachedFile> cache =
+		new LinkedHashMap<String, CachedFile>(16, 0.75f, true);
+
+	/** The total size of the files in the cache, in bytes. */
+	private static long cacheBytes = 0;
+
+	/** The number of files reserved in the cache on top of CACHE_FILES, by the owner of the reservation. */
+	private static final HashMap<String, Integer> reservations = new HashMap<String, Integer>();
+
+	/** The total number of files reserved in the cache, before the cap of CACHE_MAX_RESERVED. */
+	private static int cacheReserved = 0;
+
 	/** The map of parsed configuration variables. */
 	private HashMap<String,String> map;
 	
@@ -98,6 +141,88 @@ public class Configuration {
 	public Set<String> getAll() {
 		return this.map.keySet();
 	}
+
+	/**
+	 * Returns a copy of the configuration.
+	 * @return the copy
+	 */
+	public Configuration copy() {
+		Configuration copy = new Configuration();
+		copy.map.putAll(this.map);
+		return copy;
+	}
+
+	/**
+	 * Parses a configuration file, or returns the configuration parsed from it earlier if the file has not changed
+	 * since. A file is known to be unchanged if its size and modification time are the same, which takes one stat of
+	 * the file to check. The returned configuration is a copy that the caller may change.
+	 * @param confFile the configuration file to parse
+	 * @return the Configuration object parsed from the given file
+	 * @throws Exception on errors
+	 */
+	public static Configuration parseCached(File confFile) throws Exception {
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(confFile.toPath(), BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			throw new Exception(confFile.getName() + " does not exist.");
+		}
+		long size = attributes.size(), modified = attributes.lastModifiedTime().toMillis();
+		String key = confFile.getAbsolutePath();
+		synchronized (cache) {
+			CachedFile cached = cache.get(key);
+			if (cached != null && cached.size == size && cached.modified == modified) return cached.conf.copy();
+		}
+
+		/* the file was changed after the stat if the stat no longer matches; then it is parsed again next time */
+		Configuration conf = parse(confFile);
+		synchronized (cache) {
+			uncache(key);
+			if (System.currentTimeMillis() - modified >= CACHE_RACY_TIME && size <= CACHE_BYTES) {
+				cache.put(key, new CachedFile(conf.copy(), size, modified));
+				cacheBytes += size;
+				evict();
+			}
+		}
+		return conf;
+	}
+
+	/**
+	 * Reserves room in the cache for a number of files on top of the default size, such as the meta data files of the
+	 * tasks of a task tree. The reservation replaces the earlier reservation of the same owner; the files that no
+	 * longer fit after a smaller reservation are evicted at once. All the reservations together make room for at
+	 * most CACHE_MAX_RESERVED files.
+	 * @param owner the owner of the reservation, like the path of a task tree
+	 * @param files the number of files to reserve room for or 0 to release the room
+	 */
+	public static void reserveCache(String owner, int files) {
+		synchronized (cache) {
+			Integer old = (files > 0) ? reservations.put(owner, files) : reservations.remove(owner);
+			cacheReserved += files - ((old == null) ? 0 : old);
+			evict();
+		}
+	}
+
+	/**
+	 * Evicts the least recently used files until the cache fits in its limits. Must be called with the cache locked.
+	 */
+	private static void evict() {
+		int reserved = Math.min(cacheReserved, CACHE_MAX_RESERVED);
+		Iterator<CachedFile> iterator = cache.values().iterator();
+		while (cache.size() > CACHE_FILES + reserved || cacheBytes > CACHE_BYTES + reserved * CACHE_FILE_BYTES) {
+			cacheBytes -= iterator.next().size;
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Removes a file from the cache of parsed files. Must be called with the cache locked.
+	 * @param key the absolute path of the file
+	 */
+	private static void uncache(String key) {
+		CachedFile cached = cache.remove(key);
+		if (cached != null) cacheBytes -= cached.size;
+	}
 	
 	/**
 	 * Parses a configuration file and returns the Configuration class created from it.
@@ -163,9 +288,12 @@ public class Configuration {
 	 * @throws Exception on file IO error
 	 */
 	public void store(File file) throws Exception {
+		synchronized (cache) {
+			uncache(file.getAbsolutePath());
+		}
 		PrintStream stream = new PrintStream(file, "UTF-8");
 		try {
-			this.store(new PrintStream(file));
+			this.store(stream);
 		} finally {
 			stream.close();
 		}
@@ -223,6 +351,33 @@ public class Configuration {
 		return(escaped.toString());
 	}
 	
+	/**
+	 * A parsed file in the cache.
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	private static class CachedFile {
+		/** The configuration parsed from the file. */
+		private final Configuration conf;
+
+		/** The size of the file when it was parsed. */
+		private final long size;
+
+		/** The modification time of the file when it was parsed. */
+		private final long modified;
+
+		/**
+		 * Constructs a cached file.
+		 * @param conf the configuration parsed from the file
+		 * @param size the size of the file
+		 * @param modified the modification time of the file
+		 */
+		CachedFile(Configuration conf, long size, long modified) {
+			this.conf = conf;
+			this.size = size;
+			this.modified = modified;
+		}
+	}
+
 	/**
 	 * Class for tokenizing configuration files. There are four possible types of tokens, each denoted by a integer
 	 * constant in the class:
@@ -9,7 +9,13 @@
 
 package anonpds.TaskMistress;
 
+import java.awt.AWTEvent;
 import java.awt.BorderLayout;
+import java.awt.EventQueue;
+import java.awt.Font;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.text.DateFormat;
@@ -23,6 +29,8 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
+import javax.swing.Timer;
+import javax.swing.tree.TreeNode;
 
 /**
  * Simple debugger module for Task Mistress. Catches debug messages and can be used to display run-time information
@@ -38,6 +46,15 @@ public class Debugger {
 	
 	/** Is the debugger window shown? */
 	private static boolean debuggerShown = false;
+
+	/** The number of the heaviest sub-trees listed in the footprint view. */
+	private static final int FOOTPRINT_COUNT = 50;
+
+	/** The interval at which the statistics are refreshed, in milliseconds. */
+	private static final int STATISTICS_INTERVAL = 1000;
+
+	/** Measures the load of the event dispatch thread; installed when the statistics are first shown. */
+	private static EventMonitor eventMonitor = null;
 	
 	/**
 	 * Adds a debug message.
@@ -67,10 +84,49 @@ public class Debugger {
 		debuggerShown = true;
 	}
 	
+	/**
+	 * An event queue that measures the time the event dispatch thread spends waiting for events. The rest of the time
+	 * the thread is busy, either dispatching events or blocked in one; waiting is measured instead of dispatching,
+	 * since the events of a modal dialog are dispatched inside the event that opened the dialog.
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	static class EventMonitor extends EventQueue {
+		/** The total time spent waiting for events, in nanoseconds. */
+		private volatile long idle;
+
+		@Override
+		public AWTEvent getNextEvent() throws InterruptedException {
+			long start = System.nanoTime();
+			try {
+				return super.getNextEvent();
+			} finally {
+				this.idle += System.nanoTime() - start;
+			}
+		}
+
+		/**
+		 * Returns the total time the event dispatch thread has spent waiting for events since the monitor was
+		 * installed.
+		 * @return the idle time in nanoseconds
+		 */
+		public long getIdleTime() {
+			return this.idle;
+		}
+	}
+
 	@SuppressWarnings("serial")
 	static class DebuggerWindow extends JDialog {
 		private TaskStore store;
 
+		/** Refreshes the statistics while the window is open. */
+		private Timer statisticsTimer;
+
+		/** The time of the previous refresh of the statistics, in nanoseconds. */
+		private long lastRefresh;
+
+		/** The idle time of the event dispatch thread at the previous refresh of the statistics. */
+		private long lastIdle;
+
 		public DebuggerWindow(JFrame owner, TaskStore store) {
 			super(owner, true);
 
@@ -80,6 +136,9 @@ public class Debugger {
 			JTabbedPane tabs = new JTabbedPane();
 			tabs.add("Tree", createTreeView());
 			tabs.add("Messages", createMessageView());
+			tabs.add("Texts", createTextView());
+			tabs.add("Statistics", createStatisticsView());
+			tabs.add("Footprint", createFootprintView());
 			
 			/* add to the window and set the window */
 			this.setTitle(TaskMistress.PROGRAM_NAME + " " + TaskMistress.PROGRAM_VERSION + ": Debugger");
@@ -124,6 +183,92 @@ public class Debugger {
 			return(panel);
 		}
 		
+		private JComponent createTextView() {
+			/* create a non-editable JTextArea with the text statistics */
+			JTextArea text = new JTextArea(this.store.getTextStatistics());
+			text.setEditable(false);
+
+			/* put the text area in a panel and return the panel*/
+			JPanel panel = new JPanel(new BorderLayout());
+			panel.add(new JScrollPane(text), BorderLayout.CENTER);
+			return(panel);
+		}
+		
+		/**
+		 * Creates the view of the statistics, which is refreshed on a timer while the window is open.
+		 * @return the view
+		 */
+		private JComponent createStatisticsView() {
+			if (eventMonitor == null) {
+				eventMonitor = new EventMonitor();
+				Toolkit.getDefaultToolkit().getSystemEventQueue().push(eventMonitor);
+			}
+			this.lastRefresh = System.nanoTime();
+			this.lastIdle = eventMonitor.getIdleTime();
+
+			/* create a non-editable JTextArea and refresh it on a timer */
+			final JTextArea text = new JTextArea(this.getStatistics());
+			text.setEditable(false);
+			this.statisticsTimer = new Timer(STATISTICS_INTERVAL, new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent event) {
+					text.setText(getStatistics());
+				}
+			});
+			this.statisticsTimer.start();
+
+			/* put the text area in a panel and return the panel*/
+			JPanel panel = new JPanel(new BorderLayout());
+			panel.add(new JScrollPane(text), BorderLayout.CENTER);
+			return(panel);
+		}
+
+		/**
+		 * Returns the current statistics of the store, the memory and the event dispatch thread.
+		 * @return the statistics, one per line
+		 */
+		private String getStatistics() {
+			StringBuffer buffer = new StringBuffer(this.store.getStatistics());
+
+			Runtime runtime = Runtime.getRuntime();
+			long used = runtime.totalMemory() - runtime.freeMemory();
+			buffer.append("Heap: " + used / 1024 + " kB used of " + runtime.maxMemory() / 1024 + " kB\n");
+
+			/* the share of the time since the previous refresh that the event dispatch thread was not idle */
+			long now = System.nanoTime(), idle = eventMonitor.getIdleTime();
+			if (now > this.lastRefresh) {
+				long busy = Math.max(0, (now - this.lastRefresh) - (idle - this.lastIdle));
+				buffer.append("Event thread busy: " + (100 * busy / (now - this.lastRefresh)) + "%\n");
+			}
+			this.lastRefresh = now;
+			this.lastIdle = idle;
+			return buffer.toString();
+		}
+		
+		/**
+		 * Creates the view of the sub-trees with the largest estimated heap size.
+		 * @return the view
+		 */
+		private JComponent createFootprintView() {
+			StringBuffer buffer = new StringBuffer("The heaviest sub-trees (estimated heap, tasks, path):\n\n");
+			for (Task task : this.store.getHeaviestSubtrees(FOOTPRINT_COUNT)) {
+				buffer.append(String.format("%8d kB %7d  ", this.store.getFootprint(task) / 1024, task.countNodes()));
+				TreeNode[] path = task.getPath();
+				for (int i = 1; i < path.length; i++) buffer.append('/').append(((Task) path[i]).getName());
+				buffer.append('\n');
+			}
+
+			/* create a non-editable JTextArea with the list */
+			JTextArea text = new JTextArea(buffer.toString());
+			text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, text.getFont().getSize()));
+			text.setEditable(false);
+
+			/* put the text area in a panel and return the panel*/
+			JPanel panel = new JPanel(new BorderLayout());
+			panel.add(new JScrollPane(text), BorderLayout.CENTER);
+			return(panel);
+		}
+		
 		public void mapTask(StringBuffer buffer, Task task, int depth) {
 			for (int i = 0; i < task.getChildCount(); i++) {
 				for (int j = 0; j < depth; j++) buffer.append("  ");
@@ -148,6 +293,7 @@ public class Debugger {
 			@Override
 			public void windowClosed(WindowEvent e) {
 				Debugger.debuggerShown = false;
+				statisticsTimer.stop();
 			}
 		}
 	}
@@ -9,12 +9,27 @@
 
 package anonpds.TaskMistress;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.zip.CRC32;
 
 /* TODO wrap the load and save methods around try - catch clause and report errors to the debugger then throw the
  * exception to the caller
@@ -22,6 +37,25 @@ import java.io.PrintWriter;
 
 /**
  * A sub-class of Task, which adds file system storage features to the task.
+ *
+ * Each task is stored in a directory of its own, under the directory of its parent, in one of two layouts. In the
+ * file system layout the task is kept in three files: the meta data in task.cfg, the text in task.txt and the plain
+ * names of the children in children.ndx. In the record layout the task is kept in a single record file, task.rec:
+ *
+ *   int      magic number "TMR1"
+ *   string   name
+ *   long     creation time
+ *   short    status
+ *   int      number of children, followed by the plain name of each child as a string
+ *   byte     the kind of the text, followed by the text:
+ *              0: int length and the UTF-8 text
+ *              1: int length and the UTF-8 text compressed with deflate
+ *              2: the hash of the text in the blob store as a string
+ *
+ * The strings are stored as an int length followed by the UTF-8 bytes. The layout that is written is chosen with the
+ * format of the task tree (see StorageOptions); both layouts are read, so a tree is converted task by task as the
+ * tasks are saved. The root of the tree is not stored as a task and keeps its index in children.ndx in both layouts.
+ *
  * @author anonpds <anonpds@gmail.com>
  */
 @SuppressWarnings("serial")
@@ -38,6 +72,9 @@ public class FileSystemTask extends Task {
 	/** The plain name of the task. */
 	private static final String CONFIG_PLAIN_NAME = "plain_name";
 
+	/** Configuration variable for the hash of the task text in the blob store. */
+	private static final String CONFIG_TEXT_BLOB = "text_blob";
+
 	/** The name of the file that contains task meta data. */
 	private static final String META_FILE = "task.cfg";
 
@@ -47,6 +84,57 @@ public class FileSystemTask extends Task {
 	/** The file containing the index of a nodes children. */
 	private static final String INDEX_FILE = "children.ndx";
 
+	/** The file that contains the whole task in the record layout. */
+	private static final String RECORD_FILE = "task.rec";
+
+	/** The first four bytes of a record file: "TMR1". */
+	private static final int RECORD_MAGIC = 0x544D5231;
+
+	/** The kind of a record text stored as plain UTF-8. */
+	private static final byte RECORD_TEXT_PLAIN = 0;
+
+	/** The kind of a record text stored as UTF-8 compressed with deflate. */
+	private static final byte RECORD_TEXT_DEFLATED = 1;
+
+	/** The kind of a record text stored in the blob store. */
+	private static final byte RECORD_TEXT_BLOB = 2;
+
+	/** The size of the buffer used to copy the text of a record when the index in the record is replaced. */
+	private static final int RECORD_COPY_BUFFER = 8 * 1024;
+
+	/** The file containing the changes made to the task text since the text file was written. */
+	private static final String DELTA_FILE = "task.dlt";
+
+	/** The first four bytes of a delta file: "TMD1". */
+	private static final int DELTA_MAGIC = 0x544D4431;
+
+	/** The size of the delta file header: the magic number, the base text length and the base text checksum. */
+	private static final int DELTA_HEADER_SIZE = 4 + 4 + 8;
+
+	/** The delta file is compacted into the text file when it grows larger than this many bytes... */
+	private static final long DELTA_COMPACT_SIZE = 16 * 1024;
+
+	/** ...and larger than the text divided by this. */
+	private static final int DELTA_COMPACT_RATIO = 4;
+
+	/** The text as it is on disk, as a String or a PackedText; only valid if textSaved is true. */
+	private volatile Object savedText;
+
+	/** Tells whether savedText is the text on disk. */
+	private volatile boolean textSaved;
+
+	/** The length of the delta file on disk; 0 if there is none and -1 if it can not be appended to. */
+	private volatile long deltaLength = -1;
+
+	/** The hash of the text on disk in the blob store or null if the text is not in the blob store. */
+	private volatile String savedBlob;
+
+	/** Tells whether the task is on disk as a record rather than in the file system layout. */
+	private volatile boolean storedAsRecord;
+
+	/** The plain names of the children as read from the record of the task; only kept until the children are loaded. */
+	private String[] storedChildren;
+
 	/** Constructs an empty FileSystemTask node. Useful as the root of a task tree. */
 	public FileSystemTask() {
 		super();
@@ -73,6 +161,50 @@ public class FileSystemTask extends Task {
 		super(parent, name, text, timeStamp, dirty);
 	}
 	
+	/**
+	 * Makes a copy of a task and its sub-tree. The copies share the texts of the original tasks; since the texts are
+	 * immutable, the storage is only duplicated when one of the tasks is edited. The plain names of the copied tasks
+	 * are kept, unless the top-level copy clashes with its new siblings when it's added to the tree.
+	 * @param source the task to copy
+	 * @param sources map that receives the original task of each copy
+	 * @return the copy; it has no parent
+	 */
+	public static FileSystemTask copyTree(Task source, Map<Task, Task> sources) {
+		FileSystemTask copy = new FileSystemTask();
+		copy.copyFrom(source);
+		sources.put(copy, source);
+
+		for (int i = 0; i < source.getChildCount(); i++) copy.add(copyTree((Task) source.getChildAt(i), sources));
+		return copy;
+	}
+
+	/**
+	 * Returns the text file of a task directory, if it holds the whole text of the task.
+	 * @param path the task directory
+	 * @return the text file or null if there is none, if changes to the text are saved in the delta file or if the
+	 *         task is stored as a record
+	 */
+	public static File getTextFile(File path) {
+		File file = new File(path, TEXT_FILE);
+		if (!file.exists() || new File(path, DELTA_FILE).exists() || new File(path, RECORD_FILE).exists()) return null;
+		return file;
+	}
+
+	/**
+	 * Returns the blob reference of the task in a directory.
+	 * @param path the task directory
+	 * @return the hash of the task text in the blob store or null if the text is not in the blob store
+	 * @throws Exception if the meta data cannot be read
+	 */
+	public static String getBlobReference(File path) throws Exception {
+		Record record = Record.read(path, null);
+		if (record != null) return record.blob;
+
+		File metaFile = new File(path, META_FILE);
+		if (!metaFile.exists()) return null;
+		return Configuration.parseCached(metaFile).get(CONFIG_TEXT_BLOB);
+	}
+
 	/**
 	 * Loads a tree of tasks.
 	 * @param tree the root node under which to load the tasks
@@ -80,58 +212,252 @@ public class FileSystemTask extends Task {
 	 * @throws Exception on any IO or parse errors
 	 */
 	public static void loadTree(Task tree, File path) throws Exception {
+		loadTree(tree, path, new BlobStore(new File(path, BlobStore.BLOB_DIR)));
+	}
+
+	/**
+	 * Loads a tree of tasks.
+	 * @param tree the root node under which to load the tasks
+	 * @param path the directory path to load from
+	 * @param blobs the blob store of the tree
+	 * @throws Exception on any IO or parse errors
+	 */
+	public static void loadTree(Task tree, File path, BlobStore blobs) throws Exception {
+		loadTree(tree, path, blobs, null);
+	}
+
+	/**
+	 * Loads a tree of tasks. Each task is read in the layout it is stored in.
+	 *
+	 * The loader lists each task directory once and decides from the listing which layout the task is in, which of
+	 * its files exist and which children are present, instead of checking each file separately. A child directory
+	 * is found to be a directory when it is listed in turn. This keeps the number of file system calls per task low,
+	 * which matters most on network file systems, where each call is a round trip to the server.
+	 * @param tree the root node under which to load the tasks
+	 * @param path the directory path to load from
+	 * @param blobs the blob store of the tree
+	 * @param options the storage options of the tree; the tasks that are not stored in the layout of the options are
+	 *        marked changed, so they are converted when they are saved. Null to leave the tasks as they are.
+	 * @throws Exception on any IO or parse errors
+	 */
+	public static void loadTree(Task tree, File path, BlobStore blobs, StorageOptions options) throws Exception {
 		/* must be a directory */
-		if (!path.isDirectory()) throw new Exception("'" + path.getPath() + "' not a directory");
+		Set<String> entries = listDirectory(path);
+		if (entries == null) throw new Exception("'" + path.getPath() + "' not a directory");
+		loadChildren(tree, path, entries, blobs, options);
+	}
 
-		File indexFile = new File(path, INDEX_FILE);
-		if (indexFile.exists()) {
-			/* the index file exists, load nodes based on the index */
-			BufferedReader reader = new BufferedReader(new FileReader(indexFile));
-			String line;
-			
-			/* the index is just a list of sub-directories, one per line */
-			while ((line = reader.readLine()) != null) {
-				if (line.length() == 0) continue;
-				File taskFile = new File(path, line);
-				Task task = FileSystemTask.load(taskFile);
-				if (task != null) {
-					tree.add(task);
-					
-					/* add the children recursively */
-					loadTree(task, taskFile);
+	/**
+	 * Loads a tree of tasks into an arena, for viewing trees that are too large to open with Task objects. The tasks
+	 * are read as by loadTree(), in either layout, but each task only lives in the arena, with its text packed.
+	 * Nothing is written, so a tree that is open elsewhere can be read as well.
+	 * @param path the directory path to load from
+	 * @return the arena that holds the tree; the root is named after the directory
+	 * @throws Exception on any IO or parse errors
+	 */
+	public static TaskArena loadArena(File path) throws Exception {
+		Set<String> entries = listDirectory(path);
+		if (entries == null) throw new Exception("'" + path.getPath() + "' not a directory");
+		TaskArena arena = new TaskArena();
+		arena.setName(arena.getRoot(), path.getName());
+		BlobStore blobs = new BlobStore(new File(path, BlobStore.BLOB_DIR));
+
+		/* walk the tree depth first without recursion; each level lists the children of a task still to be read */
+		Vector<ArenaLevel> levels = new Vector<ArenaLevel>();
+		levels.add(new ArenaLevel(arena.getRoot(), path, entries, listChildNames(entries, null, path)));
+		while (!levels.isEmpty()) {
+			ArenaLevel level = levels.lastElement();
+			if (level.next == level.names.size()) {
+				levels.remove(levels.size() - 1);
+				continue;
+			}
+			String name = level.names.get(level.next++);
+			File taskPath = new File(level.path, name);
+			Set<String> taskEntries = level.entries.contains(name) ? listDirectory(taskPath) : null;
+			FileSystemTask task = (taskEntries == null) ? null : FileSystemTask.load(taskPath, taskEntries, blobs);
+			if (task == null) continue;
+
+			/* the task is only kept until its data is copied to the arena */
+			int child = arena.add(level.id, task.getName(), null, task.getCreationTime(), task.getStatus());
+			arena.setRawText(child, task.getRawText());
+			Vector<String> names = listChildNames(taskEntries, task.storedChildren, taskPath);
+			levels.add(new ArenaLevel(child, taskPath, taskEntries, names));
+		}
+		return arena;
+	}
+
+	/**
+	 * Opens a task tree on disk for exporting, without loading it. The tasks are read a level at a time as the outline
+	 * is walked, and the sub-tree of a task is dropped when the walk moves on to its next sibling, so a tree of any
+	 * size is walked in memory that grows with its depth and the width of its levels, not with its size. Nothing is
+	 * written, so a tree that is open elsewhere can be read as well.
+	 * @param path the directory path of the tree
+	 * @return the outline of the tree; its root has no name
+	 * @throws Exception if the path is not a directory
+	 */
+	public static TaskOutline openOutline(File path) throws Exception {
+		Set<String> entries = listDirectory(path);
+		if (entries == null) throw new Exception("'" + path.getPath() + "' not a directory");
+		return new DiskOutline(path, entries, null, new BlobStore(new File(path, BlobStore.BLOB_DIR)));
+	}
+
+	/**
+	 * Loads a task and its sub-tree from the directory of the task, detached from any tree; used to restore a removed
+	 * task whose directory has been moved back from the trash.
+	 * @param path the directory of the task
+	 * @param blobs the blob store of the tree
+	 * @param options the storage options of the tree or null to leave the layout of the tasks as it is
+	 * @return the loaded task or null if the directory is not a task directory
+	 * @throws Exception if the path is not a directory or on any IO or parse errors
+	 */
+	public static FileSystemTask loadSubtree(File path, BlobStore blobs, StorageOptions options) throws Exception {
+		Set<String> entries = listDirectory(path);
+		if (entries == null) throw new Exception("'" + path.getPath() + "' not a directory");
+		FileSystemTask task = FileSystemTask.load(path, entries, blobs);
+		if (task == null) return null;
+		loadChildren(task, path, entries, blobs, options);
+		if (options != null && task.storedAsRecord != options.isRecordFormat()) task.setDirty(true);
+		return task;
+	}
+
+	/**
+	 * Returns the plain names of the children of a task, for reading the tree without changing it: the names in the
+	 * record of the task, or else in its index, or else the names of all of its sub-directories that are not hidden.
+	 * @param entries the entries of the directory of the task
+	 * @param stored the names of the children read from the record of the task or null if the task has no record
+	 * @param path the directory of the task
+	 * @return the plain names of the children
+	 * @throws Exception on IO errors
+	 */
+	private static Vector<String> listChildNames(Set<String> entries, String[] stored, File path) throws Exception {
+		Vector<String> names = (stored != null) ? new Vector<String>(Arrays.asList(stored)) : readIndex(path, entries);
+		if (names == null) {
+			/* no index; use all suitable sub-directories */
+			names = new Vector<String>();
+			for (String name : entries) if (!name.startsWith(".") && !isTaskFile(name)) names.add(name);
+		}
+		return names;
+	}
+
+	/**
+	 * Reads the index file of a task.
+	 * @param path the directory of the task
+	 * @param entries the entries of the directory
+	 * @return the names of the children in the index or null if the task has no index
+	 * @throws Exception on IO errors
+	 */
+	private static Vector<String> readIndex(File path, Set<String> entries) throws Exception {
+		if (!entries.contains(INDEX_FILE)) return null;
+
+		/* the index is just a list of sub-directories, one per line */
+		Vector<String> names = new Vector<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(new File(path, INDEX_FILE)));
+		String line;
+		while ((line = reader.readLine()) != null) if (line.length() > 0) names.add(line);
+		reader.close();
+		return names;
+	}
+
+	/**
+	 * Lists the entries of a directory.
+	 * @param path the directory
+	 * @return the names of the entries or null if the path is not a directory or cannot be read
+	 */
+	private static Set<String> listDirectory(File path) {
+		String[] names = path.list();
+		if (names == null) return null;
+		Set<String> entries = new HashSet<String>(names.length * 2);
+		for (String name : names) entries.add(name);
+		return entries;
+	}
+
+	/**
+	 * Tells whether a directory entry is one of the files of a task, rather than a directory of a child.
+	 * @param name the name of the entry
+	 * @return true if the entry is a task file, false if not
+	 */
+	private static boolean isTaskFile(String name) {
+		return name.equals(META_FILE) || name.equals(TEXT_FILE) || name.equals(INDEX_FILE) ||
+		       name.equals(RECORD_FILE) || name.equals(DELTA_FILE);
+	}
+
+	/**
+	 * Loads the children of a task from its directory.
+	 * @param tree the node under which to add the children
+	 * @param path the directory of the task
+	 * @param entries the entries of the directory
+	 * @param blobs the blob store of the tree
+	 * @param options the storage options of the tree or null to leave the layout of the tasks as it is
+	 * @throws Exception on any IO or parse errors
+	 */
+	private static void loadChildren(Task tree, File path, Set<String> entries, BlobStore blobs,
+	                                 StorageOptions options) throws Exception {
+		/* a task read from a record has the index of its children already */
+		Vector<String> names = null;
+		if (tree instanceof FileSystemTask && ((FileSystemTask) tree).storedChildren != null) {
+			names = new Vector<String>();
+			for (String name : ((FileSystemTask) tree).storedChildren) names.add(name);
+			((FileSystemTask) tree).storedChildren = null;
+		}
+
+		if (names == null) names = readIndex(path, entries);
+
+		if (names != null) {
+			/* the index exists, load nodes based on the index */
+			for (String name : names) {
+				File taskFile = new File(path, name);
+				
+				/* skip entries of missing directories; an interrupted move can leave these behind */
+				if (!entries.contains(name) || !loadChild(tree, taskFile, blobs, options)) {
+					Debugger.addMessage("FileSystemTask.loadTree: " + taskFile.getPath() + " missing; skipped");
+					tree.setDirty(true);
 				}
 			}
-			reader.close();
 		} else {
 			/* the node does not exist, load nodes from all suitable sub-directories */
 			/* TODO remove support for this in the future */
-			File[] files = path.listFiles();
-			for (File file : files) {
-				if (file.isDirectory()) {
-					Task task = FileSystemTask.load(file);
-					if (task != null) {
-						tree.add(task);
-
-						/* recursively add the children */
-						loadTree(task, file);
-					}
-				}
+			for (String name : entries) {
+				/* skip hidden directories, like the trash and the import staging directories */
+				if (!name.startsWith(".") && !isTaskFile(name)) loadChild(tree, new File(path, name), blobs, options);
 			}
 			/* mark the node dirty, so the task will be saved again and an index will be written */
 			tree.setDirty(true);
 		}
 	}
+
+	/**
+	 * Loads a task and its sub-tree and adds it to a tree.
+	 * @param tree the node under which to add the task
+	 * @param path the directory of the task
+	 * @param blobs the blob store of the tree
+	 * @param options the storage options of the tree or null to leave the layout of the task as it is
+	 * @return false if the path is not a directory, true if it is, even if it does not contain a task
+	 * @throws Exception on any IO or parse errors
+	 */
+	private static boolean loadChild(Task tree, File path, BlobStore blobs, StorageOptions options) throws Exception {
+		Set<String> entries = listDirectory(path);
+		if (entries == null) return false;
+		FileSystemTask task = FileSystemTask.load(path, entries, blobs);
+		if (task == null) return true;
+		tree.add(task);
+
+		/* add the children recursively */
+		loadChildren(task, path, entries, blobs, options);
+
+		/* a task in the other layout is converted when it is saved */
+		if (options != null && task.storedAsRecord != options.isRecordFormat()) task.setDirty(true);
+		return true;
+	}
 	
 	/**
-	 * Loads a task from disk.
+	 * Loads a task from disk, with the files of the task known from a listing of its directory.
 	 * @param path the directory path to load the task from
+	 * @param entries the entries of the directory
+	 * @param blobs the blob store of the tree
 	 * @return the loaded Task or null if the directory is not a task directory
 	 * @throws Exception on errors
 	 */
-	public static FileSystemTask load(File path) throws Exception {
-		/* make sure the path exists and is a directory */
-		if (!path.exists() || !path.isDirectory()) throw new Exception(path.getPath() + " does not exist.");
-
+	private static FileSystemTask load(File path, Set<String> entries, BlobStore blobs) throws Exception {
 		FileSystemTask task = new FileSystemTask();
 		
 		Debugger.addMessage("FileSystemTask.load: " + path.getPath());
@@ -140,13 +466,35 @@ public class FileSystemTask extends Task {
 		String plainName = path.getName();
 		task.setPlainName(plainName);
 
+		/* a task in the record layout has all of its data in the record file */
+		Record record = entries.contains(RECORD_FILE) ? Record.read(path, blobs) : null;
+		if (record != null) {
+			task.setName(record.name);
+			task.setCreationTime(record.timeStamp);
+			try { task.setStatus(record.status); } catch (Exception e) {}
+			if (record.blob != null) {
+				task.setRawText(record.text);
+			} else {
+				task.setText((String) record.text);
+				task.packText(); /* the text is packed until the task is opened */
+			}
+			task.setSaved(task.getRawText(), -1);
+			task.savedBlob = record.blob;
+			task.storedAsRecord = true;
+			task.storedChildren = record.childNames;
+			task.setDirty(false);
+
+			Debugger.addMessage("FileSystemTask.load: " + path.getPath() + " success");
+			return task;
+		}
+
 		/* read the meta data; if the meta data file does not exist, the path does not contain a task */
 		String name = null, date = null, status;
+		if (!entries.contains(META_FILE)) return null;
 		File metaFile = new File(path, META_FILE);
-		if (!metaFile.exists()) return null;
 
 		/* use the fancy Configuration class to read and parse the meta data variables */
-		Configuration conf = Configuration.parse(metaFile);
+		Configuration conf = Configuration.parseCached(metaFile);
 		name = conf.get(CONFIG_NAME);
 		/* plain name is taken from the directory name, so not this: plainName = conf.get(CONFIG_PLAIN_NAME); */
 		date = conf.get(CONFIG_CREATION_TIME);
@@ -162,18 +510,19 @@ public class FileSystemTask extends Task {
 		task.setCreationTime(timeStamp);
 		try { task.setStatus(Short.parseShort(status)); } catch (Exception e) {}
 		
-		/* read the task text if it exists */
-		File textFile = new File(path, TEXT_FILE);
-		if (textFile.exists()) {
-			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(textFile), "UTF-8"));
-			String text = "", line;
-			while ((line = reader.readLine()) != null) {
-				if (text.length() > 0) text = text + "\n";
-				text = text + line;
-			}
+		/* read the task text from the blob store, which shares it with other tasks, or from the task directory */
+		String blob = conf.get(CONFIG_TEXT_BLOB);
+		if (blob != null) {
+			task.setRawText(blobs.get(blob));
+			task.setSaved(task.getRawText(), -1);
+			task.savedBlob = blob;
+		} else {
+			/* read the task text if it exists, with the changes saved after it */
+			String text = readText(path, entries, task);
 			task.setText(text);
-			reader.close();
-		} else task.setText(null);
+			task.packText(); /* the text is packed until the task is opened */
+			task.setSaved(task.getRawText(), task.deltaLength);
+		}
 		
 		/* clear the dirty flag, since the Task was just read from disk */
 		task.setDirty(false);
@@ -183,6 +532,103 @@ public class FileSystemTask extends Task {
 		return task;
 	}
 	
+	/**
+	 * Reads the text of a task from its directory and applies the changes in the delta file, if any. A delta file
+	 * that was not written for the current text file is ignored, as is a record that was only partly written.
+	 * @param path the task directory
+	 * @param entries the entries of the directory
+	 * @param task the task that receives the length of the valid part of the delta file, or -1 if the text file can
+	 *        not take deltas; may be null
+	 * @return the text or null if the task has no text file
+	 * @throws Exception on IO errors
+	 */
+	private static String readText(File path, Set<String> entries, FileSystemTask task) throws Exception {
+		File textFile = new File(path, TEXT_FILE);
+		if (task != null) task.deltaLength = 0;
+		if (!entries.contains(TEXT_FILE)) return null;
+
+		/* the deltas apply to the exact text file; without them, the line ends are normalised as they always were */
+		File deltaFile = new File(path, DELTA_FILE);
+		if (!entries.contains(DELTA_FILE)) {
+			String raw = TextFile.read(textFile);
+			BufferedReader reader = new BufferedReader(new StringReader(raw));
+			StringBuffer buffer = new StringBuffer();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (buffer.length() > 0) buffer.append('\n');
+				buffer.append(line);
+			}
+			reader.close();
+
+			/* a delta is written against the normalised text, so a text file that is not normalised (with a trailing
+			 * line end or with CRLF line ends) must be written out in full before the first delta */
+			String text = buffer.toString();
+			if (task != null && !text.equals(raw)) task.deltaLength = -1;
+			return text;
+		}
+		String text = TextFile.read(textFile);
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(deltaFile)));
+		long valid = DELTA_HEADER_SIZE;
+		try {
+			if (in.readInt() != DELTA_MAGIC || in.readInt() != text.length() || in.readLong() != checksum(text)) {
+				Debugger.addMessage("FileSystemTask.readText: " + deltaFile.getPath() + " is stale; ignored");
+				valid = -1;
+			} else {
+				/* apply the records until the end of the file */
+				while (true) {
+					int prefix = in.readInt(), suffix = in.readInt(), size = in.readInt();
+					if (prefix < 0 || suffix < 0 || size < 0 || prefix + suffix > text.length()) {
+						throw new Exception("bad record at " + valid);
+					}
+					byte[] bytes = new byte[size];
+					in.readFully(bytes);
+					text = text.substring(0, prefix) + new String(bytes, "UTF-8") +
+					       text.substring(text.length() - suffix);
+					valid += 4 + 4 + 4 + size;
+				}
+			}
+		} catch (EOFException e) {
+			/* the end of the file, possibly in the middle of a record that was not completely written */
+			if (valid >= 0 && valid != deltaFile.length()) {
+				Debugger.addMessage("FileSystemTask.readText: " + deltaFile.getPath() + " truncated at " + valid);
+				valid = -1;
+			}
+		} catch (Exception e) {
+			Debugger.addMessage("FileSystemTask.readText: " + deltaFile.getPath() + ": " + e.getMessage());
+			valid = -1;
+		} finally {
+			in.close();
+		}
+
+		if (task != null) task.deltaLength = valid;
+		return text;
+	}
+
+	/**
+	 * Computes the checksum of a text, as stored in the delta file header.
+	 * @param text the text
+	 * @return the CRC-32 of the UTF-8 bytes of the text
+	 * @throws Exception if the text can not be encoded
+	 */
+	private static long checksum(String text) throws Exception {
+		CRC32 crc = new CRC32();
+		crc.update(text.getBytes("UTF-8"));
+		return crc.getValue();
+	}
+
+	/**
+	 * Sets the text that is on disk.
+	 * @param text the text on disk as a String or a PackedText
+	 * @param deltaLength the length of the delta file or -1 if it can not be appended to
+	 */
+	private void setSaved(Object text, long deltaLength) {
+		this.savedText = text;
+		this.textSaved = true;
+		this.deltaLength = deltaLength;
+		this.savedBlob = null;
+	}
+
 	/**
 	 * Saves a tree of tasks to disk.
 	 * @param tree the root node of the tree to write out
@@ -191,17 +637,29 @@ public class FileSystemTask extends Task {
 	 * @throws Exception on IO errors
 	 */
 	public static int saveTree(Task tree, File path) throws Exception {
+		return saveTree(tree, path, StorageOptions.DEFAULT);
+	}
+
+	/**
+	 * Saves a tree of tasks to disk.
+	 * @param tree the root node of the tree to write out
+	 * @param path the path to write to
+	 * @param options the storage options of the tree
+	 * @return the number of tasks actually written to disk
+	 * @throws Exception on IO errors
+	 */
+	public static int saveTree(Task tree, File path, StorageOptions options) throws Exception {
 		int numSaved = 0;
 
 		/* Don't save the root node, but save an index of its children */
-		if (!tree.isRoot()) { if (((FileSystemTask)tree).save(path)) numSaved++;
+		if (!tree.isRoot()) { if (((FileSystemTask)tree).save(path, null, options)) numSaved++;
 		} else saveIndex(tree, path);
 		
 		/* recurse for each of the child nodes */
 		for (int i = 0; i < tree.getChildCount(); i++) {
 			Task child = (Task) tree.getChildAt(i);
 			File newPath = new File(path, child.getPlainName());
-			numSaved += saveTree(child, newPath);
+			numSaved += saveTree(child, newPath, options);
 		}
 		
 		return numSaved;
@@ -214,37 +672,36 @@ public class FileSystemTask extends Task {
 	 * @throws Exception on IO errors
 	 */
 	public boolean save(File path) throws Exception {
+		return this.save(path, null);
+	}
+
+	/**
+	 * Saves the Task to disk, optionally copying the task text from an existing file instead of writing it out.
+	 * @param path the path to save the task to
+	 * @param textSource file that contains the current text of the task or null to write the text from memory
+	 * @return true if the task was saved, false if it hasn't changed since last save and thus wasn't written out
+	 * @throws Exception on IO errors
+	 */
+	public boolean save(File path, File textSource) throws Exception {
+		return this.save(path, textSource, StorageOptions.DEFAULT);
+	}
+
+	/**
+	 * Saves the Task to disk, optionally copying the task text from an existing file instead of writing it out.
+	 * @param path the path to save the task to
+	 * @param textSource file that contains the current text of the task or null to write the text from memory
+	 * @param options the storage options of the tree
+	 * @return true if the task was saved, false if it hasn't changed since last save and thus wasn't written out
+	 * @throws Exception on IO errors
+	 */
+	public boolean save(File path, File textSource, StorageOptions options) throws Exception {
 		/* create the path if it doesn't exist */
 		if (!path.exists() && !path.mkdirs()) throw new Exception("can not create " + path);
 
 		/* write the node only if dirty */
 		if (!this.isDirty()) return false;
 
-		Debugger.addMessage("FileSystemTask.save: " + path.getPath());
-		
-		/* write the meta data in new format only */
-		File metaFile = new File(path, META_FILE);
-		Configuration conf = new Configuration();
-		conf.add(CONFIG_NAME, this.getName());
-		conf.add(CONFIG_PLAIN_NAME, this.getPlainName());
-		conf.add(CONFIG_CREATION_TIME, this.getCreationTime());
-		conf.add(CONFIG_STATUS, this.getStatus());
-		conf.store(metaFile);
-		
-		/* write the task text, if any */
-		File textFile = new File(path, TEXT_FILE);
-		try {
-			PrintWriter writer = new PrintWriter(textFile, "UTF-8");
-			if (this.getText() != null) writer.print(this.getText());
-			writer.close();
-		} catch (Exception e) {
-			throw new Exception("can not write to " + textFile.getPath() + ": " + e.getMessage());
-		}
-		
-		/* save an index of the node's children */
-		saveIndex(this, path);
-		
-		Debugger.addMessage("FileSystemTask.save: " + path.getPath() + " success");
+		new Record(this).write(path, textSource, options);
 		
 		/* clear the dirty flag, since the task was just saved */
 		this.setDirty(false);
@@ -260,17 +717,60 @@ public class FileSystemTask extends Task {
 	public static void saveIndex(Task task, File path) throws Exception {
 		Debugger.addMessage("FileSystemTask.saveIndex(" + task.getName() + ", " + path.getPath());
 
+		saveIndex(getChildNames(task), path);
+		
+		Debugger.addMessage("FileSystemTask.saveIndex(" + task.getName() + ", " + path.getPath() + " success");
+	}
+
+	/**
+	 * Returns the plain names of the children of a task, in the order they are stored in the index.
+	 * @param task the task
+	 * @return the plain names of the children
+	 */
+	public static String[] getChildNames(Task task) {
+		String[] names = new String[task.getChildCount()];
+		for (int i = 0; i < names.length; i++) names[i] = ((Task) task.getChildAt(i)).getPlainName();
+		return names;
+	}
+
+	/**
+	 * Saves an index of child tasks. The index is written to a temporary file, which is then renamed over the old
+	 * index, so the index on disk is always either the old or the new one, even if the program crashes. The index of
+	 * a task stored as a record is written in the record.
+	 * @param names the plain names of the children
+	 * @param path the path to write the index to
+	 * @throws Exception on IO errors
+	 */
+	public static void saveIndex(String[] names, File path) throws Exception {
+		if (!Record.writeIndex(names, path)) writeIndexFile(names, path);
+	}
+
+	/**
+	 * Writes the index file of the file system layout through a temporary file.
+	 * @param names the plain names of the children
+	 * @param path the path to write the index to
+	 * @throws Exception on IO errors
+	 */
+	private static void writeIndexFile(String[] names, File path) throws Exception {
 		File indexFile = new File(path, INDEX_FILE);
-		PrintWriter writer = new PrintWriter(indexFile);
-		for (int i = 0; i < task.getChildCount(); i++) {
-			Task child = (Task) task.getChildAt(i);
-			writer.println(child.getPlainName());
-		}
+		File tempFile = new File(path, INDEX_FILE + ".tmp");
+		PrintWriter writer = new PrintWriter(tempFile);
+		for (String name : names) writer.println(name);
 		writer.close();
+		if (writer.checkError()) throw new Exception("can not write to " + tempFile.getPath());
 		
-		Debugger.addMessage("FileSystemTask.saveIndex(" + task.getName() + ", " + path.getPath() + " success");
+		Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+		           StandardCopyOption.ATOMIC_MOVE);
 	}
 
+	/**
+	 * Removes the index file from a directory.
+	 * @param path the directory path from which to remove the index
+	 */
+	public static void removeIndex(File path) {
+		File indexFile = new File(path, INDEX_FILE);
+		if (indexFile.exists()) indexFile.delete();
+	}
 	
 	/**
 	 * Removes the task files from a directory.
@@ -279,8 +779,615 @@ public class FileSystemTask extends Task {
 	public static void removeTaskFiles(File path) {
 		File metaFile = new File(path, META_FILE);
 		File textFile = new File(path, TEXT_FILE);
+		File deltaFile = new File(path, DELTA_FILE);
+		File recordFile = new File(path, RECORD_FILE);
 		
 		if (metaFile.exists()) metaFile.delete();
 		if (textFile.exists()) textFile.delete();
+		if (deltaFile.exists()) deltaFile.delete();
+		if (recordFile.exists()) recordFile.delete();
+	}
+
+	/**
+	 * The contents of a task as they are written to disk: the meta data, the text and the index of the children.
+	 * The record is taken on the event dispatch thread and can then be written out on any thread, while the task is
+	 * edited further. A record is also what is read from the record file of a task in the record layout.
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	static class Record {
+		/** The name of the task. */
+		private final String name;
+
+		/** The plain name of the task. */
+		private final String plainName;
+
+		/** The creation time of the task. */
+		private final long timeStamp;
+
+		/** The status of the task. */
+		private final short status;
+
+		/** The text of the task as it is stored in the task: a String, a PackedText or null. */
+		private final Object text;
+
+		/** The plain names of the children of the task. */
+		private final String[] childNames;
+
+		/** The task, if it keeps track of the text on disk; otherwise null. */
+		private final FileSystemTask owner;
+
+		/** The hash of the text in the blob store, if the record was read from a record file; otherwise null. */
+		private final String blob;
+
+		/**
+		 * Takes the record of a task.
+		 * @param task the task
+		 */
+		Record(Task task) {
+			this.name = task.getName();
+			this.plainName = task.getPlainName();
+			this.timeStamp = task.getCreationTime();
+			this.status = task.getStatus();
+			this.text = task.getRawText();
+			this.childNames = getChildNames(task);
+			this.owner = (task instanceof FileSystemTask) ? (FileSystemTask) task : null;
+			this.blob = null;
+		}
+
+		/**
+		 * Constructs a record read from a record file.
+		 * @param name the name of the task
+		 * @param plainName the plain name of the task
+		 * @param timeStamp the creation time of the task
+		 * @param status the status of the task
+		 * @param text the text of the task or null if it was not read
+		 * @param childNames the plain names of the children
+		 * @param blob the hash of the text in the blob store or null if the text is in the record
+		 */
+		private Record(String name, String plainName, long timeStamp, short status, Object text, String[] childNames,
+		               String blob) {
+			this.name = name;
+			this.plainName = plainName;
+			this.timeStamp = timeStamp;
+			this.status = status;
+			this.text = text;
+			this.childNames = childNames;
+			this.owner = null;
+			this.blob = blob;
+		}
+
+		/**
+		 * Reads the record file of a task directory.
+		 * @param path the task directory
+		 * @param blobs the blob store to read the text from or null to read only the meta data and the index
+		 * @return the record or null if the directory has no record file
+		 * @throws Exception on IO errors or if the file is not a valid record
+		 */
+		static Record read(File path, BlobStore blobs) throws Exception {
+			File recordFile = new File(path, RECORD_FILE);
+			DataInputStream in;
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(recordFile)));
+			} catch (FileNotFoundException e) {
+				return null; /* the task is in the file system layout */
+			}
+
+			try {
+				if (in.readInt() != RECORD_MAGIC) throw new Exception(recordFile.getPath() + " is not a task record");
+				String name = readString(in);
+				long timeStamp = in.readLong();
+				short status = in.readShort();
+				int count = in.readInt();
+				if (count < 0) throw new Exception("bad index in " + recordFile.getPath());
+				String[] childNames = new String[count];
+				for (int i = 0; i < count; i++) childNames[i] = readString(in);
+
+				/* the text comes last, so it can be left unread */
+				Object text = null;
+				String blob = null;
+				byte kind = in.readByte();
+				if (kind == RECORD_TEXT_BLOB) {
+					blob = readString(in);
+					if (blobs != null) text = blobs.get(blob);
+				} else if (kind == RECORD_TEXT_PLAIN || kind == RECORD_TEXT_DEFLATED) {
+					if (blobs != null) {
+						byte[] bytes = readBytes(in);
+						if (kind == RECORD_TEXT_DEFLATED) bytes = Util.inflate(bytes);
+						text = new String(bytes, "UTF-8");
+					}
+				} else {
+					throw new Exception("bad text in " + recordFile.getPath());
+				}
+				return new Record(name, path.getName(), timeStamp, status, text, childNames, blob);
+			} catch (EOFException e) {
+				throw new Exception(recordFile.getPath() + " is truncated");
+			} finally {
+				in.close();
+			}
+		}
+
+		/**
+		 * Replaces the index of the children in the record file of a task directory. The meta data and the text are
+		 * copied as they are into a temporary file, which is then renamed over the record.
+		 * @param names the plain names of the children
+		 * @param path the task directory
+		 * @return true if the index was written, false if the directory has no record file
+		 * @throws Exception on IO errors or if the file is not a valid record
+		 */
+		static boolean writeIndex(String[] names, File path) throws Exception {
+			File recordFile = new File(path, RECORD_FILE);
+			DataInputStream in;
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(recordFile)));
+			} catch (FileNotFoundException e) {
+				return false;
+			}
+
+			File tempFile = new File(path, RECORD_FILE + ".tmp");
+			DataOutputStream out = null;
+			try {
+				if (in.readInt() != RECORD_MAGIC) throw new Exception(recordFile.getPath() + " is not a task record");
+				out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+				out.writeInt(RECORD_MAGIC);
+				writeString(out, readString(in));
+				out.writeLong(in.readLong());
+				out.writeShort(in.readShort());
+				for (int i = in.readInt(); i > 0; i--) readString(in);
+				out.writeInt(names.length);
+				for (String name : names) writeString(out, name);
+
+				byte[] buffer = new byte[RECORD_COPY_BUFFER];
+				int n;
+				while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+			} catch (EOFException e) {
+				throw new Exception(recordFile.getPath() + " is truncated");
+			} finally {
+				in.close();
+				if (out != null) out.close();
+			}
+
+			Files.move(tempFile.toPath(), recordFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			           StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		}
+
+		/**
+		 * Writes the record to a task directory. With delta texts enabled, a change to a text that is already on
+		 * disk is appended to the delta file instead of rewriting the text; the delta file is compacted into the
+		 * text file in the background once it grows large. With blob texts enabled, the text is written to the blob
+		 * store and the meta data refers to it. In the record layout, the whole task is written to the record file.
+		 * @param path the task directory
+		 * @param textSource file that contains the text of the task or null to write the text of the record; not
+		 *        used in the record layout
+		 * @param options the storage options of the tree
+		 * @throws Exception on IO errors
+		 */
+		void write(File path, File textSource, StorageOptions options) throws Exception {
+			if (!path.exists() && !path.mkdirs()) throw new Exception("can not create " + path);
+
+			Debugger.addMessage("FileSystemTask.save: " + path.getPath());
+
+			if (options.isRecordFormat()) {
+				this.writeRecord(path, options);
+				Debugger.addMessage("FileSystemTask.save: " + path.getPath() + " success");
+				return;
+			}
+
+			/* write the task text first, so the meta data never refers to a text that is not on disk */
+			File textFile = new File(path, TEXT_FILE);
+			BlobStore blobs = options.getBlobs();
+			String blob = null;
+			try {
+				if (blobs != null) {
+					/* the text goes to the blob store, where it is stored once even if other tasks have it too */
+					blob = blobs.put(unpack(this.text), options.isCompressText());
+				} else if (textSource != null && textSource.exists()) {
+					/* the text is already on disk; copy the file */
+					Files.copy(textSource.toPath(), textFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					new File(path, DELTA_FILE).delete();
+					if (this.owner != null) {
+						this.owner.textSaved = false;
+						this.owner.savedBlob = null;
+					}
+				} else if (!options.isDeltaText() || !this.writeDelta(path, options)) {
+					writeText(path, unpack(this.text), options);
+					if (this.owner != null) this.owner.setSaved(this.text, 0);
+				}
+			} catch (Exception e) {
+				throw new Exception("can not write to " + textFile.getPath() + ": " + e.getMessage());
+			}
+
+			this.writeMeta(path, blob);
+
+			/* the text files are not used when the text is in the blob store */
+			if (blob != null) {
+				textFile.delete();
+				new File(path, DELTA_FILE).delete();
+				if (this.owner != null) {
+					this.owner.setSaved(this.text, -1);
+					this.owner.savedBlob = blob;
+				}
+			}
+
+			/* save an index of the node's children */
+			writeIndexFile(this.childNames, path);
+
+			/* the record left over from before the task was converted to this layout */
+			if (this.owner == null || this.owner.storedAsRecord) new File(path, RECORD_FILE).delete();
+			if (this.owner != null) this.owner.storedAsRecord = false;
+
+			Debugger.addMessage("FileSystemTask.save: " + path.getPath() + " success");
+		}
+
+		/**
+		 * Writes the record to the record file. The record is written to a temporary file, which is then renamed over
+		 * the old record, so the record on disk is always either the old or the new one.
+		 * @param path the task directory
+		 * @param options the storage options of the tree
+		 * @throws Exception on IO errors
+		 */
+		private void writeRecord(File path, StorageOptions options) throws Exception {
+			/* the text goes to the blob store first, so the record never refers to a text that is not on disk */
+			BlobStore blobs = options.getBlobs();
+			String blob = (blobs != null) ? blobs.put(unpack(this.text), options.isCompressText()) : null;
+
+			File recordFile = new File(path, RECORD_FILE);
+			File tempFile = new File(path, RECORD_FILE + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				out.writeInt(RECORD_MAGIC);
+				writeString(out, this.name);
+				out.writeLong(this.timeStamp);
+				out.writeShort(this.status);
+				out.writeInt(this.childNames.length);
+				for (String name : this.childNames) writeString(out, name);
+				if (blob != null) {
+					out.writeByte(RECORD_TEXT_BLOB);
+					writeString(out, blob);
+				} else {
+					byte[] bytes = unpack(this.text).getBytes("UTF-8");
+					if (options.isCompressText()) bytes = Util.deflate(bytes);
+					out.writeByte(options.isCompressText() ? RECORD_TEXT_DEFLATED : RECORD_TEXT_PLAIN);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+			} catch (Exception e) {
+				throw new Exception("can not write to " + tempFile.getPath() + ": " + e.getMessage());
+			} finally {
+				out.close();
+			}
+			Files.move(tempFile.toPath(), recordFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			           StandardCopyOption.ATOMIC_MOVE);
+
+			/* the files left over from before the task was converted to this layout */
+			if (this.owner == null || !this.owner.storedAsRecord) {
+				removeIndex(path);
+				new File(path, META_FILE).delete();
+				new File(path, TEXT_FILE).delete();
+				new File(path, DELTA_FILE).delete();
+			}
+			if (this.owner != null) {
+				this.owner.setSaved(this.text, -1);
+				this.owner.savedBlob = blob;
+				this.owner.storedAsRecord = true;
+			}
+		}
+
+		/**
+		 * Writes only the meta data of the record, for a task whose text and children have not changed since it was
+		 * last saved, like a task whose status was changed. A task in the record layout, or one that is still stored
+		 * as a record, is written whole.
+		 * @param path the task directory
+		 * @param options the storage options of the tree
+		 * @throws Exception on IO errors
+		 */
+		void writeMeta(File path, StorageOptions options) throws Exception {
+			if (options.isRecordFormat() || (this.owner != null && this.owner.storedAsRecord)) {
+				this.write(path, null, options);
+				return;
+			}
+			Debugger.addMessage("FileSystemTask.writeMeta: " + path.getPath());
+			this.writeMeta(path, (this.owner == null) ? null : this.owner.savedBlob);
+		}
+
+		/**
+		 * Writes the meta data file.
+		 * @param path the task directory
+		 * @param blob the hash of the text in the blob store or null if the text is in the task directory
+		 * @throws Exception on IO errors
+		 */
+		private void writeMeta(File path, String blob) throws Exception {
+			/* write the meta data in new format only */
+			File metaFile = new File(path, META_FILE);
+			Configuration conf = new Configuration();
+			conf.add(CONFIG_NAME, this.name);
+			conf.add(CONFIG_PLAIN_NAME, this.plainName);
+			conf.add(CONFIG_CREATION_TIME, this.timeStamp);
+			conf.add(CONFIG_STATUS, this.status);
+			if (blob != null) conf.add(CONFIG_TEXT_BLOB, blob);
+			conf.store(metaFile);
+		}
+
+		/**
+		 * Appends the change from the text on disk to the text of the record to the delta file.
+		 * @param path the task directory
+		 * @param options the storage options of the tree
+		 * @return true if the change was appended, false if the text must be written out in full instead
+		 * @throws Exception on IO errors
+		 */
+		private boolean writeDelta(final File path, StorageOptions options) throws Exception {
+			final FileSystemTask owner = this.owner;
+			if (owner == null || !owner.textSaved || owner.deltaLength < 0) return false;
+			if (!new File(path, TEXT_FILE).exists()) return false;
+
+			/* the delta file must be as it was left by the previous save */
+			File deltaFile = new File(path, DELTA_FILE);
+			if (deltaFile.length() != owner.deltaLength) return false;
+
+			/* find the changed part: the text between the common prefix and the common suffix */
+			String old = unpack(owner.savedText), text = unpack(this.text);
+			int prefix = 0, max = Math.min(old.length(), text.length());
+			while (prefix < max && old.charAt(prefix) == text.charAt(prefix)) prefix++;
+			int suffix = 0;
+			while (suffix < max - prefix &&
+			       old.charAt(old.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) suffix++;
+			if (prefix == old.length() && prefix == text.length()) return true; /* no change */
+
+			/* a change of most of the text is cheaper to write in full */
+			String inserted = text.substring(prefix, text.length() - suffix);
+			if (inserted.length() * 2 > text.length()) return false;
+
+			/* a new delta file starts with a header that ties it to the text file */
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(deltaFile, owner.deltaLength > 0)));
+			try {
+				if (owner.deltaLength == 0) {
+					out.writeInt(DELTA_MAGIC);
+					out.writeInt(old.length());
+					out.writeLong(checksum(old));
+				}
+				byte[] bytes = inserted.getBytes("UTF-8");
+				out.writeInt(prefix);
+				out.writeInt(suffix);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+			owner.setSaved(this.text, deltaFile.length());
+
+			/* compact the delta file once it is large compared to the text */
+			if (owner.deltaLength > DELTA_COMPACT_SIZE && owner.deltaLength > text.length() / DELTA_COMPACT_RATIO) {
+				options.runInBackground(new Runnable() {
+					@Override
+					public void run() {
+						owner.compactText(path, options);
+					}
+				});
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Writes the saved text of the task to the text file and removes the delta file. Does nothing if the task has
+	 * been saved in some other way since the compaction was scheduled.
+	 * @param path the task directory
+	 * @param options the storage options of the tree
+	 */
+	private void compactText(File path, StorageOptions options) {
+		if (!this.textSaved || this.deltaLength <= 0) return;
+		if (new File(path, DELTA_FILE).length() != this.deltaLength) return;
+		try {
+			writeText(path, unpack(this.savedText), options);
+			this.deltaLength = 0;
+			Debugger.addMessage("FileSystemTask.compactText: " + path.getPath() + " success");
+		} catch (Exception e) {
+			Debugger.addMessage("FileSystemTask.compactText: " + path.getPath() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes a task text file and removes the delta file. The text is written to a temporary file, which is then
+	 * renamed over the old text file; a delta file left behind by a crash no longer matches the text file. The text
+	 * is compressed if the options say so.
+	 * @param path the task directory
+	 * @param text the text to write
+	 * @param options the storage options of the tree
+	 * @throws Exception on IO errors
+	 */
+	private static void writeText(File path, String text, StorageOptions options) throws Exception {
+		File textFile = new File(path, TEXT_FILE);
+		File tempFile = new File(path, TEXT_FILE + ".tmp");
+		TextFile.write(tempFile, text, options.isCompressText());
+
+		Files.move(tempFile.toPath(), textFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+		           StandardCopyOption.ATOMIC_MOVE);
+		new File(path, DELTA_FILE).delete();
+	}
+
+	/**
+	 * Writes a string as its length and UTF-8 bytes.
+	 * @param out the stream to write to
+	 * @param string the string
+	 * @throws Exception on IO errors
+	 */
+	private static void writeString(DataOutputStream out, String string) throws Exception {
+		byte[] bytes = string.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by writeString().
+	 * @param in the stream to read from
+	 * @return the string
+	 * @throws Exception on IO errors or if the length is invalid
+	 */
+	private static String readString(DataInputStream in) throws Exception {
+		return new String(readBytes(in), "UTF-8");
+	}
+
+	/**
+	 * Reads an array of bytes preceded by its length.
+	 * @param in the stream to read from
+	 * @return the bytes
+	 * @throws Exception on IO errors or if the length is invalid
+	 */
+	private static byte[] readBytes(DataInputStream in) throws Exception {
+		int length = in.readInt();
+		if (length < 0) throw new Exception("bad length " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Returns a text stored as a String, a PackedText or null as a String.
+	 * @param text the stored text
+	 * @return the text; empty for null
+	 */
+	private static String unpack(Object text) {
+		if (text instanceof PackedText) return ((PackedText) text).unpack();
+		return (text == null) ? "" : (String) text;
+	}
+
+	/**
+	 * A task tree read from disk as its outline is walked; see openOutline().
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	private static class DiskOutline implements TaskOutline {
+		/** The directory of the task. */
+		private final File path;
+
+		/** The entries of the directory. */
+		private final Set<String> entries;
+
+		/** The task read from the directory, without its children; null for the root of the tree. */
+		private final FileSystemTask task;
+
+		/** The blob store of the tree. */
+		private final BlobStore blobs;
+
+		/** The children of the task; null until they are first asked for. */
+		private DiskOutline[] children;
+
+		/** The index of the child last asked for or -1 if none. */
+		private int current = -1;
+
+		/**
+		 * Constructs the outline of a task.
+		 * @param path the directory of the task
+		 * @param entries the entries of the directory
+		 * @param task the task read from the directory; null for the root of the tree
+		 * @param blobs the blob store of the tree
+		 */
+		DiskOutline(File path, Set<String> entries, FileSystemTask task, BlobStore blobs) {
+			this.path = path;
+			this.entries = entries;
+			this.task = task;
+			this.blobs = blobs;
+		}
+
+		@Override
+		public String getName() {
+			return (this.task == null) ? null : this.task.getName();
+		}
+
+		@Override
+		public String getPlainName() {
+			return this.path.getName();
+		}
+
+		@Override
+		public String getText() {
+			return (this.task == null) ? null : this.task.getText();
+		}
+
+		@Override
+		public long getCreationTime() {
+			return (this.task == null) ? 0 : this.task.getCreationTime();
+		}
+
+		@Override
+		public short getStatus() {
+			return (this.task == null) ? Task.STATUS_DEFAULT : this.task.getStatus();
+		}
+
+		@Override
+		public int getChildCount() throws Exception {
+			this.readChildren();
+			return this.children.length;
+		}
+
+		/**
+		 * Returns a child task. The sub-tree read under the child asked for before is dropped, unless it is the same
+		 * child.
+		 */
+		@Override
+		public TaskOutline getChildAt(int index) throws Exception {
+			this.readChildren();
+			if (this.current >= 0 && this.current != index) this.children[this.current].drop();
+			this.current = index;
+			return this.children[index];
+		}
+
+		/** Drops the children of the task and their sub-trees; they are read again if they are asked for. */
+		private void drop() {
+			this.children = null;
+			this.current = -1;
+		}
+
+		/**
+		 * Reads the children of the task without their sub-trees, if they have not been read yet.
+		 * @throws Exception on any IO or parse errors
+		 */
+		private void readChildren() throws Exception {
+			if (this.children != null) return;
+			Vector<DiskOutline> children = new Vector<DiskOutline>();
+			String[] stored = (this.task == null) ? null : this.task.storedChildren;
+			for (String name : listChildNames(this.entries, stored, this.path)) {
+				File path = new File(this.path, name);
+				Set<String> entries = this.entries.contains(name) ? listDirectory(path) : null;
+				FileSystemTask task = (entries == null) ? null : FileSystemTask.load(path, entries, this.blobs);
+				if (task != null) children.add(new DiskOutline(path, entries, task, this.blobs));
+			}
+			this.children = children.toArray(new DiskOutline[children.size()]);
+		}
+	}
+
+	/**
+	 * A task whose children are being loaded into an arena; see loadArena().
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	private static class ArenaLevel {
+		/** The id of the task in the arena. */
+		private final int id;
+
+		/** The directory of the task. */
+		private final File path;
+
+		/** The entries of the directory. */
+		private final Set<String> entries;
+
+		/** The plain names of the children of the task. */
+		private final Vector<String> names;
+
+		/** The index of the next child to load. */
+		private int next;
+
+		/**
+		 * Constructs a level.
+		 * @param id the id of the task in the arena
+		 * @param path the directory of the task
+		 * @param entries the entries of the directory
+		 * @param names the plain names of the children of the task
+		 */
+		ArenaLevel(int id, File path, Set<String> entries, Vector<String> names) {
+			this.id = id;
+			this.path = path;
+			this.entries = entries;
+			this.names = names;
+		}
 	}
 }
@@ -0,0 +1,457 @@
+/* FilteredTreeModel.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+/**
+ * A tree model that shows only the tasks that match a filter, and the ancestors of those tasks.
+ *
+ * The model wraps the tree model of a task store. For each task the model keeps the number of matching tasks in the
+ * sub-tree of the task; a task is shown if the number is not zero. The numbers are kept up to date by observing the
+ * tree: when a task is changed, added or removed, only the numbers of the task and its ancestors are updated, and the
+ * listeners are told of the highest task that was shown or hidden by the change. The shown children of a task are
+ * cached until they change.
+ *
+ * When the filter is changed, the numbers are counted again, but the view is not rebuilt: the listeners are told of
+ * the tasks that were hidden under the tasks that stay shown, and then of the tasks that were shown, so the expanded
+ * and selected tasks that stay shown are kept. Without a filter, the model passes the wrapped model through.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+public class FilteredTreeModel implements TreeModel, TreeModelListener, TaskObserver {
+	/** Event type of inserted nodes. */
+	private static final int INSERTED = 0;
+
+	/** Event type of removed nodes. */
+	private static final int REMOVED = 1;
+
+	/** Event type of changed nodes. */
+	private static final int CHANGED = 2;
+
+	/** Event type of structure change. */
+	private static final int STRUCTURE = 3;
+
+	/** The wrapped model. */
+	private TreeModel model;
+
+	/** The filter or null if all the tasks are shown. */
+	private TaskQuery filter;
+
+	/** The filter state of each task in the tree; null if there is no filter. */
+	private Map<Task, Node> nodes;
+
+	/** While the filter is being changed, the filter state of the old filter; null otherwise. */
+	private Map<Task, Node> previous;
+
+	/** Tells whether the filter is being changed and the tasks hidden by the old or the new filter are not shown. */
+	private boolean changing;
+
+	/** The shown children of the tasks whose children have been asked for. */
+	private Map<Task, Task[]> shownChildren = new IdentityHashMap<Task, Task[]>();
+
+	/** The listeners of the model. */
+	private Vector<TreeModelListener> listeners = new Vector<TreeModelListener>();
+
+	/**
+	 * Constructs a filtered model of the tree model of a task store. The model shows all the tasks until a filter is
+	 * set.
+	 * @param model the model to wrap; the root must be the root of the task tree
+	 */
+	public FilteredTreeModel(TreeModel model) {
+		this.model = model;
+		model.addTreeModelListener(this);
+		((Task) model.getRoot()).addObserver(this);
+	}
+
+	/**
+	 * Returns the filter.
+	 * @return the filter or null if all the tasks are shown
+	 */
+	public TaskQuery getFilter() {
+		return this.filter;
+	}
+
+	/**
+	 * Sets the filter. The tasks that match the filter and their ancestors are shown. Every task of the tree is
+	 * checked against the filter, so a filter with a text condition unpacks the packed texts it has to search (see
+	 * TaskQuery.text); combining it with a status condition limits the search to the tasks of that status.
+	 * @param filter the filter or null to show all the tasks
+	 */
+	public void setFilter(TaskQuery filter) {
+		if (filter == this.filter) return;
+		Task root = (Task) this.model.getRoot();
+		Map<Task, Node> oldNodes = this.nodes, newNodes = (filter == null) ? null : count(root, filter);
+
+		/* first hide the tasks that the new filter hides, showing only the tasks shown by both filters */
+		this.filter = filter;
+		this.nodes = newNodes;
+		this.previous = oldNodes;
+		this.changing = true;
+		this.shownChildren.clear();
+		this.fireChanges(REMOVED, oldNodes, newNodes);
+
+		/* then show the tasks that the new filter shows */
+		this.changing = false;
+		this.previous = null;
+		this.shownChildren.clear();
+		this.fireChanges(INSERTED, oldNodes, newNodes);
+	}
+
+	/**
+	 * Counts the matching tasks in the sub-trees of a tree.
+	 * @param task the root of the tree
+	 * @param filter the filter
+	 * @return the filter state of each task in the tree
+	 */
+	private static Map<Task, Node> count(Task task, TaskQuery filter) {
+		Map<Task, Node> nodes = new IdentityHashMap<Task, Node>();
+		count(task, filter, nodes);
+		return nodes;
+	}
+
+	/**
+	 * Counts the matching tasks in the sub-trees of a tree. The tasks are counted children first, without recursion.
+	 * @param task the root of the tree
+	 * @param filter the filter
+	 * @param nodes the map that receives the filter state of each task
+	 * @return the number of matching tasks in the tree
+	 */
+	private static int count(Task task, TaskQuery filter, Map<Task, Node> nodes) {
+		Vector<Task> stack = new Vector<Task>();
+		Vector<Task> order = new Vector<Task>();
+		stack.add(task);
+		while (!stack.isEmpty()) {
+			Task node = stack.remove(stack.size() - 1);
+			order.add(node);
+			for (int i = 0; i < node.getChildCount(); i++) stack.add((Task) node.getChildAt(i));
+		}
+
+		/* the children come after their parent in the order, so walking it backwards counts the children first */
+		for (int i = order.size() - 1; i >= 0; i--) {
+			Task node = order.get(i);
+			Node state = new Node();
+			state.match = !node.isRoot() && filter.matches(node);
+			state.matches = state.match ? 1 : 0;
+			for (int j = 0; j < node.getChildCount(); j++) state.matches += nodes.get(node.getChildAt(j)).matches;
+			nodes.put(node, state);
+		}
+		return nodes.get(task).matches;
+	}
+
+	/**
+	 * Tells whether a task is shown with the filter of the given state.
+	 * @param nodes the filter state or null if there is no filter
+	 * @param task the task
+	 * @return true if the task is shown, false if not
+	 */
+	private static boolean isShown(Map<Task, Node> nodes, Task task) {
+		if (nodes == null || task.isRoot()) return true;
+		Node node = nodes.get(task);
+		return node != null && node.matches > 0;
+	}
+
+	/**
+	 * Tells whether a task is shown.
+	 * @param task the task
+	 * @return true if the task is shown, false if it is hidden by the filter
+	 */
+	public boolean isShown(Task task) {
+		if (this.changing && !isShown(this.previous, task)) return false;
+		return isShown(this.nodes, task);
+	}
+
+	/**
+	 * Informs the listeners of the tasks hidden or shown by a change of the filter. The tasks that are shown with
+	 * both filters are walked from the root, and the changes among their children are reported with one event per
+	 * task; the descendants of a hidden or shown task are hidden or shown with it.
+	 * @param type REMOVED to report the hidden tasks, INSERTED to report the shown tasks
+	 * @param oldNodes the filter state of the old filter
+	 * @param newNodes the filter state of the new filter
+	 */
+	private void fireChanges(int type, Map<Task, Node> oldNodes, Map<Task, Node> newNodes) {
+		Vector<Task> stack = new Vector<Task>();
+		stack.add((Task) this.model.getRoot());
+		Vector<Integer> indices = new Vector<Integer>();
+		Vector<Task> children = new Vector<Task>();
+		while (!stack.isEmpty()) {
+			Task parent = stack.remove(stack.size() - 1);
+			indices.clear();
+			children.clear();
+
+			/* the removed tasks are reported with their indexes before the event, the inserted ones with their indexes
+			 * after it */
+			int before = 0, after = 0;
+			for (int i = 0; i < parent.getChildCount(); i++) {
+				Task child = (Task) parent.getChildAt(i);
+				boolean shownOld = isShown(oldNodes, child), shownNew = isShown(newNodes, child);
+				boolean shownBefore = (type == REMOVED) ? shownOld : shownOld && shownNew;
+				boolean shownAfter = (type == REMOVED) ? shownOld && shownNew : shownNew;
+				if (shownOld && shownNew) stack.add(child);
+				if (shownBefore != shownAfter) {
+					indices.add((type == REMOVED) ? before : after);
+					children.add(child);
+				}
+				if (shownBefore) before++;
+				if (shownAfter) after++;
+			}
+			if (indices.isEmpty()) continue;
+
+			int[] array = new int[indices.size()];
+			for (int i = 0; i < array.length; i++) array[i] = indices.get(i);
+			this.fire(type, new TreeModelEvent(this, new TreePath(parent.getPath()), array, children.toArray()));
+		}
+	}
+
+	/**
+	 * Returns the shown children of a task.
+	 * @param parent the task
+	 * @return the shown children
+	 */
+	private Task[] getShownChildren(Task parent) {
+		Task[] shown = this.shownChildren.get(parent);
+		if (shown != null) return shown;
+
+		Vector<Task> children = new Vector<Task>();
+		for (int i = 0; i < parent.getChildCount(); i++) {
+			Task child = (Task) parent.getChildAt(i);
+			if (this.isShown(child)) children.add(child);
+		}
+		shown = children.toArray(new Task[children.size()]);
+		this.shownChildren.put(parent, shown);
+		return shown;
+	}
+
+	/**
+	 * Tells whether the model passes the wrapped model through unchanged.
+	 * @return true if there is no filter, false if there is
+	 */
+	private boolean isPassThrough() {
+		return this.nodes == null && !this.changing;
+	}
+
+	@Override
+	public Object getRoot() {
+		return this.model.getRoot();
+	}
+
+	@Override
+	public Object getChild(Object parent, int index) {
+		if (this.isPassThrough() || !(parent instanceof Task)) return this.model.getChild(parent, index);
+		Task[] shown = this.getShownChildren((Task) parent);
+		return (index >= 0 && index < shown.length) ? shown[index] : null;
+	}
+
+	@Override
+	public int getChildCount(Object parent) {
+		if (this.isPassThrough() || !(parent instanceof Task)) return this.model.getChildCount(parent);
+		return this.getShownChildren((Task) parent).length;
+	}
+
+	@Override
+	public boolean isLeaf(Object node) {
+		if (this.isPassThrough() || !(node instanceof Task)) return this.model.isLeaf(node);
+		return this.getChildCount(node) == 0;
+	}
+
+	@Override
+	public int getIndexOfChild(Object parent, Object child) {
+		if (this.isPassThrough() || !(parent instanceof Task)) return this.model.getIndexOfChild(parent, child);
+		Task[] shown = this.getShownChildren((Task) parent);
+		for (int i = 0; i < shown.length; i++) if (shown[i] == child) return i;
+		return -1;
+	}
+
+	@Override
+	public void valueForPathChanged(TreePath path, Object newValue) {
+		this.model.valueForPathChanged(path, newValue);
+	}
+
+	/**
+	 * Converts an index among the shown children of a task to an index among all its children. An index after the
+	 * last shown child is converted to the index after it.
+	 * @param parent the task
+	 * @param index the index among the shown children; negative for the end of the children
+	 * @return the index among all the children; negative for the end of the children
+	 */
+	public int toModelIndex(Task parent, int index) {
+		if (this.isPassThrough() || index < 0) return index;
+		Task[] shown = this.getShownChildren(parent);
+		if (index < shown.length) return parent.getIndex(shown[index]);
+		return (shown.length == 0) ? -1 : parent.getIndex(shown[shown.length - 1]) + 1;
+	}
+
+	/**
+	 * Adds to the number of matching tasks in the sub-trees of a task and its ancestors and informs the listeners of
+	 * the highest task that was shown or hidden by the change.
+	 * @param task the task
+	 * @param delta the number to add
+	 */
+	private void addMatches(Task task, int delta) {
+		/* find the highest task that is shown or hidden; if a task is not, neither are its ancestors */
+		Task top = null;
+		for (Task node = task; !node.isRoot(); node = (Task) node.getParent()) {
+			int matches = this.nodes.get(node).matches;
+			if ((matches > 0) == (matches + delta > 0)) break;
+			top = node;
+		}
+		Task parent = (top == null) ? null : (Task) top.getParent();
+		int index = (top != null && delta < 0) ? this.getIndexOfChild(parent, top) : -1;
+
+		for (Task node = task; node != null; node = (Task) node.getParent()) this.nodes.get(node).matches += delta;
+		if (top == null) return;
+
+		/* the shown children of the tasks between the task and the highest shown or hidden task have changed */
+		for (Task node = task; node != parent; node = (Task) node.getParent())
+			this.shownChildren.remove(node.getParent());
+		if (delta > 0) index = this.getIndexOfChild(parent, top);
+		this.fire(delta > 0 ? INSERTED : REMOVED,
+		          new TreeModelEvent(this, new TreePath(parent.getPath()), new int[] { index }, new Object[] { top }));
+	}
+
+	@Override
+	public void taskAdded(Task task) {
+		if (this.nodes == null) return;
+
+		/* count the added tasks; the task itself is added to the view by adding its matches */
+		int matches = count(task, this.filter, this.nodes);
+		this.nodes.get(task).matches = 0;
+		if (matches > 0) this.addMatches(task, matches);
+	}
+
+	@Override
+	public void taskRemoved(Task task) {
+		if (this.nodes == null) return;
+		Node node = this.nodes.get(task);
+		if (node == null) return;
+
+		/* hide the task, then forget it and its sub-tree */
+		if (node.matches > 0) this.addMatches(task, -node.matches);
+		Vector<Task> stack = new Vector<Task>();
+		stack.add(task);
+		while (!stack.isEmpty()) {
+			Task removed = stack.remove(stack.size() - 1);
+			this.nodes.remove(removed);
+			this.shownChildren.remove(removed);
+			for (int i = 0; i < removed.getChildCount(); i++) stack.add((Task) removed.getChildAt(i));
+		}
+	}
+
+	@Override
+	public void taskChanged(Task task) {
+		if (this.nodes == null) return;
+		Node node = this.nodes.get(task);
+		if (node == null || task.isRoot()) return;
+
+		boolean match = this.filter.matches(task);
+		if (match == node.match) return;
+		node.match = match;
+		this.addMatches(task, match ? 1 : -1);
+	}
+
+	/**
+	 * Informs the listeners of a change.
+	 * @param type the event type
+	 * @param event the event
+	 */
+	private void fire(int type, TreeModelEvent event) {
+		for (int i = this.listeners.size() - 1; i >= 0; i--) {
+			TreeModelListener listener = this.listeners.get(i);
+			switch (type) {
+			case INSERTED: listener.treeNodesInserted(event); break;
+			case REMOVED: listener.treeNodesRemoved(event); break;
+			case CHANGED: listener.treeNodesChanged(event); break;
+			case STRUCTURE: listener.treeStructureChanged(event); break;
+			}
+		}
+	}
+
+	@Override
+	public void treeNodesChanged(TreeModelEvent event) {
+		int[] indices = event.getChildIndices();
+		Object[] children = event.getChildren();
+		if (this.isPassThrough() || indices == null || children == null) {
+			this.fire(CHANGED, new TreeModelEvent(this, event.getTreePath(), indices, children));
+			return;
+		}
+
+		/* pass on only the shown children, with their indexes among the shown children */
+		Object parent = event.getTreePath().getLastPathComponent();
+		Vector<Integer> keep = new Vector<Integer>();
+		for (int i = 0; i < children.length; i++) if (this.getIndexOfChild(parent, children[i]) >= 0) keep.add(i);
+		if (keep.isEmpty()) return;
+		int[] newIndices = new int[keep.size()];
+		Object[] newChildren = new Object[keep.size()];
+		for (int i = 0; i < newIndices.length; i++) {
+			newChildren[i] = children[keep.get(i)];
+			newIndices[i] = this.getIndexOfChild(parent, newChildren[i]);
+		}
+		this.fire(CHANGED, new TreeModelEvent(this, event.getTreePath(), newIndices, newChildren));
+	}
+
+	/**
+	 * Passes on the event of inserted tasks if there is no filter; with a filter, the shown tasks have already been
+	 * reported when they were added to the tree.
+	 * @param event the event of the wrapped model
+	 */
+	@Override
+	public void treeNodesInserted(TreeModelEvent event) {
+		if (!this.isPassThrough()) return;
+		this.fire(INSERTED, new TreeModelEvent(this, event.getTreePath(), event.getChildIndices(),
+		                                       event.getChildren()));
+	}
+
+	/**
+	 * Passes on the event of removed tasks if there is no filter; with a filter, the shown tasks have already been
+	 * reported when they were removed from the tree.
+	 * @param event the event of the wrapped model
+	 */
+	@Override
+	public void treeNodesRemoved(TreeModelEvent event) {
+		if (!this.isPassThrough()) return;
+		this.fire(REMOVED, new TreeModelEvent(this, event.getTreePath(), event.getChildIndices(), event.getChildren()));
+	}
+
+	@Override
+	public void treeStructureChanged(TreeModelEvent event) {
+		Object node = event.getTreePath().getLastPathComponent();
+		if (node instanceof Task && !this.isPassThrough() && !this.isShown((Task) node)) return;
+		this.fire(STRUCTURE, new TreeModelEvent(this, event.getTreePath()));
+	}
+
+	@Override
+	public void addTreeModelListener(TreeModelListener listener) {
+		this.listeners.add(listener);
+	}
+
+	@Override
+	public void removeTreeModelListener(TreeModelListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	/**
+	 * The filter state of a task.
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	private static class Node {
+		/** Tells whether the task itself matches the filter. */
+		private boolean match;
+
+		/** The number of tasks in the sub-tree of the task that match the filter, including the task itself. */
+		private int matches;
+	}
+}
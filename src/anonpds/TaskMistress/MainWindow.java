@@ -25,23 +25,35 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Vector;
 
+import javax.swing.AbstractAction;
 import javax.swing.DropMode;
 import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JComboBox;
 import javax.swing.JComponent;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JMenu;
+import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
+import javax.swing.JTextField;
 import javax.swing.JToolBar;
 import javax.swing.JTree;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.TransferHandler;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
-import javax.swing.tree.DefaultTreeModel;
-import javax.swing.tree.TreeNode;
 import javax.swing.tree.TreePath;
 
 /**
@@ -59,6 +71,9 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 	/** Text for the button that opens another task tree. */
 	private static final String OPEN_BUTTON_TEXT = "Open";
 
+	/** Text for the button that opens a task tree read-only. */
+	private static final String BROWSE_BUTTON_TEXT = "Browse";
+
 	/** Text of the button that renames a task. */
 	private static final String RENAME_BUTTON_TEXT = "Rename";
 
@@ -68,9 +83,84 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 	/** Text of the button that opens the debugger. */
 	private static final String DEBUG_BUTTON_TEXT = "Debugger";
 
+	/** Text of the task menu item that exports tasks. */
+	private static final String EXPORT_MENU_TEXT = "Export...";
+
+	/** Text of the task menu item that imports tasks. */
+	private static final String IMPORT_MENU_TEXT = "Import...";
+
+	/** Text of the task menu item that copies tasks. */
+	private static final String COPY_MENU_TEXT = "Copy";
+
+	/** Text of the task menu item that cuts tasks. */
+	private static final String CUT_MENU_TEXT = "Cut";
+
+	/** Text of the task menu item that pastes tasks. */
+	private static final String PASTE_MENU_TEXT = "Paste";
+
+	/** Text of the task menu item that restores the last removed task. */
+	private static final String UNDELETE_MENU_TEXT = "Undelete";
+
+	/** Text of the task menu that sets the status of a task and its sub-tasks. */
+	private static final String SUBTREE_STATUS_MENU_TEXT = "Set Status of Subtree";
+
+	/** Text of the subtree status menu item that marks the tasks done. */
+	private static final String SUBTREE_DONE_MENU_TEXT = "Done";
+
+	/** Text of the subtree status menu item that marks the tasks undone. */
+	private static final String SUBTREE_UNDONE_MENU_TEXT = "Undone";
+
+	/** Text of the subtree status menu item that sets the tasks to the default status. */
+	private static final String SUBTREE_DEFAULT_MENU_TEXT = "Default";
+
+	/** Text of the task menu item that toggles whether the status of parent tasks is derived from their children. */
+	private static final String DERIVED_STATUS_MENU_TEXT = "Derive Status of Parents";
+
+	/** Text of the task menu that sets the order of the children of a task. */
+	private static final String SORT_MENU_TEXT = "Sort Children By";
+
+	/** Text of the sort menu item that shows the children in the stored order. */
+	private static final String SORT_STORED_MENU_TEXT = "Stored Order";
+
+	/** Text of the sort menu item that sorts the children by name. */
+	private static final String SORT_NAME_MENU_TEXT = "Name";
+
+	/** Text of the sort menu item that sorts the children by creation time. */
+	private static final String SORT_CREATION_MENU_TEXT = "Creation Time";
+
+	/** Text of the sort menu item that sorts the children by status. */
+	private static final String SORT_STATUS_MENU_TEXT = "Status";
+
+	/** Export choice for exporting all tasks. */
+	private static final String EXPORT_ALL = "All tasks";
+
+	/** Export choice for leaving out the done tasks. */
+	private static final String EXPORT_NOT_DONE = "Tasks that are not done";
+
+	/** Export choice for exporting only the undone tasks. */
+	private static final String EXPORT_UNDONE = "Undone tasks only";
+
+	/** Filter choice for showing all tasks. */
+	private static final String FILTER_ALL = "All tasks";
+
+	/** Filter choice for hiding the done tasks. */
+	private static final String FILTER_NOT_DONE = "Hide done";
+
+	/** Filter choice for showing only the undone tasks. */
+	private static final String FILTER_UNDONE = "Undone only";
+
+	/** The time in milliseconds from the last change of the filter text until the filter is applied. */
+	private static final int FILTER_DELAY = 300;
+
 	/** The name of the variable that stores the window size. */
 	private static final String CONFIG_WINDOW_SIZE = "MainWindow.size";
 
+	/** Configuration variable that turns the large model mode of the tree on or off. */
+	private static final String CONFIG_LARGE_MODEL = "MainWindow.largeModel";
+
+	/** The number of tasks above which the tree is shown in the large model mode, unless configured otherwise. */
+	private static final int LARGE_MODEL_TASKS = 10000;
+
 	/** Default width of the window in pixels. */
 	private static final int DEFAULT_WIDTH = 640;
 
@@ -89,6 +179,9 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 	/** Button that opens another task tree in a new Task Mistress window. */
 	private JButton openButton;
 	
+	/** Button that opens a task tree read-only in a new window, for trees too large to edit. */
+	private JButton browseButton;
+	
 	/** Button for renaming tasks. */
 	private JButton renameButton;
 	
@@ -98,6 +191,66 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 	/** Button for opening the Debugger window. */
 	private JButton debugButton;
 	
+	/** The pop-up menu of the treeView. */
+	private JPopupMenu taskMenu;
+
+	/** The model of the treeView; shows the children of wide tasks in pages. */
+	private PagedTreeModel treeModel;
+
+	/** The model under the paged model; shows the children of chosen tasks sorted. */
+	private SortedTreeModel sortModel;
+
+	/** The model under the sorted model; shows only the tasks that match the filter. */
+	private FilteredTreeModel filterModel;
+
+	/** Tool bar box for choosing the tasks shown by their status. */
+	private JComboBox<String> filterBox;
+
+	/** Tool bar field for showing only the tasks that contain a text. */
+	private JTextField filterField;
+
+	/** Applies the filter a moment after the filter text was last changed. */
+	private Timer filterTimer;
+
+	/** Task menu item for exporting tasks. */
+	private JMenuItem exportItem;
+
+	/** Task menu item for importing tasks. */
+	private JMenuItem importItem;
+
+	/** Task menu item for copying tasks. */
+	private JMenuItem copyItem;
+
+	/** Task menu item for cutting tasks. */
+	private JMenuItem cutItem;
+
+	/** Task menu item for pasting tasks. */
+	private JMenuItem pasteItem;
+
+	/** Task menu item for restoring the last removed task. */
+	private JMenuItem undeleteItem;
+
+	/** Task menu item for marking a task and its sub-tasks done. */
+	private JMenuItem subtreeDoneItem;
+
+	/** Task menu item for marking a task and its sub-tasks undone. */
+	private JMenuItem subtreeUndoneItem;
+
+	/** Task menu item for setting a task and its sub-tasks to the default status. */
+	private JMenuItem subtreeDefaultItem;
+
+	/** Task menu item for toggling whether the status of parent tasks is derived from their children. */
+	private JCheckBoxMenuItem derivedStatusItem;
+
+	/** Task menu items for the orders of the children of a task, indexed by the order. */
+	private JMenuItem[] sortItems;
+
+	/** The task that has been copied or cut, or null if nothing has been. */
+	private Task clipboard;
+
+	/** Tells whether the task in the clipboard was cut (true) or copied (false). */
+	private boolean clipboardCut;
+
 	/** The tool bar which contains the action buttons. */
 	private JToolBar toolBar;
 	
@@ -216,6 +369,7 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 		this.addButton = new JButton(ADD_BUTTON_TEXT);
 		this.removeButton = new JButton(REMOVE_BUTTON_TEXT);
 		this.openButton = new JButton(OPEN_BUTTON_TEXT);
+		this.browseButton = new JButton(BROWSE_BUTTON_TEXT);
 		this.renameButton = new JButton(RENAME_BUTTON_TEXT);
 		this.settingsButton = new JButton(SETTINGS_BUTTON_TEXT);
 		this.debugButton = new JButton(DEBUG_BUTTON_TEXT);
@@ -224,23 +378,102 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 		this.toolBar.add(this.addButton);
 		this.toolBar.add(this.removeButton);
 		this.toolBar.add(this.openButton);
+		this.toolBar.add(this.browseButton);
 		this.toolBar.add(this.renameButton);
 		this.toolBar.add(this.settingsButton);
 		this.toolBar.add(this.debugButton);
+
+		/* set up the filter of the tree; the filter text is applied when the user stops typing */
+		this.filterBox = new JComboBox<String>(new String[] { FILTER_ALL, FILTER_NOT_DONE, FILTER_UNDONE });
+		this.filterField = new JTextField(12);
+		this.filterTimer = new Timer(FILTER_DELAY, this);
+		this.filterTimer.setRepeats(false);
+		this.filterField.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				filterTimer.restart();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				filterTimer.restart();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				filterTimer.restart();
+			}
+		});
+		this.toolBar.addSeparator();
+		this.toolBar.add(this.filterBox);
+		this.toolBar.add(this.filterField);
 		
 		/* set the action listeners; the same action listener is used for all buttons */
 		this.addButton.addActionListener(this);
 		this.removeButton.addActionListener(this);
 		this.openButton.addActionListener(this);
+		this.browseButton.addActionListener(this);
 		this.renameButton.addActionListener(this);
 		this.settingsButton.addActionListener(this);
 		this.debugButton.addActionListener(this);
+		this.filterBox.addActionListener(this);
+		
+		/* set up the pop-up menu of the tasks */
+		this.exportItem = new JMenuItem(EXPORT_MENU_TEXT);
+		this.exportItem.addActionListener(this);
+		this.importItem = new JMenuItem(IMPORT_MENU_TEXT);
+		this.importItem.addActionListener(this);
+		this.copyItem = new JMenuItem(COPY_MENU_TEXT);
+		this.copyItem.addActionListener(this);
+		this.cutItem = new JMenuItem(CUT_MENU_TEXT);
+		this.cutItem.addActionListener(this);
+		this.pasteItem = new JMenuItem(PASTE_MENU_TEXT);
+		this.pasteItem.addActionListener(this);
+		this.undeleteItem = new JMenuItem(UNDELETE_MENU_TEXT);
+		this.undeleteItem.addActionListener(this);
+		this.subtreeDoneItem = new JMenuItem(SUBTREE_DONE_MENU_TEXT);
+		this.subtreeDoneItem.addActionListener(this);
+		this.subtreeUndoneItem = new JMenuItem(SUBTREE_UNDONE_MENU_TEXT);
+		this.subtreeUndoneItem.addActionListener(this);
+		this.subtreeDefaultItem = new JMenuItem(SUBTREE_DEFAULT_MENU_TEXT);
+		this.subtreeDefaultItem.addActionListener(this);
+		JMenu subtreeStatusMenu = new JMenu(SUBTREE_STATUS_MENU_TEXT);
+		subtreeStatusMenu.add(this.subtreeDoneItem);
+		subtreeStatusMenu.add(this.subtreeUndoneItem);
+		subtreeStatusMenu.add(this.subtreeDefaultItem);
+		this.derivedStatusItem = new JCheckBoxMenuItem(DERIVED_STATUS_MENU_TEXT, this.store.isDerivedStatus());
+		this.derivedStatusItem.addActionListener(this);
+		String[] sortTexts = {
+			SORT_STORED_MENU_TEXT, SORT_NAME_MENU_TEXT, SORT_CREATION_MENU_TEXT, SORT_STATUS_MENU_TEXT
+		};
+		JMenu sortMenu = new JMenu(SORT_MENU_TEXT);
+		this.sortItems = new JMenuItem[sortTexts.length];
+		for (int i = 0; i < sortTexts.length; i++) {
+			this.sortItems[i] = new JMenuItem(sortTexts[i]);
+			this.sortItems[i].addActionListener(this);
+			sortMenu.add(this.sortItems[i]);
+		}
+		this.taskMenu = new JPopupMenu();
+		this.taskMenu.add(this.copyItem);
+		this.taskMenu.add(this.cutItem);
+		this.taskMenu.add(this.pasteItem);
+		this.taskMenu.add(this.undeleteItem);
+		this.taskMenu.addSeparator();
+		this.taskMenu.add(subtreeStatusMenu);
+		this.taskMenu.add(this.derivedStatusItem);
+		this.taskMenu.add(sortMenu);
+		this.taskMenu.addSeparator();
+		this.taskMenu.add(this.exportItem);
+		this.taskMenu.add(this.importItem);
 		
 		/* set up the status bar */
 		this.statusBar = new JLabel(" ");
 		
 		/* initialise the treeView */
-		this.treeView = new JTree(this.store.getTreeModel());
+		this.filterModel = new FilteredTreeModel(this.store.getTreeModel());
+		this.sortModel = new SortedTreeModel(this.filterModel);
+		this.treeModel = new PagedTreeModel(this.sortModel);
+		this.treeView = new JTree(this.treeModel);
 		this.treeView.setRootVisible(false);
 		this.treeView.setShowsRootHandles(true);
 		this.treeView.setDragEnabled(true);
@@ -251,10 +484,17 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 		this.treeView.setFocusable(true);
 		this.treeView.addKeyListener(new TreeViewKeyListener(this));
 		this.treeView.setEditable(true);
-		this.treeView.setCellRenderer(new TaskNodeRenderer());
+		TaskNodeRenderer renderer = new TaskNodeRenderer();
+		this.treeView.setCellRenderer(renderer);
+		renderer.setLargeModel(this.treeView, this.useLargeModel());
+		
+		/* replace the clipboard actions of the tree (CTRL+C, CTRL+X and CTRL+V) */
+		this.treeView.getActionMap().put("copy", new ClipboardAction(this, COPY_MENU_TEXT));
+		this.treeView.getActionMap().put("cut", new ClipboardAction(this, CUT_MENU_TEXT));
+		this.treeView.getActionMap().put("paste", new ClipboardAction(this, PASTE_MENU_TEXT));
 		
 		/* initialise the TaskView */
-		this.taskView = new TaskView((DefaultTreeModel) this.store.getTreeModel());
+		this.taskView = new TaskView(this.store);
 		
 		/* set up the split pane that contains the task tree view and editor */
 		JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, new JScrollPane(this.treeView), this.taskView);
@@ -284,7 +524,7 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 		/* find the currently selected task; use tree root if no task selected */
 		Task node = this.store.getRoot();
 		TreePath path = this.treeView.getSelectionPath();
-		if (path != null) node = (Task) path.getLastPathComponent();
+		if (path != null && path.getLastPathComponent() instanceof Task) node = (Task) path.getLastPathComponent();
 		return node;
 	}
 		
@@ -312,9 +552,7 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 		Task newNode = this.store.add(parent, name);
 
 		/* set the added task as the current selection */
-		TreeNode[] newPath = newNode.getPath();
-		TreePath treePath = new TreePath(newPath);
-		this.treeView.setSelectionPath(treePath);
+		this.select(newNode);
 		
 		/* show a message */
 		this.statusBar.setText(newNode.getName() + " added.");
@@ -325,12 +563,8 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 	 * Called by the tool bar button listener when the Remove button has been pressed.
 	 */
 	private void removeSelected() {
-		/* get the selection; if no selection, do nothing */
-		TreePath path = this.treeView.getSelectionPath();
-		if (path == null) return;
-
-		/* get the selected node; don't remove root node */
-		Task node = (Task) path.getLastPathComponent();
+		/* get the selected node; if no selection, the root node is returned and nothing is removed */
+		Task node = this.getCurrentSelection();
 		if (node.isRoot()) return;
 
 		/* make sure the user wants to remove the task and its children */
@@ -364,16 +598,327 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 	}
 
 	/**
-	 * Moves node under another node.
-	 * @param dest the destination node
-	 * @param node the node to move
+	 * Puts the selected task in the clipboard.
+	 * @param cut true to cut the task (it is moved when pasted), false to copy it
+	 */
+	private void copySelected(boolean cut) {
+		Task node = this.getCurrentSelection();
+		if (node.isRoot()) return;
+
+		this.clipboard = node;
+		this.clipboardCut = cut;
+		this.statusBar.setText(node.getName() + (cut ? " cut." : " copied."));
+	}
+
+	/**
+	 * Pastes the task in the clipboard under the selected task (or under the root, if no task is selected). A copied
+	 * task is copied with its children; a cut task is moved and removed from the clipboard.
+	 */
+	private void pasteSelected() {
+		/* make sure the clipboard task is still in the tree */
+		if (this.clipboard == null || this.clipboard.getRoot() != this.store.getRoot()) {
+			this.clipboard = null;
+			this.statusBar.setText("Nothing to paste.");
+			return;
+		}
+
+		/* make sure the text in the editor is included in the copy */
+		if (this.taskView.getTask() != null) this.taskView.updateText();
+
+		Task dest = this.getCurrentSelection();
+		try {
+			Task node = this.clipboard;
+			if (this.clipboardCut) {
+				this.store.move(dest, -1, node);
+				this.clipboard = null;
+			} else {
+				node = this.store.copy(dest, -1, node);
+			}
+			this.select(node);
+			this.statusBar.setText(node.getName() + " pasted.");
+		} catch (Exception e) {
+			JOptionPane.showMessageDialog(this, e.getMessage(), "Cannot paste", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+	/**
+	 * Exports the currently selected task and its children (or the whole tree, if no task is selected) to a file
+	 * chosen by the user. The format is chosen by the file name extension. The export is done in a background thread
+	 * from a snapshot of the tree, so the user can keep editing the tasks during a long export.
+	 */
+	private void exportSelected() {
+		/* make sure the text in the editor is included */
+		if (this.taskView.getTask() != null) this.taskView.updateText();
+		Task node = this.getCurrentSelection();
+
+		/* ask for the file */
+		JFileChooser chooser = new JFileChooser();
+		chooser.setDialogTitle("Export " + (node.isRoot() ? "all tasks" : "'" + node.getName() + "'"));
+		if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+		final File file = chooser.getSelectedFile();
+		String format = TaskExporter.formatForFile(file);
+		if (format == null) {
+			JOptionPane.showMessageDialog(this,
+			                              "Unknown export format; use one of the file extensions " +
+			                              ".json, .md, .opml or .html",
+			                              "Cannot export",
+			                              JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+
+		/* ask which tasks to export */
+		String[] choices = { EXPORT_ALL, EXPORT_NOT_DONE, EXPORT_UNDONE };
+		Object choice = JOptionPane.showInputDialog(this, "Export which tasks?", "Export",
+		                                            JOptionPane.QUESTION_MESSAGE, null, choices, EXPORT_ALL);
+		if (choice == null) return;
+
+		final TaskExporter exporter;
+		try {
+			exporter = new TaskExporter(format);
+		} catch (Exception e) {
+			JOptionPane.showMessageDialog(this, e.getMessage(), "Cannot export", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		if (choice == EXPORT_NOT_DONE || choice == EXPORT_UNDONE) exporter.setStatusFilter(Task.STATUS_DONE, false);
+		if (choice == EXPORT_UNDONE) exporter.setStatusFilter(Task.STATUS_DEFAULT, false);
+
+		/* take the snapshot here and do the writing in the background */
+		final TaskSnapshot snapshot = node.getSnapshot();
+		this.statusBar.setText("Exporting to " + file.getName() + "...");
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				String msg;
+				try {
+					int count = exporter.export(snapshot, file);
+					msg = count + " tasks exported to " + file.getName() + ".";
+				} catch (Exception e) {
+					msg = "Export to " + file.getName() + " failed: " + e.getMessage();
+				}
+				
+				/* show the result in the status bar */
+				final String result = msg;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						statusBar.setText(result);
+					}
+				});
+			}
+		}).start();
+	}
+
+	/**
+	 * Imports tasks from a file chosen by the user under the currently selected task (or under the root, if no task
+	 * is selected). The file is parsed and the imported tasks are written to disk in a background thread; only
+	 * attaching the finished tasks to the tree is done in the event dispatch thread.
+	 */
+	private void importSelected() {
+		final Task parent = this.getCurrentSelection();
+
+		/* ask for the file */
+		JFileChooser chooser = new JFileChooser();
+		chooser.setDialogTitle("Import tasks under " + (parent.isRoot() ? "the root" : "'" + parent.getName() + "'"));
+		if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+		final File file = chooser.getSelectedFile();
+
+		final TaskImporter importer;
+		try {
+			String format = TaskImporter.formatForFile(file);
+			if (format == null) throw new Exception("Unknown import format; use one of the file extensions " +
+			                                        ".json, .opml, .md or .txt");
+			importer = new TaskImporter(format);
+		} catch (Exception e) {
+			JOptionPane.showMessageDialog(this, e.getMessage(), "Cannot import", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+
+		this.statusBar.setText("Importing " + file.getName() + "...");
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				/* parse the file and write the tasks to disk */
+				final Task tasks;
+				final File staging;
+				try {
+					tasks = importer.read(file);
+					staging = store.stageImport(tasks);
+				} catch (final Exception e) {
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							importFailed(file, e);
+						}
+					});
+					return;
+				}
+
+				/* attach the tasks to the tree */
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							store.attachImport(parent, tasks, staging);
+							statusBar.setText(importer.getCount() + " tasks imported from " + file.getName() + ".");
+						} catch (Exception e) {
+							importFailed(file, e);
+						}
+					}
+				});
+			}
+		}).start();
+	}
+
+	/**
+	 * Reports a failed import to the user.
+	 * @param file the imported file
+	 * @param e the error
+	 */
+	private void importFailed(File file, Exception e) {
+		this.statusBar.setText("Import of " + file.getName() + " failed.");
+		JOptionPane.showMessageDialog(this, file.getName() + ": " + e.getMessage(), "Import failed",
+		                              JOptionPane.ERROR_MESSAGE);
+	}
+
+	/**
+	 * Selects a task in the treeView, showing more children of its ancestors if the task is not shown.
+	 * @param node the task to select
+	 */
+	private void select(Task node) {
+		TreePath path = new TreePath(node.getPath());
+		this.treeModel.reveal(path);
+		this.treeView.setSelectionPath(path);
+	}
+
+	/**
+	 * Sets the order of the children of the selected task, or of the top level tasks if no task is selected. The
+	 * expanded children stay expanded.
+	 * @param order the order; one of the SortedTreeModel orders
+	 */
+	private void sortChildren(int order) {
+		Task node = this.getCurrentSelection();
+		TreePath path = new TreePath(node.getPath());
+		Vector<TreePath> expanded = new Vector<TreePath>();
+		Enumeration<TreePath> e = this.treeView.getExpandedDescendants(path);
+		while (e != null && e.hasMoreElements()) expanded.add(e.nextElement());
+
+		this.sortModel.setOrder(node, order);
+		for (TreePath expandedPath : expanded) {
+			if (this.treeModel.isShown(expandedPath)) this.treeView.expandPath(expandedPath);
+		}
+		if (!node.isRoot()) this.treeView.setSelectionPath(path);
+	}
+
+	/**
+	 * Sets the filter of the tree from the filter box and the filter field.
+	 */
+	private void applyFilter() {
+		this.filterTimer.stop();
+		TaskQuery filter = null;
+		Object choice = this.filterBox.getSelectedItem();
+		if (FILTER_NOT_DONE.equals(choice)) filter = TaskQuery.status(Task.STATUS_DONE).not();
+		else if (FILTER_UNDONE.equals(choice)) filter = TaskQuery.status(Task.STATUS_UNDONE);
+
+		String text = this.filterField.getText().trim();
+		if (text.length() > 0) filter = (filter == null) ? TaskQuery.text(text) : filter.and(TaskQuery.text(text));
+
+		long start = System.currentTimeMillis();
+		this.filterModel.setFilter(filter);
+		Debugger.addMessage("MainWindow.applyFilter: " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Tells whether the tree should be shown in the large model mode. The mode can be set in the task tree
+	 * configuration; if it is not set, the mode is used for trees with more than LARGE_MODEL_TASKS tasks.
+	 * @return true if the large model mode should be used, false if not
 	 */
-	public void move(Task dest, int index, Task node) {
+	private boolean useLargeModel() {
+		String value = this.store.getVariable(CONFIG_LARGE_MODEL);
+		if (value != null) return value.equals("true");
+
+		/* the count is kept by the tree, so nothing is walked; the root is not a task */
+		return this.store.getRoot().countNodes() - 1 > LARGE_MODEL_TASKS;
+	}
+
+	/**
+	 * Restores the most recently removed task and selects it.
+	 */
+	private void undelete() {
 		try {
-			this.store.move(dest, index, node);
+			Task node = this.store.undelete();
+			if (node == null) {
+				this.statusBar.setText("Nothing to undelete.");
+				return;
+			}
+			this.select(node);
+			this.statusBar.setText(node.getName() + " restored.");
 		} catch (Exception e) {
-			JOptionPane.showMessageDialog(this, e.getMessage(), "Cannot move node", JOptionPane.ERROR_MESSAGE);
+			JOptionPane.showMessageDialog(this, e.getMessage(), "Cannot undelete", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+	/**
+	 * Sets the status of the selected task and all its sub-tasks.
+	 * @param status the new status
+	 */
+	private void setSubtreeStatus(short status) {
+		Task node = this.getCurrentSelection();
+		if (node.isRoot()) return;
+
+		try {
+			int changed = this.store.setSubtreeStatus(node, status);
+			this.taskView.statusChanged();
+			this.statusBar.setText(changed + " tasks set to " + Task.statusName(status) + ".");
+		} catch (Exception e) {
+			JOptionPane.showMessageDialog(this, e.getMessage(), "Cannot set status", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+	/**
+	 * Sets whether the status of parent tasks is derived from the status of their children.
+	 * @param derived true to derive the status, false not to
+	 */
+	private void setDerivedStatus(boolean derived) {
+		this.store.setDerivedStatus(derived);
+		this.taskView.statusChanged();
+		this.statusBar.setText("Status of parent tasks " + (derived ? "derived from their children." : "set by hand."));
+	}
+
+	/**
+	 * Moves nodes under another node. The nodes are moved in a single batch and the expanded state of the tree view
+	 * is restored afterwards.
+	 * @param dest the destination node
+	 * @param index the index to move the nodes to (negative to move to the end of the list)
+	 * @param nodes the nodes to move
+	 */
+	public void move(Task dest, int index, Task[] nodes) {
+		/* remember the expanded paths; the batch may send a structure change event that collapses them */
+		Vector<TreePath> expanded = new Vector<TreePath>();
+		Enumeration<TreePath> e = this.treeView.getExpandedDescendants(new TreePath(this.store.getRoot()));
+		while (e != null && e.hasMoreElements()) expanded.add(e.nextElement());
+
+		try {
+			this.store.move(dest, index, nodes);
+		} catch (Exception ex) {
+			JOptionPane.showMessageDialog(this, ex.getMessage(), "Cannot move node", JOptionPane.ERROR_MESSAGE);
 		}
+
+		/* restore the expanded paths; the paths of the moved nodes are rebuilt from the nodes themselves */
+		for (TreePath path : expanded) {
+			Task node = (Task) path.getLastPathComponent();
+			if (node.getRoot() != this.store.getRoot()) continue;
+			TreePath newPath = new TreePath(node.getPath());
+			if (this.treeModel.isShown(newPath)) this.treeView.expandPath(newPath);
+		}
+		this.treeView.expandPath(new TreePath(dest.getPath()));
+
+		/* select the moved nodes */
+		TreePath[] paths = new TreePath[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			paths[i] = new TreePath(nodes[i].getPath());
+			this.treeModel.reveal(paths[i]);
+		}
+		this.treeView.setSelectionPaths(paths);
 	}
 
 	/**
@@ -413,23 +958,29 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 	public void valueChanged(TreeSelectionEvent event) {
 		/* save the text of the old selection */
 		TreePath path = event.getOldLeadSelectionPath();
-		if (path != null) {
+		if (path != null && path.getLastPathComponent() instanceof Task) {
 			Task node = (Task) path.getLastPathComponent();
 			if (node.getParent() != null) { /* don't save root */
 				this.taskView.updateText();
-				if (node.isDirty()) { 
-					try {
-						this.store.writeOut(node);
-						this.statusBar.setText(node.getName() + " written to disk.");
-					} catch (Exception e) { /* TODO error; call a general error function? */ }
+				if (node.isDirty()) {
+					/* the task is written on a background thread, so switching tasks never waits for the disk */
+					this.store.saveInBackground(node);
+					this.statusBar.setText("Saving " + node.getName() + "...");
 				} else this.statusBar.setText(" ");
 			}
 		}
 		
 		/* set the taskView with the Task of the new selection */
 		path = event.getNewLeadSelectionPath();
-		if (path != null) {
+		if (path != null && path.getLastPathComponent() instanceof PagedTreeModel.MoreNode) {
+			/* the "show more" node was selected; show the next page and select its first task */
+			PagedTreeModel.MoreNode more = (PagedTreeModel.MoreNode) path.getLastPathComponent();
+			int index = this.treeModel.showMore(more);
+			this.treeView.setSelectionPath(path.getParentPath().pathByAddingChild(
+				this.treeModel.getChild(more.getParent(), index)));
+		} else if (path != null) {
 			Task node = (Task) path.getLastPathComponent();
+			this.store.openText(node);
 			this.taskView.setTask(node);
 		}
 	}
@@ -443,9 +994,27 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 		if (event.getSource() == this.addButton) this.addButtonPressed();
 		else if (event.getSource() == this.removeButton) this.removeSelected();
 		else if (event.getSource() == this.openButton) this.openButtonPressed();
+		else if (event.getSource() == this.browseButton) TaskMistress.browseTaskTree();
 		else if (event.getSource() == this.renameButton) this.renameButtonPressed();
 		else if (event.getSource() == this.settingsButton) TaskMistress.showSettings();
 		else if (event.getSource() == this.debugButton) Debugger.showDebugger(this, store);
+		else if (event.getSource() == this.exportItem) this.exportSelected();
+		else if (event.getSource() == this.importItem) this.importSelected();
+		else if (event.getSource() == this.copyItem) this.copySelected(false);
+		else if (event.getSource() == this.cutItem) this.copySelected(true);
+		else if (event.getSource() == this.pasteItem) this.pasteSelected();
+		else if (event.getSource() == this.undeleteItem) this.undelete();
+		else if (event.getSource() == this.subtreeDoneItem) this.setSubtreeStatus(Task.STATUS_DONE);
+		else if (event.getSource() == this.subtreeUndoneItem) this.setSubtreeStatus(Task.STATUS_UNDONE);
+		else if (event.getSource() == this.subtreeDefaultItem) this.setSubtreeStatus(Task.STATUS_DEFAULT);
+		else if (event.getSource() == this.derivedStatusItem)
+			this.setDerivedStatus(this.derivedStatusItem.isSelected());
+		else if (event.getSource() == this.filterBox || event.getSource() == this.filterTimer) this.applyFilter();
+		else {
+			for (int i = 0; i < this.sortItems.length; i++) {
+				if (event.getSource() == this.sortItems[i]) this.sortChildren(i);
+			}
+		}
 	}
 
 	/**
@@ -476,8 +1045,68 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 			Rectangle r = this.window.treeView.getRowBounds(row);
 			if (r == null || !r.contains(event.getX(), event.getY())) this.window.treeView.setSelectionPath(null);
 		}
+
+		/**
+		 * Handles the event of a mouse button being pressed; shows the task menu if needed.
+		 * @param event the mouse event
+		 */
+		@Override
+		public void mousePressed(MouseEvent event) {
+			if (event.isPopupTrigger()) this.showTaskMenu(event);
+		}
+
+		/**
+		 * Handles the event of a mouse button being released; shows the task menu if needed.
+		 * @param event the mouse event
+		 */
+		@Override
+		public void mouseReleased(MouseEvent event) {
+			if (event.isPopupTrigger()) this.showTaskMenu(event);
+		}
+
+		/**
+		 * Selects the task under the mouse pointer and shows the task menu.
+		 * @param event the mouse event that triggered the menu
+		 */
+		private void showTaskMenu(MouseEvent event) {
+			TreePath path = this.window.treeView.getPathForLocation(event.getX(), event.getY());
+			if (path != null) this.window.treeView.setSelectionPath(path);
+			this.window.taskMenu.show(this.window.treeView, event.getX(), event.getY());
+		}
 	}
 	
+	/**
+	 * Clipboard action of the treeView; replaces the default cut, copy and paste actions of the tree, which would go
+	 * through the drag and drop transfer handler.
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	class ClipboardAction extends AbstractAction {
+		/** The MainWindow whose treeView this action belongs to. */
+		private MainWindow window;
+
+		/**
+		 * Constructs the action.
+		 * @param window the window
+		 * @param name the name of the action; one of the copy, cut and paste menu texts
+		 */
+		public ClipboardAction(MainWindow window, String name) {
+			super(name);
+			this.window = window;
+		}
+
+		/**
+		 * Performs the action.
+		 * @param event the action event
+		 */
+		@Override
+		public void actionPerformed(ActionEvent event) {
+			Object name = this.getValue(NAME);
+			if (name == COPY_MENU_TEXT) this.window.copySelected(false);
+			else if (name == CUT_MENU_TEXT) this.window.copySelected(true);
+			else if (name == PASTE_MENU_TEXT) this.window.pasteSelected();
+		}
+	}
+
 	/**
 	 * A class that handles the data transfer with drag and drop events in the treeView.
 	 * @author anonpds <anonpds@gmail.com>
@@ -519,13 +1148,17 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 			/* only allow JTree as the source */
 			if (!(source instanceof JTree)) return null;
 			
-			/* set the currently selected tree component as the transferable node */
+			/* set the currently selected tree components as the transferable nodes */
 			JTree tree = (JTree) source;
-			Task node = (Task) tree.getSelectionPath().getLastPathComponent();
+			TreePath[] paths = tree.getSelectionPaths();
 			
 			/* if no selected node, return null to indicate no transfer */
-			if (node == null) return null;
-			return new TreeNodeTransferable(node);
+			if (paths == null || paths.length == 0) return null;
+			Vector<Task> nodes = new Vector<Task>();
+			for (TreePath path : paths)
+				if (path.getLastPathComponent() instanceof Task) nodes.add((Task) path.getLastPathComponent());
+			if (nodes.isEmpty()) return null;
+			return new TreeNodeTransferable(nodes.toArray(new Task[0]));
 		}
 		
 		/**
@@ -539,15 +1172,26 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 			/* only handle moves of TreeNodes inside JTree */
 			if (action != MOVE || !(source instanceof JTree) || !(data instanceof TreeNodeTransferable)) return;
 
-			JTree tree = (JTree) source;
-			Task node = ((TreeNodeTransferable)data).getNode();
+			Task[] nodes = ((TreeNodeTransferable)data).getNodes();
 			
 			/* get the destination path; if it's null, move under root node */
-			Task dest = (Task) this.path.getLastPathComponent();
-			/* DEBUG */ System.out.println(dest + ", " + this.index);
+			Object target = this.path.getLastPathComponent();
+			int index = this.index;
+			
+			/* a drop on the "show more" node is a drop after the last shown child of its parent; the indexes of the
+			 * shown children are the same in the paged view and in the task tree */
+			if (target instanceof PagedTreeModel.MoreNode) {
+				target = ((PagedTreeModel.MoreNode) target).getParent();
+				index = this.window.treeModel.getIndexOfChild(target, this.path.getLastPathComponent());
+			}
+			Task dest = (Task) target;
+
+			/* the index is among the children as they are shown: sorted and filtered */
+			index = this.window.sortModel.toModelIndex(dest, index);
+			index = this.window.filterModel.toModelIndex(dest, index);
 			
 			/* execute the move */
-			this.window.move(dest, this.index, node);
+			this.window.move(dest, index, nodes);
 		}
 		
 		/**
@@ -582,29 +1226,29 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 	 * @author anonpds <anonpds@gmail.com>
 	 */
 	class TreeNodeTransferable implements Transferable {
-		/** The node to transfer. */
-		private Task node;
+		/** The nodes to transfer. */
+		private Task[] nodes;
 		
 		/** The "flavours" of data accepted. */
 		private DataFlavor[] flavor;
 
 		/**
 		 * Default constructor.
-		 * @param node the node to transfer
+		 * @param nodes the nodes to transfer
 		 */
-		public TreeNodeTransferable(Task node) {
-			this.node = node;
+		public TreeNodeTransferable(Task[] nodes) {
+			this.nodes = nodes;
 			/* create a list of the accepted data "flavours"; only TaskNode classes are accepted */
 			this.flavor = new DataFlavor[1];
-			this.flavor[0] = new DataFlavor(Task.class, Task.class.getName());
+			this.flavor[0] = new DataFlavor(Task[].class, Task.class.getName());
 		}
 		
 		/**
-		 * Returns the node that is being transferred.
-		 * @return the transferred node
+		 * Returns the nodes that are being transferred.
+		 * @return the transferred nodes
 		 */
-		public Task getNode() {
-			return this.node;
+		public Task[] getNodes() {
+			return this.nodes;
 		}
 
 		/**
@@ -615,7 +1259,7 @@ public class MainWindow extends JFrame implements TreeSelectionListener, ActionL
 		@Override
 		public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException, IOException {
 			if (!this.isDataFlavorSupported(flavor)) throw new UnsupportedFlavorException(flavor);
-			return node;
+			return this.nodes;
 		}
 
 		/**
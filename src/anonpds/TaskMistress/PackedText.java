@@ -0,0 +1,106 @@
+/* PackedText.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A task text stored as compressed UTF-8.
+ *
+ * Tasks keep the texts that are not in use in this form; Task.getText() unpacks the text when it is asked for. Packed
+ * texts never change, so they can be shared between tasks, snapshots and threads.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+final class PackedText {
+	/** Texts shorter than this many characters are not packed; compressing them would not save anything. */
+	private static final int MIN_LENGTH = 128;
+
+	/** The UTF-8 character set. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The number of texts unpacked since the program started. */
+	private static final AtomicLong unpacked = new AtomicLong();
+
+	/** The compressed UTF-8 bytes of the text. */
+	private final byte[] data;
+
+	/** The length of the text in UTF-8 bytes. */
+	private final int size;
+
+	/** The length of the text in characters. */
+	private final int length;
+
+	/**
+	 * Constructs a packed text.
+	 * @param data the compressed UTF-8 bytes
+	 * @param size the length of the text in UTF-8 bytes
+	 * @param length the length of the text in characters
+	 */
+	private PackedText(byte[] data, int size, int length) {
+		this.data = data;
+		this.size = size;
+		this.length = length;
+	}
+
+	/**
+	 * Packs a text, if it is long enough and compresses well enough to save memory.
+	 * @param text the text to pack
+	 * @return the packed text or the text itself if it was not packed
+	 */
+	public static Object pack(String text) {
+		if (text == null || text.length() < MIN_LENGTH) return text;
+
+		byte[] bytes = text.getBytes(UTF8);
+		byte[] data = Util.deflate(bytes);
+		if (data.length >= text.length() * 2) return text;
+
+		return new PackedText(data, bytes.length, text.length());
+	}
+
+	/**
+	 * Unpacks the text.
+	 * @return the text
+	 */
+	public String unpack() {
+		unpacked.incrementAndGet();
+		try {
+			return new String(Util.inflate(this.data, this.size), UTF8);
+		} catch (Exception e) {
+			/* can only happen if the packed data is corrupted in memory */
+			throw new IllegalStateException("PackedText.unpack: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the length of the text in characters.
+	 * @return the length of the text
+	 */
+	public int length() {
+		return this.length;
+	}
+
+	/**
+	 * Returns the number of bytes the packed text takes.
+	 * @return the size of the compressed data
+	 */
+	public int getPackedSize() {
+		return this.data.length;
+	}
+
+	/**
+	 * Returns the number of texts unpacked since the program started.
+	 * @return the number of unpacked texts
+	 */
+	public static long getUnpackCount() {
+		return unpacked.get();
+	}
+}
@@ -0,0 +1,361 @@
+/* PagedTreeModel.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.util.Map;
+import java.util.Vector;
+import java.util.WeakHashMap;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+/**
+ * A tree model that shows the children of wide nodes in pages.
+ *
+ * The model wraps another tree model. Of a node with more than PAGE_SIZE children, only the first page of children is
+ * shown, followed by a "show more" pseudo-node; showMore() shows the next page. The shown children have the same
+ * indexes as in the wrapped model, so an index in this model is also a valid index in the wrapped model, and the
+ * pseudo-node stands for the position after the last shown child.
+ *
+ * The events of the wrapped model are passed on. Changes to the children of a paged node are passed on as structure
+ * changes of the node, because the shown page may shift.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+public class PagedTreeModel implements TreeModel, TreeModelListener {
+	/** The number of children shown in one page. */
+	public static final int PAGE_SIZE = 500;
+
+	/** Event type of inserted nodes. */
+	private static final int INSERTED = 0;
+
+	/** Event type of removed nodes. */
+	private static final int REMOVED = 1;
+
+	/** Event type of changed nodes. */
+	private static final int CHANGED = 2;
+
+	/** Event type of structure change. */
+	private static final int STRUCTURE = 3;
+
+	/** The wrapped model. */
+	private TreeModel model;
+
+	/** The number of children shown of each node whose pages have been expanded. */
+	private Map<Object, Integer> shown = new WeakHashMap<Object, Integer>();
+
+	/** The listeners of the model. */
+	private Vector<TreeModelListener> listeners = new Vector<TreeModelListener>();
+
+	/**
+	 * Constructs a paged model of a tree model.
+	 * @param model the model to wrap
+	 */
+	public PagedTreeModel(TreeModel model) {
+		this.model = model;
+		model.addTreeModelListener(this);
+	}
+
+	/**
+	 * Returns the number of children shown of a node, not counting the "show more" node.
+	 * @param parent the node
+	 * @return the number of shown children
+	 */
+	private int getShownCount(Object parent) {
+		Integer shown = this.shown.get(parent);
+		int count = this.model.getChildCount(parent);
+		return Math.min(count, (shown == null) ? PAGE_SIZE : shown);
+	}
+
+	/**
+	 * Tells whether some of the children of a node are hidden.
+	 * @param parent the node
+	 * @return true if the node has hidden children, false if not
+	 */
+	private boolean isPaged(Object parent) {
+		return this.getShownCount(parent) < this.model.getChildCount(parent);
+	}
+
+	/**
+	 * Returns the "show more" node of a node.
+	 * @param parent the node
+	 * @return the "show more" node
+	 */
+	private MoreNode getMoreNode(Object parent) {
+		return new MoreNode(parent);
+	}
+
+	@Override
+	public Object getRoot() {
+		return this.model.getRoot();
+	}
+
+	@Override
+	public Object getChild(Object parent, int index) {
+		if (parent instanceof MoreNode) return null;
+		int shown = this.getShownCount(parent);
+		if (index < shown) return this.model.getChild(parent, index);
+		if (index == shown && this.isPaged(parent)) return this.getMoreNode(parent);
+		return null;
+	}
+
+	@Override
+	public int getChildCount(Object parent) {
+		if (parent instanceof MoreNode) return 0;
+		return this.getShownCount(parent) + (this.isPaged(parent) ? 1 : 0);
+	}
+
+	@Override
+	public boolean isLeaf(Object node) {
+		if (node instanceof MoreNode) return true;
+		return this.model.isLeaf(node);
+	}
+
+	@Override
+	public int getIndexOfChild(Object parent, Object child) {
+		if (parent == null || child == null || parent instanceof MoreNode) return -1;
+		if (child instanceof MoreNode) return (((MoreNode) child).parent == parent) ? this.getShownCount(parent) : -1;
+
+		int index = this.model.getIndexOfChild(parent, child);
+		return (index < this.getShownCount(parent)) ? index : -1;
+	}
+
+	@Override
+	public void valueForPathChanged(TreePath path, Object newValue) {
+		if (path.getLastPathComponent() instanceof MoreNode) return;
+		this.model.valueForPathChanged(path, newValue);
+	}
+
+	/**
+	 * Shows the next page of children of a node.
+	 * @param more the "show more" node of the node
+	 * @return the index of the first newly shown child
+	 */
+	public int showMore(MoreNode more) {
+		int first = this.getShownCount(more.parent);
+		this.showChildren(more.parent, first + PAGE_SIZE);
+		return first;
+	}
+
+	/**
+	 * Makes sure that a node is shown, by showing more pages of the children of its ancestors as needed.
+	 * @param path the path to the node
+	 */
+	public void reveal(TreePath path) {
+		Object[] nodes = path.getPath();
+		for (int i = 1; i < nodes.length; i++) {
+			int index = this.model.getIndexOfChild(nodes[i - 1], nodes[i]);
+			if (index >= this.getShownCount(nodes[i - 1])) this.showChildren(nodes[i - 1], index + 1);
+		}
+	}
+
+	/**
+	 * Tells whether a node is shown, that is, whether none of its ancestors hides it in a later page.
+	 * @param path the path to the node
+	 * @return true if the node is shown, false if not
+	 */
+	public boolean isShown(TreePath path) {
+		Object[] nodes = path.getPath();
+		for (int i = 1; i < nodes.length; i++)
+			if (this.getIndexOfChild(nodes[i - 1], nodes[i]) < 0) return false;
+		return true;
+	}
+
+	/**
+	 * Shows at least the given number of children of a node, rounded up to a whole page, and informs the listeners
+	 * of the newly shown children.
+	 * @param parent the node
+	 * @param count the number of children to show
+	 */
+	private void showChildren(Object parent, int count) {
+		int oldShown = this.getShownCount(parent);
+		boolean wasPaged = this.isPaged(parent);
+		this.shown.put(parent, (count + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE);
+		int newShown = this.getShownCount(parent);
+		if (newShown == oldShown) return;
+
+		TreePath path = this.getPath(parent);
+		if (path == null) return;
+
+		/* the "show more" node is removed and the new children and a new "show more" node are inserted after the old
+		 * children */
+		if (wasPaged) this.fire(REMOVED, path, oldShown, oldShown + 1, new Object[] { this.getMoreNode(parent) });
+		int end = newShown + (this.isPaged(parent) ? 1 : 0);
+		Object[] children = new Object[end - oldShown];
+		for (int i = 0; i < children.length; i++) children[i] = this.getChild(parent, oldShown + i);
+		this.fire(INSERTED, path, oldShown, end, children);
+	}
+
+	/**
+	 * Returns the path to a node of the wrapped model.
+	 * @param node the node
+	 * @return the path or null if the path cannot be found
+	 */
+	private TreePath getPath(Object node) {
+		if (node instanceof Task) return new TreePath(((Task) node).getPath());
+		if (node == this.getRoot()) return new TreePath(node);
+		return null;
+	}
+
+	/**
+	 * Informs the listeners of a change in a range of children.
+	 * @param type the event type
+	 * @param path the path to the parent node
+	 * @param start the index of the first child
+	 * @param end the index after the last child
+	 * @param children the children
+	 */
+	private void fire(int type, TreePath path, int start, int end, Object[] children) {
+		int[] indices = new int[end - start];
+		for (int i = 0; i < indices.length; i++) indices[i] = start + i;
+		this.fire(type, new TreeModelEvent(this, path, indices, children));
+	}
+
+	/**
+	 * Informs the listeners of a change.
+	 * @param type the event type
+	 * @param event the event
+	 */
+	private void fire(int type, TreeModelEvent event) {
+		for (int i = this.listeners.size() - 1; i >= 0; i--) {
+			TreeModelListener listener = this.listeners.get(i);
+			switch (type) {
+			case INSERTED: listener.treeNodesInserted(event); break;
+			case REMOVED: listener.treeNodesRemoved(event); break;
+			case CHANGED: listener.treeNodesChanged(event); break;
+			case STRUCTURE: listener.treeStructureChanged(event); break;
+			}
+		}
+	}
+
+	/**
+	 * Passes on an event of the wrapped model about inserted or removed children. If the parent node has or had
+	 * hidden children, a structure change of the parent is passed on instead.
+	 * @param type the event type
+	 * @param event the event of the wrapped model
+	 * @param countBefore the number of children the parent had before the change
+	 */
+	private void forward(int type, TreeModelEvent event, int countBefore) {
+		Object parent = event.getTreePath().getLastPathComponent();
+		Integer shown = this.shown.get(parent);
+		int limit = (shown == null) ? PAGE_SIZE : shown;
+		if (countBefore > limit || this.model.getChildCount(parent) > limit) {
+			this.fire(STRUCTURE, new TreeModelEvent(this, event.getTreePath()));
+		} else {
+			this.fire(type, new TreeModelEvent(this, event.getTreePath(), event.getChildIndices(), event.getChildren()));
+		}
+	}
+
+	@Override
+	public void treeNodesChanged(TreeModelEvent event) {
+		int[] indices = event.getChildIndices();
+		Object[] children = event.getChildren();
+		if (indices == null || children == null) {
+			this.fire(CHANGED, new TreeModelEvent(this, event.getTreePath(), indices, children));
+			return;
+		}
+
+		/* pass on only the shown children */
+		int shown = this.getShownCount(event.getTreePath().getLastPathComponent());
+		Vector<Integer> keep = new Vector<Integer>();
+		for (int i = 0; i < indices.length; i++) if (indices[i] < shown) keep.add(i);
+		if (keep.isEmpty()) return;
+		int[] newIndices = new int[keep.size()];
+		Object[] newChildren = new Object[keep.size()];
+		for (int i = 0; i < newIndices.length; i++) {
+			newIndices[i] = indices[keep.get(i)];
+			newChildren[i] = children[keep.get(i)];
+		}
+		this.fire(CHANGED, new TreeModelEvent(this, event.getTreePath(), newIndices, newChildren));
+	}
+
+	@Override
+	public void treeNodesInserted(TreeModelEvent event) {
+		Object parent = event.getTreePath().getLastPathComponent();
+		this.forward(INSERTED, event, this.model.getChildCount(parent) - event.getChildIndices().length);
+	}
+
+	@Override
+	public void treeNodesRemoved(TreeModelEvent event) {
+		Object parent = event.getTreePath().getLastPathComponent();
+		this.forward(REMOVED, event, this.model.getChildCount(parent) + event.getChildIndices().length);
+	}
+
+	@Override
+	public void treeStructureChanged(TreeModelEvent event) {
+		this.fire(STRUCTURE, new TreeModelEvent(this, event.getTreePath()));
+	}
+
+	@Override
+	public void addTreeModelListener(TreeModelListener listener) {
+		this.listeners.add(listener);
+	}
+
+	@Override
+	public void removeTreeModelListener(TreeModelListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	/**
+	 * The "show more" pseudo-node shown after the last shown child of a paged node.
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	public class MoreNode {
+		/** The paged node. */
+		private final Object parent;
+
+		/**
+		 * Constructs a "show more" node.
+		 * @param parent the paged node
+		 */
+		private MoreNode(Object parent) {
+			this.parent = parent;
+		}
+
+		/**
+		 * Returns the paged node.
+		 * @return the paged node
+		 */
+		public Object getParent() {
+			return this.parent;
+		}
+
+		/**
+		 * Tells whether another object is the "show more" node of the same node.
+		 * @param o the object to compare to
+		 * @return true if the object is the "show more" node of the same node, false if not
+		 */
+		@Override
+		public boolean equals(Object o) {
+			return (o instanceof MoreNode) && ((MoreNode) o).parent == this.parent;
+		}
+
+		/**
+		 * Returns the hash code of the node.
+		 * @return the hash code
+		 */
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this.parent);
+		}
+
+		/**
+		 * Returns the text shown in the tree.
+		 * @return the text of the node
+		 */
+		@Override
+		public String toString() {
+			int hidden = model.getChildCount(this.parent) - getShownCount(this.parent);
+			return "Show " + Math.min(hidden, PAGE_SIZE) + " more of " + hidden + "...";
+		}
+	}
+}
@@ -0,0 +1,493 @@
+/* SortedTreeModel.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Vector;
+import java.util.WeakHashMap;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+/**
+ * A tree model that shows the children of chosen tasks sorted by name, creation time or status, without changing
+ * the order in which they are stored.
+ *
+ * The model wraps another tree model of tasks. The children of a task that has an order are kept in a sorted list;
+ * the lists of every order used for the task are kept up to date, so switching back to an order is immediate. An
+ * added child is put in place by a binary search and a changed child is moved only if it is out of place. The names
+ * are compared by their collation keys, which are cached by the tasks until they are renamed.
+ *
+ * The events of the wrapped model are passed on with the indexes translated to the sorted order.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+public class SortedTreeModel implements TreeModel, TreeModelListener {
+	/** The order of the children as they are stored. */
+	public static final int ORDER_STORED = 0;
+
+	/** The order of the children by name. */
+	public static final int ORDER_NAME = 1;
+
+	/** The order of the children by creation time, oldest first. */
+	public static final int ORDER_CREATION = 2;
+
+	/** The order of the children by status: undone, default and done. */
+	public static final int ORDER_STATUS = 3;
+
+	/** The number of orders. */
+	private static final int ORDERS = 4;
+
+	/** The rank of each status in the status order, indexed by the status code. */
+	private static final int[] STATUS_RANK = { 0, 2, 0, 1 };
+
+	/** Event type of inserted nodes. */
+	private static final int INSERTED = 0;
+
+	/** Event type of removed nodes. */
+	private static final int REMOVED = 1;
+
+	/** Event type of changed nodes. */
+	private static final int CHANGED = 2;
+
+	/** Event type of structure change. */
+	private static final int STRUCTURE = 3;
+
+	/** The comparators of the orders, indexed by the order. */
+	private static final Vector<Comparator<Task>> COMPARATORS = new Vector<Comparator<Task>>();
+	static {
+		for (int order = 0; order < ORDERS; order++) COMPARATORS.add(new OrderComparator(order));
+	}
+
+	/** The wrapped model. */
+	private TreeModel model;
+
+	/** The tasks whose children are sorted. */
+	private Map<Task, Folder> folders = new WeakHashMap<Task, Folder>();
+
+	/** The listeners of the model. */
+	private Vector<TreeModelListener> listeners = new Vector<TreeModelListener>();
+
+	/**
+	 * Constructs a sorted model of a tree model. The children of all tasks are in the stored order until an order is
+	 * set.
+	 * @param model the model to wrap
+	 */
+	public SortedTreeModel(TreeModel model) {
+		this.model = model;
+		model.addTreeModelListener(this);
+	}
+
+	/**
+	 * Returns the order of the children of a task.
+	 * @param parent the task
+	 * @return the order
+	 */
+	public int getOrder(Task parent) {
+		Folder folder = this.folders.get(parent);
+		return (folder == null) ? ORDER_STORED : folder.order;
+	}
+
+	/**
+	 * Sets the order of the children of a task and informs the listeners of the changed structure of the task.
+	 * @param parent the task
+	 * @param order the order
+	 * @throws IllegalArgumentException if the order is illegal
+	 */
+	public void setOrder(Task parent, int order) {
+		if (order < 0 || order >= ORDERS) throw new IllegalArgumentException("Bad order " + order);
+		if (order == this.getOrder(parent)) return;
+
+		Folder folder = this.folders.get(parent);
+		if (folder == null) {
+			folder = new Folder();
+			this.folders.put(parent, folder);
+		}
+		folder.order = order;
+		if (order == ORDER_STORED && folder.isEmpty()) this.folders.remove(parent);
+		this.fire(STRUCTURE, new TreeModelEvent(this, new TreePath(parent.getPath())));
+	}
+
+	/**
+	 * Returns the sorted children of a task. The list is built when it is first needed.
+	 * @param parent the task
+	 * @return the sorted children or null if the children are in the stored order
+	 */
+	private Vector<Task> getSorted(Object parent) {
+		Folder folder = this.folders.get(parent);
+		if (folder == null || folder.order == ORDER_STORED) return null;
+
+		Vector<Task> sorted = folder.sorted.get(folder.order);
+		if (sorted == null) {
+			int count = this.model.getChildCount(parent);
+			sorted = new Vector<Task>(count);
+			for (int i = 0; i < count; i++) sorted.add((Task) this.model.getChild(parent, i));
+			Collections.sort(sorted, COMPARATORS.get(folder.order));
+			folder.sorted.set(folder.order, sorted);
+		}
+		return sorted;
+	}
+
+	/**
+	 * Finds a child in a sorted list, by a binary search or, if the child is out of place, by going through the list.
+	 * @param sorted the sorted list
+	 * @param order the order of the list
+	 * @param child the child to find
+	 * @return the index of the child or -1 if it is not in the list
+	 */
+	private static int find(Vector<Task> sorted, int order, Task child) {
+		int index = Collections.binarySearch(sorted, child, COMPARATORS.get(order));
+		if (index >= 0 && sorted.get(index) == child) return index;
+		for (int i = 0; i < sorted.size(); i++) if (sorted.get(i) == child) return i;
+		return -1;
+	}
+
+	/**
+	 * Inserts a child to its place in a sorted list.
+	 * @param sorted the sorted list
+	 * @param order the order of the list
+	 * @param child the child to insert
+	 * @return the index of the inserted child
+	 */
+	private static int insert(Vector<Task> sorted, int order, Task child) {
+		int index = Collections.binarySearch(sorted, child, COMPARATORS.get(order));
+		if (index < 0) index = -index - 1;
+		sorted.insertElementAt(child, index);
+		return index;
+	}
+
+	/**
+	 * Tells whether a child is in its place in a sorted list.
+	 * @param sorted the sorted list
+	 * @param order the order of the list
+	 * @param index the index of the child
+	 * @return true if the child is in place, false if not
+	 */
+	private static boolean isInPlace(Vector<Task> sorted, int order, int index) {
+		Comparator<Task> comparator = COMPARATORS.get(order);
+		Task child = sorted.get(index);
+		if (index > 0 && comparator.compare(sorted.get(index - 1), child) > 0) return false;
+		if (index < sorted.size() - 1 && comparator.compare(child, sorted.get(index + 1)) > 0) return false;
+		return true;
+	}
+
+	@Override
+	public Object getRoot() {
+		return this.model.getRoot();
+	}
+
+	@Override
+	public Object getChild(Object parent, int index) {
+		Vector<Task> sorted = this.getSorted(parent);
+		if (sorted == null) return this.model.getChild(parent, index);
+		return (index >= 0 && index < sorted.size()) ? sorted.get(index) : null;
+	}
+
+	@Override
+	public int getChildCount(Object parent) {
+		return this.model.getChildCount(parent);
+	}
+
+	@Override
+	public boolean isLeaf(Object node) {
+		return this.model.isLeaf(node);
+	}
+
+	@Override
+	public int getIndexOfChild(Object parent, Object child) {
+		Vector<Task> sorted = this.getSorted(parent);
+		if (sorted == null || !(child instanceof Task)) return this.model.getIndexOfChild(parent, child);
+		return find(sorted, this.getOrder((Task) parent), (Task) child);
+	}
+
+	@Override
+	public void valueForPathChanged(TreePath path, Object newValue) {
+		this.model.valueForPathChanged(path, newValue);
+	}
+
+	/**
+	 * Converts an index among the sorted children of a task to an index in the wrapped model. An index after the last
+	 * child is converted to the end of the children.
+	 * @param parent the task
+	 * @param index the index among the sorted children; negative for the end of the children
+	 * @return the index in the wrapped model; negative for the end of the children
+	 */
+	public int toModelIndex(Task parent, int index) {
+		Vector<Task> sorted = this.getSorted(parent);
+		if (sorted == null || index < 0) return index;
+		return (index < sorted.size()) ? this.model.getIndexOfChild(parent, sorted.get(index)) : -1;
+	}
+
+	/**
+	 * Informs the listeners of a change.
+	 * @param type the event type
+	 * @param event the event
+	 */
+	private void fire(int type, TreeModelEvent event) {
+		for (int i = this.listeners.size() - 1; i >= 0; i--) {
+			TreeModelListener listener = this.listeners.get(i);
+			switch (type) {
+			case INSERTED: listener.treeNodesInserted(event); break;
+			case REMOVED: listener.treeNodesRemoved(event); break;
+			case CHANGED: listener.treeNodesChanged(event); break;
+			case STRUCTURE: listener.treeStructureChanged(event); break;
+			}
+		}
+	}
+
+	/**
+	 * Informs the listeners of a change in some children, ordering the children by their indexes.
+	 * @param type the event type
+	 * @param path the path to the parent
+	 * @param indices the indexes of the children
+	 * @param children the children
+	 */
+	private void fire(int type, TreePath path, Vector<Integer> indices, Vector<Task> children) {
+		Integer[] order = new Integer[indices.size()];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		final Vector<Integer> keys = indices;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return keys.get(a) - keys.get(b);
+			}
+		});
+
+		int[] sortedIndices = new int[order.length];
+		Object[] sortedChildren = new Object[order.length];
+		for (int i = 0; i < order.length; i++) {
+			sortedIndices[i] = indices.get(order[i]);
+			sortedChildren[i] = children.get(order[i]);
+		}
+		this.fire(type, new TreeModelEvent(this, path, sortedIndices, sortedChildren));
+	}
+
+	/**
+	 * Passes on an event of the wrapped model.
+	 * @param type the event type
+	 * @param event the event
+	 */
+	private void forward(int type, TreeModelEvent event) {
+		this.fire(type, new TreeModelEvent(this, event.getTreePath(), event.getChildIndices(), event.getChildren()));
+	}
+
+	@Override
+	public void treeNodesChanged(TreeModelEvent event) {
+		Object parent = event.getTreePath().getLastPathComponent();
+		Folder folder = this.folders.get(parent);
+		Object[] children = event.getChildren();
+		if (folder == null || children == null) {
+			this.forward(CHANGED, event);
+			return;
+		}
+		this.getSorted(parent); /* the listeners know the children only in order */
+
+		/* move the children that are no longer in place in every list */
+		Vector<Integer> indices = new Vector<Integer>();
+		Vector<Task> changed = new Vector<Task>();
+		for (Object object : children) {
+			Task child = (Task) object;
+			for (int order = 0; order < ORDERS; order++) {
+				Vector<Task> sorted = folder.sorted.get(order);
+				if (sorted == null) continue;
+				int index = find(sorted, order, child);
+				if (index < 0 || isInPlace(sorted, order, index)) {
+					if (order == folder.order && index >= 0) {
+						indices.add(index);
+						changed.add(child);
+					}
+					continue;
+				}
+
+				/* the child is moved; a listener sees it removed and inserted again */
+				sorted.remove(index);
+				if (order != folder.order) {
+					insert(sorted, order, child);
+					continue;
+				}
+				this.fire(REMOVED, new TreeModelEvent(this, event.getTreePath(), new int[] { index },
+				                                      new Object[] { child }));
+				index = insert(sorted, order, child);
+				this.fire(INSERTED, new TreeModelEvent(this, event.getTreePath(), new int[] { index },
+				                                       new Object[] { child }));
+			}
+		}
+		if (folder.order == ORDER_STORED) this.forward(CHANGED, event);
+		else if (!indices.isEmpty()) this.fire(CHANGED, event.getTreePath(), indices, changed);
+	}
+
+	@Override
+	public void treeNodesInserted(TreeModelEvent event) {
+		Object parent = event.getTreePath().getLastPathComponent();
+		Folder folder = this.folders.get(parent);
+		if (folder == null) {
+			this.forward(INSERTED, event);
+			return;
+		}
+
+		/* put the children in place in every list */
+		Object[] children = event.getChildren();
+		for (int order = 0; order < ORDERS; order++) {
+			Vector<Task> sorted = folder.sorted.get(order);
+			if (sorted != null) for (Object child : children) insert(sorted, order, (Task) child);
+		}
+
+		Vector<Task> sorted = this.getSorted(parent);
+		if (sorted == null) {
+			this.forward(INSERTED, event);
+			return;
+		}
+		Vector<Integer> indices = new Vector<Integer>();
+		Vector<Task> inserted = new Vector<Task>();
+		for (Object child : children) {
+			indices.add(find(sorted, folder.order, (Task) child));
+			inserted.add((Task) child);
+		}
+		this.fire(INSERTED, event.getTreePath(), indices, inserted);
+	}
+
+	@Override
+	public void treeNodesRemoved(TreeModelEvent event) {
+		Object parent = event.getTreePath().getLastPathComponent();
+		Folder folder = this.folders.get(parent);
+		if (folder == null) {
+			this.forward(REMOVED, event);
+			return;
+		}
+
+		/* the indexes are those before the removal */
+		Object[] children = event.getChildren();
+		Vector<Integer> indices = new Vector<Integer>();
+		Vector<Task> removed = new Vector<Task>();
+		Vector<Task> current = folder.sorted.get(folder.order);
+		if (folder.order != ORDER_STORED && current != null) {
+			for (Object child : children) {
+				indices.add(find(current, folder.order, (Task) child));
+				removed.add((Task) child);
+			}
+		}
+
+		for (int order = 0; order < ORDERS; order++) {
+			Vector<Task> sorted = folder.sorted.get(order);
+			if (sorted == null) continue;
+			for (Object child : children) {
+				int index = find(sorted, order, (Task) child);
+				if (index >= 0) sorted.remove(index);
+			}
+		}
+
+		if (folder.order == ORDER_STORED) this.forward(REMOVED, event);
+		else if (current == null) this.fire(STRUCTURE, new TreeModelEvent(this, event.getTreePath()));
+		else this.fire(REMOVED, event.getTreePath(), indices, removed);
+	}
+
+	@Override
+	public void treeStructureChanged(TreeModelEvent event) {
+		/* the sorted lists of the task and its descendants are built again when needed */
+		Object node = event.getTreePath().getLastPathComponent();
+		for (Map.Entry<Task, Folder> entry : this.folders.entrySet()) {
+			if (node instanceof Task && entry.getKey().isNodeAncestor((Task) node)) entry.getValue().clear();
+		}
+		this.forward(STRUCTURE, event);
+	}
+
+	@Override
+	public void addTreeModelListener(TreeModelListener listener) {
+		this.listeners.add(listener);
+	}
+
+	@Override
+	public void removeTreeModelListener(TreeModelListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	/**
+	 * The order and the sorted children of a task.
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	private static class Folder {
+		/** The order of the children. */
+		private int order = ORDER_STORED;
+
+		/** The children in each order that has been used; null for the orders that have not. */
+		private Vector<Vector<Task>> sorted = new Vector<Vector<Task>>();
+
+		/** Constructs the sorted children of a task; the lists are built when needed. */
+		private Folder() {
+			this.clear();
+		}
+
+		/** Drops the sorted lists, to be built again when needed. */
+		private void clear() {
+			this.sorted.clear();
+			for (int order = 0; order < ORDERS; order++) this.sorted.add(null);
+		}
+
+		/**
+		 * Tells whether no sorted lists are kept.
+		 * @return true if there are no lists, false if there are
+		 */
+		private boolean isEmpty() {
+			for (Vector<Task> list : this.sorted) if (list != null) return false;
+			return true;
+		}
+	}
+
+	/**
+	 * Compares the tasks in an order. The tasks that are equal in the order are compared by name and creation time,
+	 * and finally by identity, so that no two tasks are equal and a task can be found by a binary search.
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	private static class OrderComparator implements Comparator<Task> {
+		/** The order. */
+		private final int order;
+
+		/**
+		 * Constructs a comparator.
+		 * @param order the order
+		 */
+		private OrderComparator(int order) {
+			this.order = order;
+		}
+
+		/**
+		 * Compares the creation times of two tasks.
+		 * @param a the first task
+		 * @param b the second task
+		 * @return negative, zero or positive as the first task was created before, at or after the second
+		 */
+		private static int compareTime(Task a, Task b) {
+			long timeA = a.getCreationTime(), timeB = b.getCreationTime();
+			return (timeA < timeB) ? -1 : (timeA == timeB) ? 0 : 1;
+		}
+
+		@Override
+		public int compare(Task a, Task b) {
+			if (a == b) return 0;
+			int result = 0;
+			switch (this.order) {
+			case ORDER_CREATION: result = compareTime(a, b); break;
+			case ORDER_STATUS: result = STATUS_RANK[a.getStatus()] - STATUS_RANK[b.getStatus()]; break;
+			}
+			if (result == 0) result = a.getNameKey().compareTo(b.getNameKey());
+			if (result == 0) result = compareTime(a, b);
+			if (result == 0) {
+				int hashA = System.identityHashCode(a), hashB = System.identityHashCode(b);
+				result = (hashA < hashB) ? -1 : (hashA == hashB) ? 0 : 1;
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/* StorageOptions.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The options of a task tree that affect how the tasks are written to disk. The options are read from the task tree
+ * meta data; the tasks written without a store, like the exported ones, use the defaults.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+class StorageOptions {
+	/** The meta data configuration variable of the on-disk layout of the tasks. */
+	public static final String META_FORMAT = "format";
+
+	/** The layout where each task is stored in a meta data file, a text file and an index of the children. */
+	public static final String FORMAT_FILE_SYSTEM = "fs";
+
+	/** The layout where each task is stored in a single record file. */
+	public static final String FORMAT_RECORD = "rec";
+
+	/** The meta data configuration variable that enables saving the text changes as deltas. */
+	public static final String META_DELTA_TEXT = "deltaText";
+
+	/** The meta data configuration variable that enables compressing the text files. */
+	public static final String META_COMPRESS_TEXT = "compressText";
+
+	/** The meta data configuration variable that enables storing the texts in the blob store. */
+	public static final String META_BLOB_TEXT = "blobText";
+
+	/** The default options: the tasks are written in the file system layout and the texts are written out in full. */
+	public static final StorageOptions DEFAULT = new StorageOptions(null, null, null);
+
+	/** Tells whether the tasks are written as single record files. */
+	private final boolean records;
+
+	/** Tells whether the text changes are appended to the delta log instead of rewriting the text. */
+	private final boolean deltaText;
+
+	/** Tells whether the text files are compressed. */
+	private final boolean compressText;
+
+	/** The store of the texts or null if the texts are stored in the task directories. */
+	private final BlobStore blobs;
+
+	/** Runs the compaction of the delta logs; null to compact as part of the save. */
+	private final Executor background;
+
+	/**
+	 * Reads the options from the task tree meta data.
+	 * @param conf the meta data or null for the defaults
+	 * @param background the executor that runs the background work or null to do it immediately
+	 * @param blobs the blob store of the tree or null if there is none
+	 */
+	public StorageOptions(Configuration conf, Executor background, BlobStore blobs) {
+		this.records = (conf != null) && FORMAT_RECORD.equals(conf.get(META_FORMAT));
+		this.deltaText = (conf != null) && "true".equals(conf.get(META_DELTA_TEXT));
+		this.compressText = (conf != null) && "true".equals(conf.get(META_COMPRESS_TEXT));
+		this.blobs = (conf != null && "true".equals(conf.get(META_BLOB_TEXT))) ? blobs : null;
+		this.background = background;
+	}
+
+	/**
+	 * Tells whether the tasks are written as single record files instead of the three files of the file system
+	 * layout. Both layouts are recognised when the tasks are read.
+	 * @return true if the tasks are written as records, false if they are written in the file system layout
+	 */
+	public boolean isRecordFormat() {
+		return this.records;
+	}
+
+	/**
+	 * Tells whether the text changes are saved as deltas. The records are always written whole, so the option has no
+	 * effect on them.
+	 * @return true if the changes are appended to the delta log, false if the texts are written out in full
+	 */
+	public boolean isDeltaText() {
+		return this.deltaText;
+	}
+
+	/**
+	 * Tells whether the text files are compressed. The compressed files are recognised when they are read, so the
+	 * option can be changed at any time.
+	 * @return true if the text files are written compressed, false if they are written as plain text
+	 */
+	public boolean isCompressText() {
+		return this.compressText;
+	}
+
+	/**
+	 * Returns the blob store where the texts are written, if the texts are stored as blobs.
+	 * @return the blob store or null if the texts are written to the task directories
+	 */
+	public BlobStore getBlobs() {
+		return this.blobs;
+	}
+
+	/**
+	 * Runs a piece of background work, or runs it immediately if there is no background executor or the executor
+	 * has been shut down.
+	 * @param work the work to run
+	 */
+	public void runInBackground(Runnable work) {
+		if (this.background != null) {
+			try {
+				this.background.execute(work);
+				return;
+			} catch (RejectedExecutionException e) { /* shut down; run it now */ }
+		}
+		work.run();
+	}
+}
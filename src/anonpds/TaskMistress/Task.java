@@ -9,6 +9,8 @@
 
 package anonpds.TaskMistress;
 
+import java.text.CollationKey;
+import java.text.Collator;
 import java.util.Vector;
 
 import javax.swing.tree.DefaultMutableTreeNode;
@@ -29,8 +31,38 @@ class Task extends DefaultMutableTreeNode {
 	/** The status code for task that doesn't have done/undone status. */
 	public static final short STATUS_DEFAULT = 3;
 
+	/** Names of the task statuses, indexed by the status code. */
+	private static final String[] STATUS_NAMES = { null, "done", "undone", "default" };
+
+	/** Observer event of an attached task. */
+	private static final int ADDED = 0;
+
+	/** Observer event of a task about to be detached. */
+	private static final int REMOVED = 1;
+
+	/** Observer event of a changed task. */
+	private static final int CHANGED = 2;
+
+	/** The collator of the task names; used only from the thread that modifies the tree. */
+	private static final Collator COLLATOR = Collator.getInstance();
+
+	/**
+	 * The estimated heap size of a task without its strings and text, in bytes: the task object, the fields of the
+	 * tree node and of the task implementation and the reference to it in the child list of the parent.
+	 */
+	private static final int NODE_BYTES = 160;
+
+	/** The estimated heap size of a String object and its character array without the characters, in bytes. */
+	private static final int STRING_BYTES = 40;
+
+	/** The estimated heap size of a PackedText object and its byte array without the data, in bytes. */
+	private static final int PACKED_TEXT_BYTES = 40;
+
 	/** Tells whether the task has changed since last write to disk. */
 	private boolean dirty;
+
+	/** The number of times the node has been set dirty. */
+	private int version;
 	
 	/** The name of the task. */
 	private String name;
@@ -48,11 +80,50 @@ class Task extends DefaultMutableTreeNode {
 	/** The time stamp of the task creation. */
 	private long timeStamp;
 
-	/** The text of the task. */
-	private String text;
+	/** The text of the task; a String, or a PackedText if the text is not in use. */
+	private Object text;
 
 	/** The status of the task; done, undone or default. */
 	private short status;
+
+	/** The number of children that are done. */
+	private int doneChildren;
+
+	/** The number of children that are undone. */
+	private int undoneChildren;
+
+	/** Cached snapshot of the task and its sub-tree; null if the task or its sub-tree has changed since. */
+	private TaskSnapshot snapshot;
+
+	/** The observers of the tree; kept by the root task only, null if the tree has none. */
+	private Vector<TaskObserver> observers;
+
+	/** The id of the task in the index of the tree or -1 if the task is not indexed. */
+	private int indexId = -1;
+
+	/** The collation key of the name, for sorting the tasks by name; null until needed and after a rename. */
+	private CollationKey nameKey;
+
+	/** The number of tasks in the sub-tree of the task, the task itself included. */
+	private int subtreeTasks = 1;
+
+	/** The number of dirty tasks in the sub-tree of the task. */
+	private int subtreeDirty;
+
+	/** The number of tasks in the sub-tree of the task whose text is held unpacked. */
+	private int subtreeUnpacked;
+
+	/** The number of tasks in the sub-tree of the task whose text is held packed. */
+	private int subtreePacked;
+
+	/** The estimated heap size of the task itself, in bytes; see estimateBytes(). */
+	private int bytes;
+
+	/** The estimated heap size of the sub-tree of the task, in bytes. */
+	private long subtreeBytes;
+
+	/** Tells whether the sub-tree of the task is included in the sub-tree counts of its parent. */
+	private boolean counted;
 	
 	/** Constructs an empty task without a parent. Useful as a root node of a Task tree. */
 	public Task() {
@@ -82,6 +153,10 @@ class Task extends DefaultMutableTreeNode {
 		this.timeStamp = timeStamp;
 		this.dirty = dirty;
 		this.status = STATUS_DEFAULT;
+		this.subtreeDirty = dirty ? 1 : 0;
+		this.subtreeUnpacked = (text != null) ? 1 : 0;
+		this.bytes = this.estimateBytes();
+		this.subtreeBytes = this.bytes;
 		
 		this.setPlainName();
 	}
@@ -95,6 +170,203 @@ class Task extends DefaultMutableTreeNode {
 		super.setParent(parent);
 		this.setPlainName();
 	}
+
+	/**
+	 * Override the insert method to invalidate the snapshot of the task, to count the status and the sub-tree of the
+	 * child and to inform the observers of the tree when a child is added.
+	 * @param child the child to insert
+	 * @param index the index to insert the child at
+	 */
+	@Override
+	public void insert(MutableTreeNode child, int index) {
+		super.insert(child, index);
+		if (child instanceof Task) {
+			Task task = (Task) child;
+			this.countChild(task.status, 1);
+			this.addToSubtree(task.subtreeTasks, task.subtreeDirty, task.subtreeUnpacked, task.subtreePacked,
+			                  task.subtreeBytes);
+			task.counted = true;
+		}
+		this.invalidateSnapshot();
+		if (child instanceof Task) ((Task) child).fire(ADDED);
+	}
+
+	/**
+	 * Override the remove method to invalidate the snapshot of the task, to count the status and the sub-tree of the
+	 * child and to inform the observers of the tree when a child is removed.
+	 * @param index the index of the child to remove
+	 */
+	@Override
+	public void remove(int index) {
+		Object child = this.getChildAt(index);
+		if (child instanceof Task) {
+			Task task = (Task) child;
+			task.fire(REMOVED);
+			this.countChild(task.status, -1);
+			this.addToSubtree(-task.subtreeTasks, -task.subtreeDirty, -task.subtreeUnpacked, -task.subtreePacked,
+			                  -task.subtreeBytes);
+			task.counted = false;
+		}
+		super.remove(index);
+		this.invalidateSnapshot();
+	}
+
+	/**
+	 * Adds an observer of the changes to the tree. Must be called on the root task.
+	 * @param observer the observer to add
+	 */
+	void addObserver(TaskObserver observer) {
+		if (this.observers == null) this.observers = new Vector<TaskObserver>();
+		this.observers.add(observer);
+	}
+
+	/**
+	 * Removes an observer of the changes to the tree.
+	 * @param observer the observer to remove
+	 */
+	void removeObserver(TaskObserver observer) {
+		if (this.observers == null) return;
+		this.observers.remove(observer);
+		if (this.observers.isEmpty()) this.observers = null;
+	}
+
+	/**
+	 * Informs the observers of the tree the task is attached to of a change to the task.
+	 * @param type the type of the change
+	 */
+	private void fire(int type) {
+		Vector<TaskObserver> observers = ((Task) this.getRoot()).observers;
+		if (observers == null) return;
+		for (int i = observers.size() - 1; i >= 0; i--) {
+			TaskObserver observer = observers.get(i);
+			switch (type) {
+			case ADDED: observer.taskAdded(this); break;
+			case REMOVED: observer.taskRemoved(this); break;
+			case CHANGED: observer.taskChanged(this); break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the id of the task in the index of the tree.
+	 * @return the id or -1 if the task is not indexed
+	 */
+	int getIndexId() {
+		return this.indexId;
+	}
+
+	/**
+	 * Sets the id of the task in the index of the tree.
+	 * @param indexId the id or -1 if the task is no longer indexed
+	 */
+	void setIndexId(int indexId) {
+		this.indexId = indexId;
+	}
+
+	/**
+	 * Updates the counts of done and undone children.
+	 * @param status the status of a child
+	 * @param delta 1 if a child of the status was added, -1 if one was removed
+	 */
+	private void countChild(short status, int delta) {
+		if (status == STATUS_DONE) this.doneChildren += delta;
+		else if (status == STATUS_UNDONE) this.undoneChildren += delta;
+	}
+
+	/**
+	 * Adds to the counts of the sub-tree of the task and of the sub-trees of all its ancestors. The walk stops at a
+	 * task that is not counted in its parent, which is the case while the task is being inserted or removed: the
+	 * changes made then, such as a new plain name, are included in the counts the parent adds or subtracts.
+	 * @param tasks the change in the number of tasks
+	 * @param dirty the change in the number of dirty tasks
+	 * @param unpacked the change in the number of unpacked texts
+	 * @param packed the change in the number of packed texts
+	 * @param bytes the change in the estimated heap size
+	 */
+	private void addToSubtree(int tasks, int dirty, int unpacked, int packed, long bytes) {
+		for (Task task = this; task != null; task = task.counted ? (Task) task.getParent() : null) {
+			task.subtreeTasks += tasks;
+			task.subtreeDirty += dirty;
+			task.subtreeUnpacked += unpacked;
+			task.subtreePacked += packed;
+			task.subtreeBytes += bytes;
+		}
+	}
+
+	/**
+	 * Estimates the heap size of the task itself: the node, the name and plain name and the text as it is held in
+	 * memory. The collation key, the snapshot and the state kept for saving are not included; a text shared by copied
+	 * tasks is counted for each of them.
+	 * @return the estimated size in bytes
+	 */
+	private int estimateBytes() {
+		int bytes = NODE_BYTES + stringBytes(this.name) + stringBytes(this.plainName);
+		if (this.text instanceof PackedText) bytes += PACKED_TEXT_BYTES + ((PackedText) this.text).getPackedSize();
+		else if (this.text != null) bytes += stringBytes((String) this.text);
+		return bytes;
+	}
+
+	/**
+	 * Estimates the heap size of a string.
+	 * @param string the string; may be null
+	 * @return the estimated size in bytes
+	 */
+	private static int stringBytes(String string) {
+		return (string == null) ? 0 : STRING_BYTES + 2 * string.length();
+	}
+
+	/** Updates the estimated heap size of the task and of its sub-trees after the name, plain name or text changed. */
+	private void updateBytes() {
+		int bytes = this.estimateBytes();
+		if (bytes == this.bytes) return;
+		int delta = bytes - this.bytes;
+		this.bytes = bytes;
+		this.addToSubtree(0, 0, 0, 0, delta);
+	}
+
+	/**
+	 * Returns the number of dirty tasks in the sub-tree of the task, the task itself included.
+	 * @return the number of dirty tasks
+	 */
+	int getSubtreeDirty() {
+		return this.subtreeDirty;
+	}
+
+	/**
+	 * Returns the number of tasks in the sub-tree of the task whose text is held unpacked in memory.
+	 * @return the number of unpacked texts
+	 */
+	int getSubtreeUnpacked() {
+		return this.subtreeUnpacked;
+	}
+
+	/**
+	 * Returns the number of tasks in the sub-tree of the task whose text is held packed in memory.
+	 * @return the number of packed texts
+	 */
+	int getSubtreePacked() {
+		return this.subtreePacked;
+	}
+
+	/**
+	 * Returns the estimated heap size of the sub-tree of the task; see estimateBytes().
+	 * @return the estimated size in bytes
+	 */
+	long getSubtreeBytes() {
+		return this.subtreeBytes;
+	}
+
+	/**
+	 * Returns the status derived from the children of the task: undone if any child is undone, done if all the
+	 * children are done and default otherwise. A task without children keeps its own status.
+	 * @return the derived status
+	 */
+	public short getDerivedStatus() {
+		if (this.getChildCount() == 0) return this.status;
+		if (this.undoneChildren > 0) return STATUS_UNDONE;
+		if (this.doneChildren == this.getChildCount()) return STATUS_DONE;
+		return STATUS_DEFAULT;
+	}
 	
 	/**
 	 * Sets the plain name of a task. The plain name is a name with all the non-ASCII characters stripped out, all
@@ -122,6 +394,8 @@ class Task extends DefaultMutableTreeNode {
 		if (plainName.length() > 0) {
 			if (!this.isPlainNameUsed(plainName)) {
 				this.plainName = plainName;
+				this.invalidateSnapshot();
+				this.updateBytes();
 				return;
 			}
 			/* if no duplicate found, use the name as is */
@@ -145,6 +419,8 @@ class Task extends DefaultMutableTreeNode {
 			/* see if the new name is unique */
 			if (!this.isPlainNameUsed(newName)) {
 				this.plainName = newName;
+				this.invalidateSnapshot();
+				this.updateBytes();
 				return;
 			}
 		}
@@ -156,6 +432,8 @@ class Task extends DefaultMutableTreeNode {
 	 */
 	public void setPlainName(String plainName) {
 		this.plainName = plainName;
+		this.invalidateSnapshot();
+		this.updateBytes();
 		this.setPlainName(); /* make sure the name is unique */
 	}
 
@@ -188,7 +466,18 @@ class Task extends DefaultMutableTreeNode {
 	 * @param dirty true to set the node dirty, false for non-dirty
 	 */
 	public void setDirty(boolean dirty) {
+		if (dirty != this.dirty) this.addToSubtree(0, dirty ? 1 : -1, 0, 0, 0);
 		this.dirty = dirty;
+		if (dirty) this.version++;
+	}
+
+	/**
+	 * Returns the version of the node; the version changes every time the node is set dirty. Tells a background save
+	 * whether the node was changed again while it was being written.
+	 * @return the version of the node
+	 */
+	public int getVersion() {
+		return this.version;
 	}
 
 	/**
@@ -205,6 +494,8 @@ class Task extends DefaultMutableTreeNode {
 	 */
 	public void setCreationTime(long timeStamp) {
 		this.timeStamp = timeStamp;
+		this.invalidateSnapshot();
+		this.fire(CHANGED);
 	}
 
 	/**
@@ -215,9 +506,13 @@ class Task extends DefaultMutableTreeNode {
 		if (this.name == name) return;
 		
 		if (name == null || this.name == null || (this.name != null && name.compareTo(this.name) != 0)) {
-			this.dirty = true;
+			this.setDirty(true);
 			this.name = name;
+			this.nameKey = null;
+			this.invalidateSnapshot(); /* the plain name may stay the same, as on a change of case */
+			this.updateBytes();
 			this.setPlainName(); /* update the plain name */
+			this.fire(CHANGED);
 		}
 	}
 
@@ -229,6 +524,16 @@ class Task extends DefaultMutableTreeNode {
 		return this.name;
 	}
 	
+	/**
+	 * Returns the collation key of the name of the node, for sorting the nodes by name in the order of the current
+	 * locale. The key is computed once and kept until the node is renamed.
+	 * @return the collation key of the name
+	 */
+	CollationKey getNameKey() {
+		if (this.nameKey == null) this.nameKey = COLLATOR.getCollationKey((this.name == null) ? "" : this.name);
+		return this.nameKey;
+	}
+
 	/**
 	 * Returns the plain name of the node.
 	 * @return the plain name of the node
@@ -266,7 +571,8 @@ class Task extends DefaultMutableTreeNode {
 	 * @return the text of the node
 	 */
 	public String getText() {
-		return this.text;
+		if (this.text instanceof PackedText) return ((PackedText) this.text).unpack();
+		return (String) this.text;
 	}
 
 	/**
@@ -276,11 +582,70 @@ class Task extends DefaultMutableTreeNode {
 	public void setText(String text) {
 		if (this.text == text) return;
 		
-		if (text == null || this.text == null || (this.text != null && text.compareTo(this.text) != 0)) {
-			this.dirty = true;
-			this.text = text;
+		String old = this.getText();
+		if (text == null || old == null || (old != null && text.compareTo(old) != 0)) {
+			this.setDirty(true);
+			this.storeText(text);
+			this.invalidateSnapshot();
+			this.fire(CHANGED);
 		}
 	}
+
+	/**
+	 * Returns the text of the node as it is stored: a String or a PackedText.
+	 * @return the stored text
+	 */
+	Object getRawText() {
+		return this.text;
+	}
+
+	/**
+	 * Sets the text of the node as it is stored, without setting the node dirty; used when the text is loaded.
+	 * @param text the text as a String or a PackedText
+	 */
+	void setRawText(Object text) {
+		this.storeText(text);
+		this.invalidateSnapshot();
+		this.fire(CHANGED);
+	}
+
+	/**
+	 * Packs the text of the node to save memory. Short texts and texts that do not compress are left as they are.
+	 * @return true if the text was packed, false if not
+	 */
+	public boolean packText() {
+		if (!(this.text instanceof String)) return false;
+		Object packed = PackedText.pack((String) this.text);
+		if (packed == this.text) return false;
+
+		/* the cached snapshots hold the unpacked text */
+		this.storeText(packed);
+		this.invalidateSnapshot();
+		return true;
+	}
+
+	/**
+	 * Unpacks the text of the node, if it is packed.
+	 * @return true if the text was unpacked, false if it was not packed
+	 */
+	public boolean unpackText() {
+		if (!(this.text instanceof PackedText)) return false;
+		this.storeText(((PackedText) this.text).unpack());
+		return true;
+	}
+
+	/**
+	 * Stores the text of the node and updates the counts of the unpacked and packed texts and the estimated heap
+	 * size of the sub-trees.
+	 * @param text the text as a String, a PackedText or null
+	 */
+	private void storeText(Object text) {
+		int unpacked = ((text instanceof String) ? 1 : 0) - ((this.text instanceof String) ? 1 : 0);
+		int packed = ((text instanceof PackedText) ? 1 : 0) - ((this.text instanceof PackedText) ? 1 : 0);
+		this.text = text;
+		if (unpacked != 0 || packed != 0) this.addToSubtree(0, 0, unpacked, packed, 0);
+		this.updateBytes();
+	}
 	
 	/**
 	 * Returns the status of the task.
@@ -300,10 +665,88 @@ class Task extends DefaultMutableTreeNode {
 			throw new Exception("Bad status");
 		if (status == this.status) return; /* no change */
 
+		/* update the counts of the parent */
+		if (this.parent instanceof Task) {
+			((Task) this.parent).countChild(this.status, -1);
+			((Task) this.parent).countChild(status, 1);
+		}
+
 		this.status = status;
 		this.setDirty(true);
+		this.invalidateSnapshot();
+		this.fire(CHANGED);
 	}
 	
+	/**
+	 * Copies the name, plain name, text, creation time and status of another task. The text is shared with the other
+	 * task, not duplicated. The copied task is set dirty.
+	 * @param source the task to copy
+	 */
+	protected void copyFrom(Task source) {
+		this.name = source.name;
+		this.nameKey = source.nameKey;
+		this.plainName = source.plainName;
+		this.storeText(source.text); /* also updates the estimated size for the new name */
+		this.timeStamp = source.timeStamp;
+		if (this.parent instanceof Task) {
+			((Task) this.parent).countChild(this.status, -1);
+			((Task) this.parent).countChild(source.status, 1);
+		}
+		this.status = source.status;
+		this.setDirty(true);
+		this.invalidateSnapshot();
+		this.fire(CHANGED);
+	}
+
+	/**
+	 * Returns the name of a status code, as used in exported and imported files.
+	 * @param status the status code
+	 * @return the name of the status
+	 * @throws IllegalArgumentException if the status code is illegal
+	 */
+	public static String statusName(short status) {
+		if (status != STATUS_DONE && status != STATUS_UNDONE && status != STATUS_DEFAULT)
+			throw new IllegalArgumentException("Bad status " + status);
+		return STATUS_NAMES[status];
+	}
+
+	/**
+	 * Parses a status name returned by statusName(). The comparison is case-insensitive.
+	 * @param name the name of the status
+	 * @return the status code
+	 * @throws Exception if the name is not a status name
+	 */
+	public static short parseStatus(String name) throws Exception {
+		for (short i = STATUS_DONE; i <= STATUS_DEFAULT; i++)
+			if (STATUS_NAMES[i].equalsIgnoreCase(name)) return i;
+		throw new Exception("Bad status '" + name + "'");
+	}
+
+	/**
+	 * Returns an immutable snapshot of the task and its sub-tree. The snapshot is cached until the task or one of its
+	 * descendants changes, so only the changed parts of the tree are copied when a new snapshot is taken; unchanged
+	 * sub-trees are shared with the previous snapshot. Must be called from the thread that modifies the tree, but the
+	 * returned snapshot can be read from any thread.
+	 * @return the snapshot of the task
+	 */
+	public TaskSnapshot getSnapshot() {
+		if (this.snapshot == null) {
+			TaskSnapshot[] children = new TaskSnapshot[this.getChildCount()];
+			for (int i = 0; i < children.length; i++) children[i] = ((Task) this.getChildAt(i)).getSnapshot();
+			this.snapshot = new TaskSnapshot(this.name, this.plainName, this.text, this.timeStamp, this.status, children);
+		}
+		return this.snapshot;
+	}
+
+	/**
+	 * Invalidates the cached snapshot of the task and all its ancestors. If a task has a cached snapshot, so do all
+	 * of its descendants, which means that the invalidation can stop at the first ancestor without a snapshot.
+	 */
+	protected void invalidateSnapshot() {
+		for (Task task = this; task != null && task.snapshot != null; task = (Task) task.getParent())
+			task.snapshot = null;
+	}
+
 	/**
 	 * Returns the string representation of this object.
 	 * @return the string
@@ -313,16 +756,12 @@ class Task extends DefaultMutableTreeNode {
 	}
 
 	/**
-	 * Counts the nodes in the tree.
+	 * Counts the nodes in the tree. The count is kept up to date as the tree changes, so this does not traverse the
+	 * tree.
 	 * @return the total number of nodes in the tree
 	 */
 	public int countNodes() {
-		int nodes = 1;
-		for (int i = 0; i < this.getChildCount(); i++) {
-			Task node = (Task) this.getChildAt(i);
-			nodes += node.countNodes();
-		}
-		return(nodes);
+		return this.subtreeTasks;
 	}
 	
 	/** Sets all the nodes in the tree dirty. */
@@ -0,0 +1,387 @@
+/* TaskArena.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.util.Arrays;
+
+/**
+ * A compact storage engine for very large task trees.
+ *
+ * Instead of one Task object per task, the arena keeps the tree structure and the scalar fields of the tasks in
+ * primitive arrays indexed by a task id. The children of a task are linked through the first child and next sibling
+ * arrays, and each task keeps its index among its siblings, so the index of a child is found without walking the
+ * siblings. The names of all tasks are stored in a single character pool; the texts are kept as references, so the
+ * packed texts stay packed. A task takes roughly 60 bytes in the arena, plus its name, where a Task object with its
+ * Vector of children and separate strings takes several hundred.
+ *
+ * The ids of removed tasks are not reused and the characters of old names are not reclaimed, so an arena with many
+ * changes should be reloaded now and then. The arena is not thread safe.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+public class TaskArena {
+	/** The id that represents no task. */
+	public static final int NONE = -1;
+
+	/** The initial capacity of an arena, in tasks. */
+	private static final int DEFAULT_CAPACITY = 64;
+
+	/** The number of tasks allocated in the arena. */
+	private int size;
+
+	/** The parent of each task. */
+	private int[] parent;
+
+	/** The first child of each task. */
+	private int[] firstChild;
+
+	/** The last child of each task; used for appending children. */
+	private int[] lastChild;
+
+	/** The next sibling of each task. */
+	private int[] nextSibling;
+
+	/** The previous sibling of each task; used for unlinking removed tasks. */
+	private int[] prevSibling;
+
+	/** The index of each task among the children of its parent. */
+	private int[] childIndex;
+
+	/** The number of children of each task. */
+	private int[] childCount;
+
+	/** The status of each task. */
+	private byte[] status;
+
+	/** The creation time of each task. */
+	private long[] timeStamp;
+
+	/** The offset of the name of each task in the name pool. */
+	private int[] nameOffset;
+
+	/** The length of the name of each task. */
+	private int[] nameLength;
+
+	/** The texts of the tasks as Strings or PackedTexts; null for empty text. */
+	private Object[] text;
+
+	/** The characters of the task names. */
+	private char[] names;
+
+	/** The number of characters used in the name pool. */
+	private int namesLength;
+
+	/** The task looked up last by getChild(); makes iterating the children in order fast. */
+	private int lastParent = NONE, lastIndex, lastChildId;
+
+	/**
+	 * Constructs an arena with a root task that has no name.
+	 * @param capacity the number of tasks to allocate space for
+	 */
+	public TaskArena(int capacity) {
+		if (capacity < 1) capacity = 1;
+		this.parent = new int[capacity];
+		this.firstChild = new int[capacity];
+		this.lastChild = new int[capacity];
+		this.nextSibling = new int[capacity];
+		this.prevSibling = new int[capacity];
+		this.childIndex = new int[capacity];
+		this.childCount = new int[capacity];
+		this.status = new byte[capacity];
+		this.timeStamp = new long[capacity];
+		this.nameOffset = new int[capacity];
+		this.nameLength = new int[capacity];
+		this.text = new Object[capacity];
+		this.names = new char[capacity * 8];
+
+		this.allocate(NONE, null, null, 0, Task.STATUS_DEFAULT);
+	}
+
+	/** Constructs an arena with a root task that has no name. */
+	public TaskArena() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Returns the id of the root task.
+	 * @return the root task id
+	 */
+	public int getRoot() {
+		return 0;
+	}
+
+	/**
+	 * Returns the number of task ids allocated in the arena, including the removed tasks.
+	 * @return the number of allocated ids
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Adds a new task as the last child of a task.
+	 * @param parent the parent task
+	 * @param name the name of the new task
+	 * @param text the text of the new task
+	 * @param timeStamp the creation time of the new task
+	 * @param status the status of the new task
+	 * @return the id of the new task
+	 */
+	public int add(int parent, String name, String text, long timeStamp, short status) {
+		int id = this.allocate(parent, name, text, timeStamp, status);
+
+		/* link the task as the last child of the parent */
+		if (this.lastChild[parent] == NONE) this.firstChild[parent] = id;
+		else this.nextSibling[this.lastChild[parent]] = id;
+		this.prevSibling[id] = this.lastChild[parent];
+		this.childIndex[id] = this.childCount[parent];
+		this.lastChild[parent] = id;
+		this.childCount[parent]++;
+
+		return id;
+	}
+
+	/**
+	 * Removes a task and its children from the tree. The task is unlinked in constant time, but the indices of the
+	 * siblings after it are updated one by one.
+	 * @param id the task to remove
+	 */
+	public void remove(int id) {
+		int parent = this.parent[id];
+		if (parent == NONE) return; /* never remove the root */
+
+		/* unlink the task */
+		int prev = this.prevSibling[id], next = this.nextSibling[id];
+		if (prev == NONE) this.firstChild[parent] = next;
+		else this.nextSibling[prev] = next;
+		if (next == NONE) this.lastChild[parent] = prev;
+		else this.prevSibling[next] = prev;
+		this.childCount[parent]--;
+		for (int child = next; child != NONE; child = this.nextSibling[child]) this.childIndex[child]--;
+
+		this.parent[id] = NONE;
+		this.nextSibling[id] = NONE;
+		this.prevSibling[id] = NONE;
+		this.lastParent = NONE;
+	}
+
+	/**
+	 * Returns the parent of a task.
+	 * @param id the task
+	 * @return the parent task or NONE for the root and the removed tasks
+	 */
+	public int getParent(int id) {
+		return this.parent[id];
+	}
+
+	/**
+	 * Returns the first child of a task.
+	 * @param id the task
+	 * @return the first child or NONE if the task has no children
+	 */
+	public int getFirstChild(int id) {
+		return this.firstChild[id];
+	}
+
+	/**
+	 * Returns the next sibling of a task.
+	 * @param id the task
+	 * @return the next sibling or NONE if the task is the last child of its parent
+	 */
+	public int getNextSibling(int id) {
+		return this.nextSibling[id];
+	}
+
+	/**
+	 * Returns the number of children of a task.
+	 * @param id the task
+	 * @return the number of children
+	 */
+	public int getChildCount(int id) {
+		return this.childCount[id];
+	}
+
+	/**
+	 * Returns a child of a task. Looking up the children in order takes constant time for each child, other lookups
+	 * take time in proportion to the index.
+	 * @param id the task
+	 * @param index the index of the child
+	 * @return the child or NONE if the index is out of range
+	 */
+	public int getChild(int id, int index) {
+		if (index < 0 || index >= this.childCount[id]) return NONE;
+
+		/* continue from the previous lookup, if possible */
+		int child = this.firstChild[id], i = 0;
+		if (this.lastParent == id && this.lastIndex <= index) {
+			child = this.lastChildId;
+			i = this.lastIndex;
+		}
+		for (; i < index; i++) child = this.nextSibling[child];
+
+		this.lastParent = id;
+		this.lastIndex = index;
+		this.lastChildId = child;
+		return child;
+	}
+
+	/**
+	 * Returns the index of a child of a task.
+	 * @param id the task
+	 * @param child the child
+	 * @return the index of the child or -1 if it is not a child of the task
+	 */
+	public int getIndex(int id, int child) {
+		if (child < 0 || child >= this.size || this.parent[child] != id) return -1;
+		return this.childIndex[child];
+	}
+
+	/**
+	 * Returns the name of a task.
+	 * @param id the task
+	 * @return the name of the task
+	 */
+	public String getName(int id) {
+		if (this.nameOffset[id] < 0) return null;
+		return new String(this.names, this.nameOffset[id], this.nameLength[id]);
+	}
+
+	/**
+	 * Sets the name of a task.
+	 * @param id the task
+	 * @param name the new name
+	 */
+	public void setName(int id, String name) {
+		if (name == null) {
+			this.nameOffset[id] = -1;
+			this.nameLength[id] = 0;
+			return;
+		}
+
+		/* append the name to the pool, growing it if needed */
+		if (this.namesLength + name.length() > this.names.length)
+			this.names = Arrays.copyOf(this.names, Math.max(this.names.length * 2, this.namesLength + name.length()));
+		name.getChars(0, name.length(), this.names, this.namesLength);
+		this.nameOffset[id] = this.namesLength;
+		this.nameLength[id] = name.length();
+		this.namesLength += name.length();
+	}
+
+	/**
+	 * Returns the text of a task.
+	 * @param id the task
+	 * @return the text of the task
+	 */
+	public String getText(int id) {
+		if (this.text[id] instanceof PackedText) return ((PackedText) this.text[id]).unpack();
+		return (this.text[id] == null) ? "" : (String) this.text[id];
+	}
+
+	/**
+	 * Sets the text of a task.
+	 * @param id the task
+	 * @param text the new text
+	 */
+	public void setText(int id, String text) {
+		this.text[id] = (text == null || text.length() == 0) ? null : text;
+	}
+
+	/**
+	 * Sets the text of a task as it is held in memory; used when a tree is loaded, so the packed texts stay packed.
+	 * @param id the task
+	 * @param text the text as a String or a PackedText
+	 */
+	void setRawText(int id, Object text) {
+		this.text[id] = text;
+	}
+
+	/**
+	 * Returns the creation time of a task.
+	 * @param id the task
+	 * @return the creation time stamp
+	 */
+	public long getCreationTime(int id) {
+		return this.timeStamp[id];
+	}
+
+	/**
+	 * Returns the status of a task.
+	 * @param id the task
+	 * @return the status of the task
+	 */
+	public short getStatus(int id) {
+		return this.status[id];
+	}
+
+	/**
+	 * Sets the status of a task.
+	 * @param id the task
+	 * @param status the new status
+	 */
+	public void setStatus(int id, short status) {
+		Task.statusName(status); /* throws on invalid status */
+		this.status[id] = (byte) status;
+	}
+
+	/**
+	 * Estimates the heap used by the arena, not counting the texts that may be shared with other objects.
+	 * @return the estimated size in bytes
+	 */
+	public long estimateSize() {
+		long capacity = this.parent.length;
+		return capacity * (7 * 4 + 1 + 8 + 2 * 4 + 8) + this.names.length * 2;
+	}
+
+	/**
+	 * Allocates a new task id, growing the arrays if needed.
+	 * @param parent the parent of the task
+	 * @param name the name of the task
+	 * @param text the text of the task
+	 * @param timeStamp the creation time of the task
+	 * @param status the status of the task
+	 * @return the new id
+	 */
+	private int allocate(int parent, String name, String text, long timeStamp, short status) {
+		if (this.size == this.parent.length) this.grow(this.size * 2);
+
+		int id = this.size++;
+		this.parent[id] = parent;
+		this.firstChild[id] = NONE;
+		this.lastChild[id] = NONE;
+		this.nextSibling[id] = NONE;
+		this.prevSibling[id] = NONE;
+		this.childIndex[id] = 0;
+		this.childCount[id] = 0;
+		this.timeStamp[id] = timeStamp;
+		this.setStatus(id, status);
+		this.setName(id, name);
+		this.setText(id, text);
+		return id;
+	}
+
+	/**
+	 * Grows the arrays of the arena.
+	 * @param capacity the new capacity in tasks
+	 */
+	private void grow(int capacity) {
+		this.parent = Arrays.copyOf(this.parent, capacity);
+		this.firstChild = Arrays.copyOf(this.firstChild, capacity);
+		this.lastChild = Arrays.copyOf(this.lastChild, capacity);
+		this.nextSibling = Arrays.copyOf(this.nextSibling, capacity);
+		this.prevSibling = Arrays.copyOf(this.prevSibling, capacity);
+		this.childIndex = Arrays.copyOf(this.childIndex, capacity);
+		this.childCount = Arrays.copyOf(this.childCount, capacity);
+		this.status = Arrays.copyOf(this.status, capacity);
+		this.timeStamp = Arrays.copyOf(this.timeStamp, capacity);
+		this.nameOffset = Arrays.copyOf(this.nameOffset, capacity);
+		this.nameLength = Arrays.copyOf(this.nameLength, capacity);
+		this.text = Arrays.copyOf(this.text, capacity);
+	}
+}
@@ -0,0 +1,253 @@
+/* TaskArenaModel.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.util.Vector;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+/**
+ * A tree model that shows the tasks of a TaskArena in a JTree.
+ *
+ * The nodes of the model are small handles that only hold the id of the task; they are created when the tree asks for
+ * them and two handles of the same task are equal, so the tree keeps its expanded and selected state. The changes
+ * made through the model are reported to the listeners; changes made directly to the arena are not.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+public class TaskArenaModel implements TreeModel {
+	/** The arena that holds the tasks. */
+	private TaskArena arena;
+
+	/** The listeners of the model. */
+	private Vector<TreeModelListener> listeners = new Vector<TreeModelListener>();
+
+	/**
+	 * Constructs a model of an arena.
+	 * @param arena the arena to show
+	 */
+	public TaskArenaModel(TaskArena arena) {
+		this.arena = arena;
+	}
+
+	/**
+	 * Returns the arena of the model.
+	 * @return the arena
+	 */
+	public TaskArena getArena() {
+		return this.arena;
+	}
+
+	/**
+	 * Returns the node of a task.
+	 * @param id the id of the task
+	 * @return the node
+	 */
+	public Node getNode(int id) {
+		return new Node(this.arena, id);
+	}
+
+	/**
+	 * Returns the path from the root to a task.
+	 * @param id the id of the task
+	 * @return the path to the task
+	 */
+	public TreePath getPath(int id) {
+		int depth = 0;
+		for (int i = id; i != TaskArena.NONE; i = this.arena.getParent(i)) depth++;
+		Object[] path = new Object[depth];
+		for (int i = id; i != TaskArena.NONE; i = this.arena.getParent(i)) path[--depth] = this.getNode(i);
+		return new TreePath(path);
+	}
+
+	@Override
+	public Object getRoot() {
+		return this.getNode(this.arena.getRoot());
+	}
+
+	@Override
+	public Object getChild(Object parent, int index) {
+		int child = this.arena.getChild(((Node) parent).id, index);
+		return (child == TaskArena.NONE) ? null : this.getNode(child);
+	}
+
+	@Override
+	public int getChildCount(Object parent) {
+		return this.arena.getChildCount(((Node) parent).id);
+	}
+
+	@Override
+	public boolean isLeaf(Object node) {
+		return this.arena.getChildCount(((Node) node).id) == 0;
+	}
+
+	@Override
+	public int getIndexOfChild(Object parent, Object child) {
+		if (!(parent instanceof Node) || !(child instanceof Node)) return -1;
+		return this.arena.getIndex(((Node) parent).id, ((Node) child).id);
+	}
+
+	/**
+	 * Renames a task that was edited in the tree.
+	 * @param path the path of the edited task
+	 * @param newValue the new name of the task
+	 */
+	@Override
+	public void valueForPathChanged(TreePath path, Object newValue) {
+		Node node = (Node) path.getLastPathComponent();
+		this.arena.setName(node.id, newValue.toString());
+		this.fireChanged(node.id);
+	}
+
+	/**
+	 * Adds a new task as the last child of a task and informs the listeners.
+	 * @param parent the id of the parent task
+	 * @param name the name of the new task
+	 * @return the id of the new task
+	 */
+	public int add(int parent, String name) {
+		int id = this.arena.add(parent, name, null, System.currentTimeMillis(), Task.STATUS_DEFAULT);
+		int[] indices = { this.arena.getChildCount(parent) - 1 };
+		Object[] children = { this.getNode(id) };
+		TreeModelEvent event = new TreeModelEvent(this, this.getPath(parent), indices, children);
+		for (TreeModelListener listener : this.listeners) listener.treeNodesInserted(event);
+		return id;
+	}
+
+	/**
+	 * Removes a task and its children and informs the listeners.
+	 * @param id the id of the task to remove
+	 */
+	public void remove(int id) {
+		int parent = this.arena.getParent(id);
+		if (parent == TaskArena.NONE) return;
+
+		int[] indices = { this.arena.getIndex(parent, id) };
+		Object[] children = { this.getNode(id) };
+		TreeModelEvent event = new TreeModelEvent(this, this.getPath(parent), indices, children);
+		this.arena.remove(id);
+		for (TreeModelListener listener : this.listeners) listener.treeNodesRemoved(event);
+	}
+
+	/**
+	 * Sets the status of a task and informs the listeners.
+	 * @param id the id of the task
+	 * @param status the new status
+	 */
+	public void setStatus(int id, short status) {
+		this.arena.setStatus(id, status);
+		this.fireChanged(id);
+	}
+
+	/**
+	 * Informs the listeners of a changed task.
+	 * @param id the id of the changed task
+	 */
+	private void fireChanged(int id) {
+		TreeModelEvent event;
+		int parent = this.arena.getParent(id);
+		if (parent == TaskArena.NONE) {
+			event = new TreeModelEvent(this, this.getPath(id), null, null);
+		} else {
+			int[] indices = { this.arena.getIndex(parent, id) };
+			event = new TreeModelEvent(this, this.getPath(parent), indices, new Object[] { this.getNode(id) });
+		}
+		for (TreeModelListener listener : this.listeners) listener.treeNodesChanged(event);
+	}
+
+	@Override
+	public void addTreeModelListener(TreeModelListener listener) {
+		this.listeners.add(listener);
+	}
+
+	@Override
+	public void removeTreeModelListener(TreeModelListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	/**
+	 * A handle of a task in the arena.
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	public static class Node {
+		/** The arena of the task. */
+		private final TaskArena arena;
+
+		/** The id of the task. */
+		private final int id;
+
+		/**
+		 * Constructs a new handle.
+		 * @param arena the arena of the task
+		 * @param id the id of the task
+		 */
+		public Node(TaskArena arena, int id) {
+			this.arena = arena;
+			this.id = id;
+		}
+
+		/**
+		 * Returns the id of the task.
+		 * @return the task id
+		 */
+		public int getId() {
+			return this.id;
+		}
+
+		/**
+		 * Returns the status of the task.
+		 * @return the status of the task
+		 */
+		public short getStatus() {
+			return this.arena.getStatus(this.id);
+		}
+
+		/**
+		 * Returns the number of children of the task.
+		 * @return the number of children
+		 */
+		public int getChildCount() {
+			return this.arena.getChildCount(this.id);
+		}
+
+		/**
+		 * Tells whether another object is a handle of the same task.
+		 * @param o the object to compare to
+		 * @return true if the object is a handle of the same task, false if not
+		 */
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Node)) return false;
+			Node node = (Node) o;
+			return node.arena == this.arena && node.id == this.id;
+		}
+
+		/**
+		 * Returns the hash code of the handle.
+		 * @return the hash code
+		 */
+		@Override
+		public int hashCode() {
+			return this.id;
+		}
+
+		/**
+		 * Returns the name of the task; shown by the tree.
+		 * @return the name of the task
+		 */
+		@Override
+		public String toString() {
+			return this.arena.getName(this.id);
+		}
+	}
+}
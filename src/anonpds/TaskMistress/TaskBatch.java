@@ -0,0 +1,205 @@
+/* TaskBatch.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreeNode;
+
+/**
+ * Records the changes made to a task tree in a TaskStore batch.
+ *
+ * The changes to the tree are made immediately, but the tree model events and the file system changes are collected
+ * here. When the batch is committed, the file system changes are applied in the order they were made and the tree
+ * model is informed of the changes with as few events as possible. If any of the file system changes fails, the
+ * applied changes are undone and the tree is restored to the state it was in before the batch.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+class TaskBatch {
+	/** The undo steps of the changes made to the tree, in the order the changes were made. */
+	private Vector<Undo> undos = new Vector<Undo>();
+
+	/** The file system changes, in the order they were made. */
+	private Vector<DiskAction> actions = new Vector<DiskAction>();
+
+	/** The nodes whose children have changed. */
+	private Map<Task, Boolean> structureChanged = new IdentityHashMap<Task, Boolean>();
+
+	/** The nodes that have changed without changes to their children. */
+	private Map<Task, Boolean> changed = new IdentityHashMap<Task, Boolean>();
+
+	/** All the nodes touched by the batch; these are written out when the batch is committed. */
+	private Map<Task, Boolean> touched = new IdentityHashMap<Task, Boolean>();
+
+	/**
+	 * Records an undo step of a change made to the tree.
+	 * @param undo the undo step
+	 */
+	public void addUndo(Undo undo) {
+		this.undos.add(undo);
+	}
+
+	/**
+	 * Records a file system change to be made when the batch is committed.
+	 * @param action the file system change
+	 */
+	public void addDiskAction(DiskAction action) {
+		this.actions.add(action);
+	}
+
+	/**
+	 * Records a change to the children of a node.
+	 * @param node the node whose children have changed
+	 */
+	public void structureChanged(Task node) {
+		this.structureChanged.put(node, Boolean.TRUE);
+		this.touched.put(node, Boolean.TRUE);
+	}
+
+	/**
+	 * Records a change to a node.
+	 * @param node the changed node
+	 */
+	public void nodeChanged(Task node) {
+		this.changed.put(node, Boolean.TRUE);
+		this.touched.put(node, Boolean.TRUE);
+	}
+
+	/**
+	 * Records a node to be written out when the batch is committed, without any tree model events.
+	 * @param node the touched node
+	 */
+	public void touch(Task node) {
+		this.touched.put(node, Boolean.TRUE);
+	}
+
+	/**
+	 * Returns the nodes touched by the batch.
+	 * @return the touched nodes
+	 */
+	public Task[] getTouched() {
+		return this.touched.keySet().toArray(new Task[0]);
+	}
+
+	/**
+	 * Applies the file system changes in order. If one of them fails, the already applied changes are undone in
+	 * reverse order.
+	 * @throws Exception if one of the changes failed
+	 */
+	public void apply() throws Exception {
+		for (int i = 0; i < this.actions.size(); i++) {
+			try {
+				this.actions.get(i).apply();
+			} catch (Exception e) {
+				for (int j = i - 1; j >= 0; j--) {
+					try { this.actions.get(j).undo(); } catch (Exception e2) {
+						Debugger.addMessage("TaskBatch.apply: undo failed: " + e2.getMessage());
+					}
+				}
+				throw e;
+			}
+		}
+	}
+
+	/** Finishes the file system changes after all of them have been applied successfully. */
+	public void finish() {
+		for (DiskAction action : this.actions) action.finish();
+	}
+
+	/** Undoes the changes made to the tree in reverse order. */
+	public void undo() {
+		for (int i = this.undos.size() - 1; i >= 0; i--) this.undos.get(i).undo();
+	}
+
+	/**
+	 * Informs a tree model of the changes made in the batch. A structure change event is sent for each topmost node
+	 * whose children have changed and one change event is sent for each parent of the other changed nodes. Nodes that
+	 * are no longer in the tree are ignored.
+	 * @param model the tree model to inform
+	 */
+	public void fireEvents(DefaultTreeModel model) {
+		Object root = model.getRoot();
+
+		/* structure changes; leave out the nodes under other changed nodes */
+		for (Task node : this.structureChanged.keySet()) {
+			if (node.getRoot() != root || this.hasChangedAncestor(node)) continue;
+			model.nodeStructureChanged(node);
+		}
+
+		/* other changes, grouped by the parent */
+		Map<TreeNode, Vector<Integer>> groups = new LinkedHashMap<TreeNode, Vector<Integer>>();
+		for (Task node : this.changed.keySet()) {
+			if (node.getRoot() != root) continue;
+			if (node.isRoot()) {
+				model.nodeChanged(node);
+				continue;
+			}
+			if (this.structureChanged.containsKey(node) || this.hasChangedAncestor(node)) continue;
+
+			TreeNode parent = node.getParent();
+			Vector<Integer> indices = groups.get(parent);
+			if (indices == null) groups.put(parent, indices = new Vector<Integer>());
+			indices.add(parent.getIndex(node));
+		}
+		for (Map.Entry<TreeNode, Vector<Integer>> group : groups.entrySet()) {
+			int[] indices = new int[group.getValue().size()];
+			for (int i = 0; i < indices.length; i++) indices[i] = group.getValue().get(i);
+			model.nodesChanged(group.getKey(), indices);
+		}
+	}
+
+	/**
+	 * Tells whether one of the ancestors of a node is recorded as structurally changed.
+	 * @param node the node
+	 * @return true if an ancestor has changed, false if not
+	 */
+	private boolean hasChangedAncestor(Task node) {
+		for (TreeNode parent = node.getParent(); parent != null; parent = parent.getParent())
+			if (this.structureChanged.containsKey(parent)) return true;
+		return false;
+	}
+
+	/**
+	 * An undo step of a change made to the tree.
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	interface Undo {
+		/** Undoes the change. */
+		void undo();
+	}
+
+	/**
+	 * A file system change. If the change is not made in a batch, it is applied and finished at once.
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	static abstract class DiskAction {
+		/**
+		 * Applies the change.
+		 * @throws Exception if the change fails
+		 */
+		abstract void apply() throws Exception;
+
+		/**
+		 * Undoes an applied change; by default does nothing.
+		 * @throws Exception if the undo fails
+		 */
+		void undo() throws Exception {
+		}
+
+		/** Finishes the change once all the changes in the batch have been applied; by default does nothing. */
+		void finish() {
+		}
+	}
+}
@@ -0,0 +1,465 @@
+/* TaskExporter.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+/**
+ * Exports task trees to JSON, Markdown, OPML or HTML files.
+ *
+ * The exporter works on TaskOutline objects: snapshots of a tree, so it can be run in a background thread while the
+ * tree is being edited, or a tree read from disk as it is exported (see FileSystemTask.openOutline). The output is
+ * streamed through a buffered writer in a single pass over the tree; the exported document is never built in memory.
+ *
+ * If the exported task is the root of a task tree (the root has no name), the top-level tasks are exported;
+ * otherwise the exported task is written out together with its sub-tree. Tasks can be filtered by their status: a
+ * task that doesn't pass the filter is left out together with its sub-tree.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+public class TaskExporter {
+	/** Format identifier for JSON output. */
+	public static final String FORMAT_JSON = "json";
+
+	/** Format identifier for Markdown outline output. */
+	public static final String FORMAT_MARKDOWN = "md";
+
+	/** Format identifier for OPML output. */
+	public static final String FORMAT_OPML = "opml";
+
+	/** Format identifier for static HTML output. */
+	public static final String FORMAT_HTML = "html";
+
+	/** All the supported formats. */
+	public static final String[] FORMATS = { FORMAT_JSON, FORMAT_MARKDOWN, FORMAT_OPML, FORMAT_HTML };
+
+	/** The character set of the exported files. */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/** The characters that are escaped with a backslash in Markdown output, wherever they are. */
+	private static final String MARKDOWN_SPECIAL = "\\`*_[]<>#|~&";
+
+	/** The characters that are escaped with a backslash in Markdown output at the start of a line. */
+	private static final String MARKDOWN_LINE_START = "-+=";
+
+	/** The output format. */
+	private String format;
+
+	/** Tells which statuses are exported; indexed by the status code. */
+	private boolean[] statusFilter = { false, true, true, true };
+
+	/** The writer that receives the output. */
+	private Writer out;
+
+	/** The number of tasks written by the current export. */
+	private int count;
+
+	/**
+	 * Constructs an exporter for the given format.
+	 * @param format the output format; one of the FORMAT_* constants
+	 * @throws Exception if the format is not supported
+	 */
+	public TaskExporter(String format) throws Exception {
+		for (String supported : FORMATS) {
+			if (supported.equals(format)) {
+				this.format = supported;
+				return;
+			}
+		}
+		throw new Exception("Unsupported export format '" + format + "'");
+	}
+
+	/**
+	 * Returns the export format that matches the extension of a file name.
+	 * @param file the file
+	 * @return the format or null if the extension is not recognised
+	 */
+	public static String formatForFile(File file) {
+		String name = file.getName().toLowerCase();
+		if (name.endsWith(".json")) return FORMAT_JSON;
+		if (name.endsWith(".md") || name.endsWith(".markdown")) return FORMAT_MARKDOWN;
+		if (name.endsWith(".opml")) return FORMAT_OPML;
+		if (name.endsWith(".html") || name.endsWith(".htm")) return FORMAT_HTML;
+		return null;
+	}
+
+	/**
+	 * Sets whether tasks with the given status are exported. By default all tasks are exported.
+	 * @param status the status code
+	 * @param include true to export the tasks with the status, false to leave them out
+	 */
+	public void setStatusFilter(short status, boolean include) {
+		Task.statusName(status); /* validates the status */
+		this.statusFilter[status] = include;
+	}
+
+	/**
+	 * Exports a task tree to a file.
+	 * @param tree the tree or sub-tree to export
+	 * @param file the file to write to
+	 * @return the number of exported tasks
+	 * @throws Exception on IO errors
+	 */
+	public int export(TaskOutline tree, File file) throws Exception {
+		BufferedWriter writer = Files.newBufferedWriter(file.toPath(), CHARSET);
+		try {
+			return this.export(tree, writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Exports a task tree to a writer. The writer is flushed, but not closed.
+	 * @param tree the tree or sub-tree to export
+	 * @param writer the writer to write to; should be buffered
+	 * @return the number of exported tasks
+	 * @throws Exception on IO errors
+	 */
+	public int export(TaskOutline tree, Writer writer) throws Exception {
+		this.out = writer;
+		this.count = 0;
+
+		String title = (tree.getName() == null) ? TaskMistress.PROGRAM_NAME : tree.getName();
+
+		if (FORMAT_JSON.equals(this.format)) {
+			this.out.write("[");
+			this.writeTopLevel(tree);
+			this.out.write("\n]\n");
+		} else if (FORMAT_MARKDOWN.equals(this.format)) {
+			this.out.write("# ");
+			this.writeMarkdownLine(title);
+			this.out.write("\n\n");
+			this.writeTopLevel(tree);
+		} else if (FORMAT_OPML.equals(this.format)) {
+			this.out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<opml version=\"2.0\">\n<head><title>");
+			this.writeXml(title, false);
+			this.out.write("</title></head>\n<body>\n");
+			this.writeTopLevel(tree);
+			this.out.write("</body>\n</opml>\n");
+		} else if (FORMAT_HTML.equals(this.format)) {
+			this.out.write("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n<title>");
+			this.writeXml(title, false);
+			this.out.write("</title>\n<style>\n" +
+			               "li.done > .name { text-decoration: line-through; color: gray; }\n" +
+			               "li.undone > .name { font-weight: bold; }\n" +
+			               "pre { white-space: pre-wrap; margin: 0.2em 0 0.5em 0; }\n" +
+			               "</style>\n</head>\n<body>\n<h1>");
+			this.writeXml(title, false);
+			this.out.write("</h1>\n<ul>\n");
+			this.writeTopLevel(tree);
+			this.out.write("</ul>\n</body>\n</html>\n");
+		}
+
+		this.out.flush();
+		this.out = null;
+		return this.count;
+	}
+
+	/**
+	 * Writes the top-level tasks of the export.
+	 * @param tree the exported tree or sub-tree
+	 * @throws Exception on IO errors or if the tree can not be read
+	 */
+	private void writeTopLevel(TaskOutline tree) throws Exception {
+		if (tree.getName() == null) this.writeChildren(tree, 0);
+		else if (this.accept(tree)) this.writeTask(tree, 0, true);
+	}
+
+	/**
+	 * Writes the exported children of a task.
+	 * @param task the parent task
+	 * @param depth the depth of the children in the exported outline
+	 * @throws Exception on IO errors or if the tree can not be read
+	 */
+	private void writeChildren(TaskOutline task, int depth) throws Exception {
+		boolean first = true;
+		for (int i = 0; i < task.getChildCount(); i++) {
+			TaskOutline child = task.getChildAt(i);
+			if (!this.accept(child)) continue;
+			this.writeTask(child, depth, first);
+			first = false;
+		}
+	}
+
+	/**
+	 * Tells whether any of the children of a task pass the status filter.
+	 * @param task the parent task
+	 * @return true if any children are exported, false if not
+	 * @throws Exception if the tree can not be read
+	 */
+	private boolean acceptChildren(TaskOutline task) throws Exception {
+		for (int i = 0; i < task.getChildCount(); i++) if (this.accept(task.getChildAt(i))) return true;
+		return false;
+	}
+
+	/**
+	 * Tells whether a task passes the status filter.
+	 * @param task the task to test
+	 * @return true if the task is exported, false if not
+	 */
+	private boolean accept(TaskOutline task) {
+		short status = task.getStatus();
+		return status >= 0 && status < this.statusFilter.length && this.statusFilter[status];
+	}
+
+	/**
+	 * Writes a task and its sub-tree in the export format.
+	 * @param task the task to write
+	 * @param depth the depth of the task in the exported outline
+	 * @param first true if the task is the first one written among its siblings
+	 * @throws Exception on IO errors or if the tree can not be read
+	 */
+	private void writeTask(TaskOutline task, int depth, boolean first) throws Exception {
+		this.count++;
+		if (FORMAT_JSON.equals(this.format)) this.writeJsonTask(task, depth, first);
+		else if (FORMAT_MARKDOWN.equals(this.format)) this.writeMarkdownTask(task, depth);
+		else if (FORMAT_OPML.equals(this.format)) this.writeOpmlTask(task, depth);
+		else if (FORMAT_HTML.equals(this.format)) this.writeHtmlTask(task, depth);
+	}
+
+	/**
+	 * Writes a task as a JSON object.
+	 * @param task the task to write
+	 * @param depth the depth of the task
+	 * @param first true if the task is the first one in its array
+	 * @throws Exception on IO errors or if the tree can not be read
+	 */
+	private void writeJsonTask(TaskOutline task, int depth, boolean first) throws Exception {
+		if (!first) this.out.write(",");
+		this.out.write("\n");
+		this.indent(depth + 1, "  ");
+		this.out.write("{\"name\": ");
+		this.writeJsonString(task.getName());
+		this.out.write(", \"created\": ");
+		this.out.write(Long.toString(task.getCreationTime()));
+		this.out.write(", \"status\": \"");
+		this.out.write(Task.statusName(task.getStatus()));
+		this.out.write("\", \"text\": ");
+		this.writeJsonString(task.getText());
+		this.out.write(", \"children\": [");
+		if (task.getChildCount() > 0) {
+			int before = this.count;
+			this.writeChildren(task, depth + 1);
+			if (this.count > before) {
+				this.out.write("\n");
+				this.indent(depth + 1, "  ");
+			}
+		}
+		this.out.write("]}");
+	}
+
+	/**
+	 * Writes a string as a JSON string literal; null is written as the null literal.
+	 * @param string the string to write
+	 * @throws IOException on IO errors
+	 */
+	private void writeJsonString(String string) throws IOException {
+		if (string == null) {
+			this.out.write("null");
+			return;
+		}
+
+		this.out.write('"');
+		for (int i = 0; i < string.length(); i++) {
+			char ch = string.charAt(i);
+			switch (ch) {
+			case '"': this.out.write("\\\""); break;
+			case '\\': this.out.write("\\\\"); break;
+			case '\n': this.out.write("\\n"); break;
+			case '\r': this.out.write("\\r"); break;
+			case '\t': this.out.write("\\t"); break;
+			default:
+				if (ch < 0x20) {
+					String hex = Integer.toHexString(ch);
+					this.out.write("\\u0000", 0, 6 - hex.length());
+					this.out.write(hex);
+				} else this.out.write(ch);
+			}
+		}
+		this.out.write('"');
+	}
+
+	/**
+	 * Writes a task as a Markdown list item. The status is written as a task list check box and the text as an
+	 * indented block under the item, between empty lines. The name and the text are escaped, so they are shown as
+	 * they are and not as Markdown.
+	 * @param task the task to write
+	 * @param depth the depth of the task
+	 * @throws Exception on IO errors or if the tree can not be read
+	 */
+	private void writeMarkdownTask(TaskOutline task, int depth) throws Exception {
+		this.indent(depth, "  ");
+		this.out.write("- ");
+		if (task.getStatus() == Task.STATUS_DONE) this.out.write("[x] ");
+		else if (task.getStatus() == Task.STATUS_UNDONE) this.out.write("[ ] ");
+		this.writeMarkdownLine(task.getName());
+		this.out.write("\n");
+
+		/* write the text line at a time, indented under the list item */
+		String text = task.getText();
+		if (text != null && text.length() > 0) {
+			this.out.write("\n");
+			int start = 0;
+			while (start <= text.length()) {
+				int end = text.indexOf('\n', start);
+				if (end < 0) end = text.length();
+				if (end > start) {
+					this.indent(depth + 1, "  ");
+					this.writeMarkdown(text.substring(start, end));
+				}
+				this.out.write("\n");
+				start = end + 1;
+			}
+			this.out.write("\n");
+		}
+
+		this.writeChildren(task, depth + 1);
+	}
+
+	/**
+	 * Writes a single line of Markdown text; line breaks are replaced with spaces.
+	 * @param string the string to write
+	 * @throws IOException on IO errors
+	 */
+	private void writeMarkdownLine(String string) throws IOException {
+		if (string == null) return;
+		this.writeMarkdown(string.replace('\n', ' ').replace('\r', ' '));
+	}
+
+	/**
+	 * Writes a line of text in Markdown, with the characters that have a meaning in Markdown escaped: the special
+	 * characters everywhere and the list, heading and numbered list markers at the start of the line.
+	 * @param line the line to write
+	 * @throws IOException on IO errors
+	 */
+	private void writeMarkdown(String line) throws IOException {
+		/* the markers are only markers after the leading white space and, for a numbered list, the number */
+		int start = 0;
+		while (start < line.length() && Character.isWhitespace(line.charAt(start))) start++;
+		int digits = start;
+		while (digits < line.length() && line.charAt(digits) >= '0' && line.charAt(digits) <= '9') digits++;
+
+		for (int i = 0; i < line.length(); i++) {
+			char ch = line.charAt(i);
+			if (MARKDOWN_SPECIAL.indexOf(ch) >= 0 ||
+			    (i == start && MARKDOWN_LINE_START.indexOf(ch) >= 0) ||
+			    (i == digits && digits > start && (ch == '.' || ch == ')'))) {
+				this.out.write('\\');
+			}
+			this.out.write(ch);
+		}
+	}
+
+	/**
+	 * Writes a task as an OPML outline element. The text is stored in the _note attribute and the status and creation
+	 * time in the _status and _created attributes.
+	 * @param task the task to write
+	 * @param depth the depth of the task
+	 * @throws Exception on IO errors or if the tree can not be read
+	 */
+	private void writeOpmlTask(TaskOutline task, int depth) throws Exception {
+		this.indent(depth + 1, "  ");
+		this.out.write("<outline text=\"");
+		this.writeXml(task.getName(), true);
+		this.out.write("\" _status=\"");
+		this.out.write(Task.statusName(task.getStatus()));
+		this.out.write("\" _created=\"");
+		this.out.write(Long.toString(task.getCreationTime()));
+		this.out.write("\"");
+		String text = task.getText();
+		if (text != null && text.length() > 0) {
+			this.out.write(" _note=\"");
+			this.writeXml(text, true);
+			this.out.write("\"");
+		}
+
+		if (!this.acceptChildren(task)) {
+			this.out.write("/>\n");
+			return;
+		}
+
+		this.out.write(">\n");
+		this.writeChildren(task, depth + 1);
+		this.indent(depth + 1, "  ");
+		this.out.write("</outline>\n");
+	}
+
+	/**
+	 * Writes a task as an HTML list item.
+	 * @param task the task to write
+	 * @param depth the depth of the task
+	 * @throws Exception on IO errors or if the tree can not be read
+	 */
+	private void writeHtmlTask(TaskOutline task, int depth) throws Exception {
+		this.indent(depth + 1, "  ");
+		this.out.write("<li class=\"");
+		this.out.write(Task.statusName(task.getStatus()));
+		this.out.write("\"><span class=\"name\">");
+		this.writeXml(task.getName(), false);
+		this.out.write("</span>");
+		String text = task.getText();
+		if (text != null && text.length() > 0) {
+			this.out.write("<pre>");
+			this.writeXml(text, false);
+			this.out.write("</pre>");
+		}
+
+		if (this.acceptChildren(task)) {
+			this.out.write("\n");
+			this.indent(depth + 1, "  ");
+			this.out.write("<ul>\n");
+			this.writeChildren(task, depth + 1);
+			this.indent(depth + 1, "  ");
+			this.out.write("</ul>");
+		}
+		this.out.write("</li>\n");
+	}
+
+	/**
+	 * Writes a string with the XML special characters escaped.
+	 * @param string the string to write
+	 * @param attribute true if the string is an attribute value, in which case also quotes and line breaks are escaped
+	 * @throws IOException on IO errors
+	 */
+	private void writeXml(String string, boolean attribute) throws IOException {
+		if (string == null) return;
+		for (int i = 0; i < string.length(); i++) {
+			char ch = string.charAt(i);
+			switch (ch) {
+			case '&': this.out.write("&amp;"); break;
+			case '<': this.out.write("&lt;"); break;
+			case '>': this.out.write("&gt;"); break;
+			case '"': if (attribute) this.out.write("&quot;"); else this.out.write(ch); break;
+			case '\n': if (attribute) this.out.write("&#10;"); else this.out.write(ch); break;
+			case '\r': if (attribute) this.out.write("&#13;"); else this.out.write(ch); break;
+			case '\t': if (attribute) this.out.write("&#9;"); else this.out.write(ch); break;
+			default:
+				/* characters not allowed in XML are left out */
+				if (ch >= 0x20 || ch == '\t') this.out.write(ch);
+			}
+		}
+	}
+
+	/**
+	 * Writes indentation.
+	 * @param depth the level of indentation
+	 * @param unit the string written once per level
+	 * @throws IOException on IO errors
+	 */
+	private void indent(int depth, String unit) throws IOException {
+		for (int i = 0; i < depth; i++) this.out.write(unit);
+	}
+}
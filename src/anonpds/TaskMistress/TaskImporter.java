@@ -0,0 +1,561 @@
+/* TaskImporter.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Vector;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Imports tasks from OPML, JSON or indented text files.
+ *
+ * The files are parsed in a streaming fashion and the tasks are built into a detached tree, which is not part of any
+ * TaskStore; this means that the import can be run in a background thread. The imported tree can then be written to
+ * disk with TaskStore.stageImport() and attached to the task tree with TaskStore.attachImport().
+ *
+ * The JSON, Markdown and OPML formats are the ones written by TaskExporter. The JSON importer also accepts a single
+ * task object instead of an array and ignores unknown object members. In the indented text format each non-empty line
+ * is a task and the indentation of the line tells the depth of the task; an optional list bullet ("- " or "* ") and a
+ * Markdown style check box ("[x] " or "[ ] ") for the status can precede the task name. The Markdown format is read
+ * the same way, except that only the list items are tasks: the other lines are the text of the task above them, the
+ * heading before the first item is skipped and the backslash escapes are removed.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+public class TaskImporter {
+	/** Format identifier for JSON input. */
+	public static final String FORMAT_JSON = TaskExporter.FORMAT_JSON;
+
+	/** Format identifier for OPML input. */
+	public static final String FORMAT_OPML = TaskExporter.FORMAT_OPML;
+
+	/** Format identifier for Markdown input. */
+	public static final String FORMAT_MARKDOWN = TaskExporter.FORMAT_MARKDOWN;
+
+	/** Format identifier for indented text input. */
+	public static final String FORMAT_TEXT = "txt";
+
+	/** All the supported formats. */
+	public static final String[] FORMATS = { FORMAT_JSON, FORMAT_OPML, FORMAT_MARKDOWN, FORMAT_TEXT };
+
+	/** The name given to imported tasks that don't have one. */
+	private static final String UNNAMED = "(unnamed)";
+
+	/** The number of columns a tab character is counted as in indented text. */
+	private static final int TAB_WIDTH = 4;
+
+	/** The character set of the imported text files. */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/** The input format. */
+	private String format;
+
+	/** The number of tasks read by the last import. */
+	private int count;
+
+	/**
+	 * Constructs an importer for the given format.
+	 * @param format the input format; one of the FORMAT_* constants
+	 * @throws Exception if the format is not supported
+	 */
+	public TaskImporter(String format) throws Exception {
+		for (String supported : FORMATS) {
+			if (supported.equals(format)) {
+				this.format = supported;
+				return;
+			}
+		}
+		throw new Exception("Unsupported import format '" + format + "'");
+	}
+
+	/**
+	 * Returns the import format that matches the extension of a file name.
+	 * @param file the file
+	 * @return the format or null if the extension is not recognised
+	 */
+	public static String formatForFile(File file) {
+		String name = file.getName().toLowerCase();
+		if (name.endsWith(".json")) return FORMAT_JSON;
+		if (name.endsWith(".opml") || name.endsWith(".xml")) return FORMAT_OPML;
+		if (name.endsWith(".md") || name.endsWith(".markdown")) return FORMAT_MARKDOWN;
+		if (name.endsWith(".txt")) return FORMAT_TEXT;
+		return null;
+	}
+
+	/**
+	 * Returns the number of tasks read by the last import.
+	 * @return the number of imported tasks
+	 */
+	public int getCount() {
+		return this.count;
+	}
+
+	/**
+	 * Reads the tasks from a file. The imported top-level tasks are returned as the children of a detached root node.
+	 * @param file the file to read
+	 * @return the root of the imported tasks
+	 * @throws Exception on IO and parse errors
+	 */
+	public Task read(File file) throws Exception {
+		Task root = new Task();
+		this.count = 0;
+
+		if (FORMAT_OPML.equals(this.format)) {
+			InputStream in = Files.newInputStream(file.toPath());
+			try {
+				this.readOpml(in, root);
+			} finally {
+				in.close();
+			}
+		} else {
+			BufferedReader reader = Files.newBufferedReader(file.toPath(), CHARSET);
+			try {
+				if (FORMAT_JSON.equals(this.format)) this.readJson(reader, root);
+				else this.readText(reader, root, FORMAT_MARKDOWN.equals(this.format));
+			} finally {
+				reader.close();
+			}
+		}
+
+		return root;
+	}
+
+	/**
+	 * Creates a new imported task.
+	 * @param name the name of the task; null for default name
+	 * @param text the text of the task
+	 * @param timeStamp the creation time or 0 for current time
+	 * @param status the status name or null for default status
+	 * @return the created task
+	 * @throws Exception if the status is illegal
+	 */
+	private Task createTask(String name, String text, long timeStamp, String status) throws Exception {
+		if (name == null || name.length() == 0) name = UNNAMED;
+		if (timeStamp == 0) timeStamp = System.currentTimeMillis();
+		Task task = new FileSystemTask(null, name, text == null ? "" : text, timeStamp, true);
+		if (status != null) task.setStatus(Task.parseStatus(status));
+		this.count++;
+		return task;
+	}
+
+	/**
+	 * Reads OPML outline elements with a streaming XML parser. DTDs and external entities are not processed.
+	 * @param in the input stream
+	 * @param root the node that receives the top-level tasks
+	 * @throws Exception on parse errors
+	 */
+	private void readOpml(InputStream in, Task root) throws Exception {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		XMLStreamReader reader = factory.createXMLStreamReader(in);
+
+		Task parent = root;
+		try {
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("outline")) {
+					String name = reader.getAttributeValue(null, "text");
+					if (name == null) name = reader.getAttributeValue(null, "title");
+					String created = reader.getAttributeValue(null, "_created");
+					Task task = this.createTask(name,
+					                            reader.getAttributeValue(null, "_note"),
+					                            created == null ? 0 : Long.parseLong(created),
+					                            reader.getAttributeValue(null, "_status"));
+					parent.add(task);
+					parent = task;
+				} else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("outline")) {
+					parent = (Task) parent.getParent();
+				}
+			}
+		} catch (Exception e) {
+			throw new Exception("line " + reader.getLocation().getLineNumber() + ": " + e.getMessage());
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads tasks from JSON.
+	 * @param in the reader
+	 * @param root the node that receives the top-level tasks
+	 * @throws Exception on parse errors
+	 */
+	private void readJson(Reader in, Task root) throws Exception {
+		JsonReader reader = new JsonReader(in);
+		try {
+			if (reader.peek() == '[') this.readJsonTasks(reader, root);
+			else this.readJsonTask(reader, root);
+			if (reader.peek() != -1) throw new Exception("junk after the tasks");
+		} catch (Exception e) {
+			throw new Exception("line " + reader.getLine() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads a JSON array of tasks.
+	 * @param reader the JSON reader
+	 * @param parent the parent of the tasks
+	 * @throws Exception on parse errors
+	 */
+	private void readJsonTasks(JsonReader reader, Task parent) throws Exception {
+		reader.expect('[');
+		if (reader.peek() == ']') {
+			reader.expect(']');
+			return;
+		}
+		do {
+			this.readJsonTask(reader, parent);
+		} while (reader.next(',', ']'));
+	}
+
+	/**
+	 * Reads a JSON task object. The task is added to the parent only after the object has been read, since the name
+	 * (and thus the plain name) of the task may come after the children.
+	 * @param reader the JSON reader
+	 * @param parent the parent of the task
+	 * @throws Exception on parse errors
+	 */
+	private void readJsonTask(JsonReader reader, Task parent) throws Exception {
+		Task task = this.createTask(null, null, 0, null);
+		String name = null;
+
+		reader.expect('{');
+		if (reader.peek() == '}') reader.expect('}');
+		else do {
+			String key = reader.readString();
+			reader.expect(':');
+			if (key.equals("name") || key.equals("title")) name = reader.readString();
+			else if (key.equals("text") || key.equals("note")) task.setText(reader.readString());
+			else if (key.equals("status")) task.setStatus(Task.parseStatus(reader.readString()));
+			else if (key.equals("created")) task.setCreationTime(Long.parseLong(reader.readLiteral()));
+			else if (key.equals("children")) this.readJsonTasks(reader, task);
+			else reader.skipValue();
+		} while (reader.next(',', '}'));
+
+		task.setName(name == null || name.length() == 0 ? UNNAMED : name);
+		if (task.getText() == null) task.setText("");
+		parent.add(task);
+	}
+
+	/**
+	 * Reads tasks from indented text or Markdown.
+	 * @param reader the reader
+	 * @param root the node that receives the top-level tasks
+	 * @param markdown true to read Markdown, where only the list items are tasks, false to read indented text
+	 * @throws Exception on parse errors
+	 */
+	private void readText(BufferedReader reader, Task root, boolean markdown) throws Exception {
+		/* stack of the tasks on the current path and their indentation */
+		Task[] tasks = new Task[16];
+		int[] indents = new int[16];
+		int depth = 0;
+		tasks[0] = root;
+		indents[0] = -1;
+
+		/* the lines of the text of the last Markdown list item and the indentation of the item contents */
+		Vector<String> text = new Vector<String>();
+		int textIndent = 0;
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			/* measure the indentation */
+			int indent = 0, i;
+			for (i = 0; i < line.length(); i++) {
+				char ch = line.charAt(i);
+				if (ch == ' ') indent++;
+				else if (ch == '\t') indent += TAB_WIDTH - indent % TAB_WIDTH;
+				else break;
+			}
+			if (i == line.length()) {
+				if (markdown && depth > 0) text.add("");
+				continue; /* empty line */
+			}
+
+			/* parse the optional bullet and check box */
+			String name = line.substring(i).trim();
+			boolean item = name.startsWith("- ") || name.startsWith("* ");
+			if (markdown) {
+				/* other lines are the text of the last item; the lines before the first item are skipped */
+				if (!item) {
+					if (depth > 0) text.add(unescapeMarkdown(stripIndent(line, textIndent)));
+					continue;
+				}
+				if (depth > 0) setMarkdownText(tasks[depth], text);
+				textIndent = indent + 2;
+			}
+			if (item) name = name.substring(2).trim();
+			String status = null;
+			if (name.startsWith("[x] ") || name.startsWith("[X] ")) status = "done";
+			else if (name.startsWith("[ ] ")) status = "undone";
+			if (status != null) name = name.substring(4).trim();
+			if (markdown) name = unescapeMarkdown(name);
+
+			/* find the parent: the closest task on the path with less indentation */
+			while (indents[depth] >= indent) depth--;
+			Task task = this.createTask(name, null, 0, status);
+			tasks[depth].add(task);
+
+			/* push the task on the path */
+			depth++;
+			if (depth == tasks.length) {
+				Task[] newTasks = new Task[tasks.length * 2];
+				int[] newIndents = new int[indents.length * 2];
+				System.arraycopy(tasks, 0, newTasks, 0, tasks.length);
+				System.arraycopy(indents, 0, newIndents, 0, indents.length);
+				tasks = newTasks;
+				indents = newIndents;
+			}
+			tasks[depth] = task;
+			indents[depth] = indent;
+		}
+		if (markdown && depth > 0) setMarkdownText(tasks[depth], text);
+	}
+
+	/**
+	 * Sets the text read under a Markdown list item. The empty lines that TaskExporter writes before and after the
+	 * text are not part of it.
+	 * @param task the task of the list item
+	 * @param lines the lines of the text; cleared
+	 */
+	private static void setMarkdownText(Task task, Vector<String> lines) {
+		int start = 0, end = lines.size();
+		if (end > start && lines.get(start).length() == 0) start++;
+		if (end > start && lines.get(end - 1).length() == 0) end--;
+
+		StringBuffer text = new StringBuffer();
+		for (int i = start; i < end; i++) {
+			if (i > start) text.append('\n');
+			text.append(lines.get(i));
+		}
+		task.setText(text.toString());
+		lines.clear();
+	}
+
+	/**
+	 * Removes indentation from a line.
+	 * @param line the line
+	 * @param columns the number of columns of white space to remove at most
+	 * @return the line without the indentation
+	 */
+	private static String stripIndent(String line, int columns) {
+		int indent = 0, i;
+		for (i = 0; i < line.length() && indent < columns; i++) {
+			char ch = line.charAt(i);
+			if (ch == ' ') indent++;
+			else if (ch == '\t') indent += TAB_WIDTH - indent % TAB_WIDTH;
+			else break;
+		}
+		return line.substring(i);
+	}
+
+	/**
+	 * Removes the backslash escapes from Markdown text: a backslash followed by an ASCII punctuation character.
+	 * @param string the Markdown text
+	 * @return the text without the escapes
+	 */
+	private static String unescapeMarkdown(String string) {
+		if (string.indexOf('\\') < 0) return string;
+		StringBuffer buffer = new StringBuffer(string.length());
+		for (int i = 0; i < string.length(); i++) {
+			char ch = string.charAt(i);
+			if (ch == '\\' && i + 1 < string.length()) {
+				char next = string.charAt(i + 1);
+				if (next < 128 && !Character.isLetterOrDigit(next) && next > ' ') ch = string.charAt(++i);
+			}
+			buffer.append(ch);
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * A minimal streaming JSON tokenizer; reads the input one character at a time.
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	static class JsonReader {
+		/** The input. */
+		private Reader in;
+
+		/** The next character or -2 if no character has been read ahead. */
+		private int next = -2;
+
+		/** The current line number. */
+		private int line = 1;
+
+		/**
+		 * Constructs the reader.
+		 * @param in the input; should be buffered
+		 */
+		public JsonReader(Reader in) {
+			this.in = in;
+		}
+
+		/**
+		 * Returns the current line number.
+		 * @return the line number
+		 */
+		public int getLine() {
+			return this.line;
+		}
+
+		/**
+		 * Reads the next character.
+		 * @return the character or -1 at the end of input
+		 * @throws Exception on IO errors
+		 */
+		private int read() throws Exception {
+			int ch = this.next;
+			if (ch == -2) ch = this.in.read();
+			this.next = -2;
+			if (ch == '\n') this.line++;
+			return ch;
+		}
+
+		/**
+		 * Returns the next non-whitespace character without consuming it.
+		 * @return the character or -1 at the end of input
+		 * @throws Exception on IO errors
+		 */
+		public int peek() throws Exception {
+			while (true) {
+				if (this.next == -2) this.next = this.in.read();
+				if (this.next != ' ' && this.next != '\t' && this.next != '\n' && this.next != '\r') return this.next;
+				this.read();
+			}
+		}
+
+		/**
+		 * Consumes the expected character.
+		 * @param expected the expected character
+		 * @throws Exception if the next character is something else
+		 */
+		public void expect(char expected) throws Exception {
+			int ch = this.peek();
+			if (ch != expected) throw new Exception("expected '" + expected + "', found " + describe(ch));
+			this.read();
+		}
+
+		/**
+		 * Reads the separator or the terminator of an array or object.
+		 * @param separator the separator character
+		 * @param end the terminating character
+		 * @return true if separator was read, false if the terminator was read
+		 * @throws Exception if neither was found
+		 */
+		public boolean next(char separator, char end) throws Exception {
+			int ch = this.peek();
+			if (ch != separator && ch != end)
+				throw new Exception("expected '" + separator + "' or '" + end + "', found " + describe(ch));
+			this.read();
+			return ch == separator;
+		}
+
+		/**
+		 * Reads a string literal; also accepts null, which is returned as null.
+		 * @return the string
+		 * @throws Exception on parse errors
+		 */
+		public String readString() throws Exception {
+			if (this.peek() == 'n') {
+				this.readLiteral();
+				return null;
+			}
+
+			this.expect('"');
+			StringBuffer buffer = new StringBuffer();
+			while (true) {
+				int ch = this.read();
+				if (ch == -1) throw new Exception("unterminated string");
+				if (ch == '"') break;
+				if (ch == '\\') {
+					ch = this.read();
+					switch (ch) {
+					case 'n': buffer.append('\n'); break;
+					case 'r': buffer.append('\r'); break;
+					case 't': buffer.append('\t'); break;
+					case 'b': buffer.append('\b'); break;
+					case 'f': buffer.append('\f'); break;
+					case 'u':
+						int code = 0;
+						for (int i = 0; i < 4; i++) {
+							int digit = Character.digit(this.read(), 16);
+							if (digit < 0) throw new Exception("bad unicode escape");
+							code = code * 16 + digit;
+						}
+						buffer.append((char) code);
+						break;
+					case -1: throw new Exception("unterminated string");
+					default: buffer.append((char) ch);
+					}
+				} else buffer.append((char) ch);
+			}
+			return buffer.toString();
+		}
+
+		/**
+		 * Reads a literal value: a number, true, false or null.
+		 * @return the literal as string
+		 * @throws Exception on parse errors
+		 */
+		public String readLiteral() throws Exception {
+			this.peek();
+			StringBuffer buffer = new StringBuffer();
+			while (true) {
+				if (this.next == -2) this.next = this.in.read();
+				int ch = this.next;
+				if (ch == -1 || ",}] \t\r\n".indexOf(ch) >= 0) break;
+				buffer.append((char) this.read());
+			}
+			if (buffer.length() == 0) throw new Exception("expected a value, found " + describe(this.next));
+			return buffer.toString();
+		}
+
+		/**
+		 * Skips a value of any type.
+		 * @throws Exception on parse errors
+		 */
+		public void skipValue() throws Exception {
+			int ch = this.peek();
+			if (ch == '"') this.readString();
+			else if (ch == '[' || ch == '{') {
+				char end = (ch == '[') ? ']' : '}';
+				this.read();
+				if (this.peek() == end) {
+					this.read();
+					return;
+				}
+				do {
+					if (end == '}') {
+						this.readString();
+						this.expect(':');
+					}
+					this.skipValue();
+				} while (this.next(',', end));
+			} else this.readLiteral();
+		}
+
+		/**
+		 * Describes a character for error messages.
+		 * @param ch the character
+		 * @return the description
+		 */
+		private static String describe(int ch) {
+			return (ch == -1) ? "end of file" : "'" + (char) ch + "'";
+		}
+	}
+}
@@ -0,0 +1,327 @@
+/* TaskIndex.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.TreeMap;
+import java.util.Vector;
+
+/**
+ * Secondary indexes over the tasks of a tree, for answering queries without traversing the tree.
+ *
+ * Each task in the tree, except the root, is given a small integer id. The index keeps a bitmap of the ids for each
+ * status and a map from creation time to the ids created at that time, sorted by the time. A query is answered by
+ * combining bitmaps; see TaskQuery. The creation times are mostly unique, so the ids of a time are kept in a small
+ * array rather than in a bitmap, which would be as large as the largest id.
+ *
+ * The index observes the tree and is updated as the tasks are added, removed and changed: a status or creation time
+ * change costs one bitmap update, an added or removed sub-tree is indexed or dropped in time proportional to its size.
+ * The ids of removed tasks are reused. The index is not thread safe; like the tree, it must be used from the thread
+ * that modifies the tree.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+class TaskIndex implements TaskObserver {
+	/** The initial capacity of the index, in tasks. */
+	private static final int DEFAULT_CAPACITY = 64;
+
+	/** The root of the indexed tree. */
+	private final Task root;
+
+	/** The tasks by id; null for the free ids. */
+	private Task[] tasks = new Task[DEFAULT_CAPACITY];
+
+	/** The indexed status of each task. */
+	private short[] status = new short[DEFAULT_CAPACITY];
+
+	/** The indexed creation time of each task. */
+	private long[] timeStamp = new long[DEFAULT_CAPACITY];
+
+	/** The ids in use. */
+	private final BitSet used = new BitSet();
+
+	/** The ids of the tasks of each status, indexed by the status code. */
+	private final BitSet[] byStatus = { null, new BitSet(), new BitSet(), new BitSet() };
+
+	/** The ids of the tasks by creation time; the first element of each array is the number of ids that follow. */
+	private final TreeMap<Long, int[]> byTime = new TreeMap<Long, int[]>();
+
+	/**
+	 * Builds the index of a tree and starts observing the changes to it.
+	 * @param root the root of the tree
+	 */
+	public TaskIndex(Task root) {
+		this.root = root;
+		for (int i = 0; i < root.getChildCount(); i++) this.taskAdded((Task) root.getChildAt(i));
+		root.addObserver(this);
+	}
+
+	/** Stops observing the tree. The index is left as it was and should not be used any more. */
+	public void close() {
+		this.root.removeObserver(this);
+	}
+
+	/**
+	 * Returns the number of indexed tasks.
+	 * @return the number of tasks
+	 */
+	public int size() {
+		return this.used.cardinality();
+	}
+
+	/**
+	 * Returns an indexed task.
+	 * @param id the id of the task
+	 * @return the task or null if the id is not in use
+	 */
+	public Task getTask(int id) {
+		return (id >= 0 && id < this.tasks.length) ? this.tasks[id] : null;
+	}
+
+	/**
+	 * Returns the ids of all the indexed tasks.
+	 * @return a new bitmap of the ids
+	 */
+	public BitSet all() {
+		return (BitSet) this.used.clone();
+	}
+
+	/**
+	 * Returns the ids of the tasks of a status.
+	 * @param status the status
+	 * @return a new bitmap of the ids
+	 */
+	public BitSet withStatus(short status) {
+		Task.statusName(status); /* throws on an illegal status */
+		return (BitSet) this.byStatus[status].clone();
+	}
+
+	/**
+	 * Returns the ids of the tasks created in a time range.
+	 * @param from the start of the range, inclusive
+	 * @param to the end of the range, exclusive
+	 * @return a new bitmap of the ids
+	 */
+	public BitSet createdBetween(long from, long to) {
+		BitSet ids = new BitSet();
+		if (from >= to) return ids;
+		for (int[] set : this.byTime.subMap(from, to).values()) {
+			for (int i = 1; i <= set[0]; i++) ids.set(set[i]);
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the tasks of a set of ids that are in the sub-tree of a task, ordered by creation time. The ancestors
+	 * of each task are walked until the scope or a task already walked is found, so each task between the results
+	 * and the scope is visited only once.
+	 * @param ids the ids
+	 * @param scope the root of the sub-tree; the root of the tree or null for the whole tree
+	 * @return the tasks
+	 */
+	public Vector<Task> getTasks(BitSet ids, Task scope) {
+		if (scope == this.root) scope = null;
+		BitSet inside = new BitSet(), outside = new BitSet();
+
+		BitSet matched = new BitSet();
+		int count = 0;
+		Vector<Task> walked = new Vector<Task>();
+		for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+			Task task = this.tasks[id];
+			if (task == null) continue;
+			if (scope != null) {
+				/* walk up until the answer is known, then remember it for the walked tasks */
+				boolean in = false;
+				walked.clear();
+				for (Task node = task; node != null; node = (Task) node.getParent()) {
+					if (node == scope) {
+						in = true;
+						break;
+					}
+					int nodeId = node.getIndexId();
+					if (nodeId < 0) break; /* the root */
+					if (inside.get(nodeId) || outside.get(nodeId)) {
+						in = inside.get(nodeId);
+						break;
+					}
+					walked.add(node);
+				}
+				for (Task node : walked) (in ? inside : outside).set(node.getIndexId());
+				if (!in) continue;
+			}
+			matched.set(id);
+			count++;
+		}
+
+		/* a large result is picked from the time index in order; a small one is sorted */
+		Vector<Task> result = new Vector<Task>(count);
+		if (count > this.byTime.size() / 8) {
+			for (int[] set : this.byTime.values()) {
+				for (int i = 1; i <= set[0]; i++) if (matched.get(set[i])) result.add(this.tasks[set[i]]);
+			}
+		} else {
+			Task[] sorted = new Task[count];
+			int i = 0;
+			for (int id = matched.nextSetBit(0); id >= 0; id = matched.nextSetBit(id + 1)) sorted[i++] = this.tasks[id];
+			Arrays.sort(sorted, new Comparator<Task>() {
+				@Override
+				public int compare(Task a, Task b) {
+					long timeA = timeStamp[a.getIndexId()], timeB = timeStamp[b.getIndexId()];
+					return (timeA < timeB) ? -1 : (timeA == timeB) ? 0 : 1;
+				}
+			});
+			for (Task task : sorted) result.add(task);
+		}
+		return result;
+	}
+
+	/**
+	 * Adds a task to the index.
+	 * @param task the task to add
+	 */
+	private void index(Task task) {
+		int id = task.getIndexId();
+		if (id >= 0 && id < this.tasks.length && this.tasks[id] == task) return; /* already indexed */
+
+		id = this.used.nextClearBit(0);
+		if (id >= this.tasks.length) {
+			int capacity = Math.max(this.tasks.length * 2, id + 1);
+			Task[] tasks = new Task[capacity];
+			System.arraycopy(this.tasks, 0, tasks, 0, this.tasks.length);
+			this.tasks = tasks;
+			short[] status = new short[capacity];
+			System.arraycopy(this.status, 0, status, 0, this.status.length);
+			this.status = status;
+			long[] timeStamp = new long[capacity];
+			System.arraycopy(this.timeStamp, 0, timeStamp, 0, this.timeStamp.length);
+			this.timeStamp = timeStamp;
+		}
+
+		this.used.set(id);
+		this.tasks[id] = task;
+		task.setIndexId(id);
+		this.setStatus(id, task.getStatus());
+		this.setTime(id, task.getCreationTime());
+	}
+
+	/**
+	 * Removes a task from the index.
+	 * @param task the task to remove
+	 */
+	private void unindex(Task task) {
+		int id = task.getIndexId();
+		if (id < 0 || id >= this.tasks.length || this.tasks[id] != task) return; /* not indexed */
+
+		this.byStatus[this.status[id]].clear(id);
+		this.clearTime(id);
+		this.used.clear(id);
+		this.tasks[id] = null;
+		this.status[id] = 0;
+		task.setIndexId(-1);
+	}
+
+	/**
+	 * Sets the indexed status of a task.
+	 * @param id the id of the task
+	 * @param status the status
+	 */
+	private void setStatus(int id, short status) {
+		if (this.status[id] != 0) this.byStatus[this.status[id]].clear(id);
+		this.status[id] = status;
+		this.byStatus[status].set(id);
+	}
+
+	/**
+	 * Sets the indexed creation time of a task.
+	 * @param id the id of the task
+	 * @param timeStamp the creation time
+	 */
+	private void setTime(int id, long timeStamp) {
+		int[] ids = this.byTime.get(timeStamp);
+		if (ids == null) {
+			ids = new int[2];
+			this.byTime.put(timeStamp, ids);
+		} else if (ids[0] + 1 == ids.length) {
+			int[] grown = new int[ids.length * 2];
+			System.arraycopy(ids, 0, grown, 0, ids.length);
+			ids = grown;
+			this.byTime.put(timeStamp, ids);
+		}
+		ids[++ids[0]] = id;
+		this.timeStamp[id] = timeStamp;
+	}
+
+	/**
+	 * Removes a task from the creation time index.
+	 * @param id the id of the task
+	 */
+	private void clearTime(int id) {
+		int[] ids = this.byTime.get(this.timeStamp[id]);
+		if (ids == null) return;
+		for (int i = 1; i <= ids[0]; i++) {
+			if (ids[i] != id) continue;
+			ids[i] = ids[ids[0]--]; /* the order of the ids does not matter */
+			break;
+		}
+		if (ids[0] == 0) this.byTime.remove(this.timeStamp[id]);
+	}
+
+	@Override
+	public void taskAdded(Task task) {
+		Vector<Task> stack = new Vector<Task>();
+		stack.add(task);
+		while (!stack.isEmpty()) {
+			Task node = stack.remove(stack.size() - 1);
+			this.index(node);
+			for (int i = 0; i < node.getChildCount(); i++) stack.add((Task) node.getChildAt(i));
+		}
+	}
+
+	@Override
+	public void taskRemoved(Task task) {
+		Vector<Task> stack = new Vector<Task>();
+		stack.add(task);
+		while (!stack.isEmpty()) {
+			Task node = stack.remove(stack.size() - 1);
+			this.unindex(node);
+			for (int i = 0; i < node.getChildCount(); i++) stack.add((Task) node.getChildAt(i));
+		}
+	}
+
+	@Override
+	public void taskChanged(Task task) {
+		int id = task.getIndexId();
+		if (id < 0 || id >= this.tasks.length || this.tasks[id] != task) return;
+
+		if (this.status[id] != task.getStatus()) this.setStatus(id, task.getStatus());
+		if (this.timeStamp[id] != task.getCreationTime()) {
+			this.clearTime(id);
+			this.setTime(id, task.getCreationTime());
+		}
+	}
+
+	/**
+	 * Returns a description of the index for debugging.
+	 * @return the description
+	 */
+	@Override
+	public String toString() {
+		StringBuffer buf = new StringBuffer();
+		buf.append(this.size()).append(" tasks");
+		for (short status = Task.STATUS_DONE; status <= Task.STATUS_DEFAULT; status++)
+			buf.append(", ").append(this.byStatus[status].cardinality()).append(' ').append(Task.statusName(status));
+		buf.append(", ").append(this.byTime.size()).append(" creation times");
+		if (!this.byTime.isEmpty())
+			buf.append(" from ").append(this.byTime.firstKey()).append(" to ").append(this.byTime.lastKey());
+		return buf.toString();
+	}
+}
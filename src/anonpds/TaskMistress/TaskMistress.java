@@ -107,15 +107,21 @@ public class TaskMistress {
 				/* if the tree was opened successfully, the loop is done */
 				break;
 			} catch (TaskTreeLockedException e) {
-				/* the tree is locked; ask whether to open it anyway */
-				int choice = JOptionPane.showConfirmDialog(null,
+				/* the tree is locked; ask whether to open it anyway or to only view it */
+				String[] options = { "Open anyway", "Open read-only", "Cancel" };
+				int choice = JOptionPane.showOptionDialog(null,
 				                              "Warning: the task tree may already be open! Proceed anyway?",
 				                              PROGRAM_NAME + " " + PROGRAM_VERSION,
-				                              JOptionPane.YES_NO_OPTION);
+				                              JOptionPane.YES_NO_CANCEL_OPTION,
+				                              JOptionPane.WARNING_MESSAGE,
+				                              null, options, options[0]);
 				
-				/* on yes, open the tree anyway, on no just quit the program */
-				if (choice == JOptionPane.YES_OPTION) ignoreLock = true;
-				else break;
+				/* open the tree anyway, view it read-only, or on cancel just quit the program */
+				if (choice == 0) ignoreLock = true;
+				else if (choice == 1) {
+					browseTaskTree(path);
+					break;
+				} else break;
 			} catch (Exception e) {
 				JOptionPane.showMessageDialog(null,
 				                              "Task tree load failed: " + e.getMessage(),
@@ -126,6 +132,21 @@ public class TaskMistress {
 		}
 	}
 
+	/** Prompts user for a task tree to open read-only and opens it. */
+	public static void browseTaskTree() {
+		File path = TaskMistress.showPathDialog();
+		if (path != null) browseTaskTree(path);
+	}
+
+	/**
+	 * Opens a task tree in a read-only window, which needs much less memory than the main window. The tree is not
+	 * locked, so it can be open in another window as well. The tree is loaded in the background and load errors are
+	 * reported by the window.
+	 * @param path the directory path of the task tree to open
+	 */
+	private static void browseTaskTree(File path) {
+		ArenaWindow.open(path);
+	}
 	
 	/**
 	 * Returns the configuration file. Three environment variables are examined for the directory that contains the
@@ -207,6 +228,78 @@ public class TaskMistress {
 		return(array);
 	}
 	
+	/**
+	 * Exports a task tree from the command line without opening any windows. The arguments are:
+	 * 
+	 * <pre>-export &lt;output file&gt; [-format &lt;format&gt;] [-status &lt;status,...&gt;] [-subtree &lt;path&gt;] &lt;task tree&gt;</pre>
+	 * 
+	 * The format is guessed from the output file name, if it's not given. The status filter is a comma separated list
+	 * of the exported statuses (done, undone, default) and the sub-tree is given as a dot separated list of plain
+	 * names (as returned by Task.getFullPlainName).
+	 * 
+	 * @param args the command line arguments
+	 * @return the exit code of the program
+	 */
+	private static int exportTaskTree(String[] args) {
+		String usage = "usage: -export <output file> [-format <" + Util.join(TaskExporter.FORMATS, "|") + ">] " +
+		               "[-status <done,undone,default>] [-subtree <plain.name.path>] <task tree>";
+		File output = null, path = null;
+		String format = null, status = null, subtree = null;
+
+		/* parse the arguments */
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-export")) output = new File(args[++i]);
+				else if (args[i].equals("-format")) format = args[++i];
+				else if (args[i].equals("-status")) status = args[++i];
+				else if (args[i].equals("-subtree")) subtree = args[++i];
+				else if (path == null) path = new File(args[i]);
+				else throw new Exception("unexpected argument '" + args[i] + "'");
+			}
+			if (output == null || path == null) throw new Exception("missing arguments");
+			if (format == null) format = TaskExporter.formatForFile(output);
+			if (format == null) throw new Exception("cannot guess the format of " + output.getName());
+		} catch (Exception e) {
+			String msg = (e instanceof ArrayIndexOutOfBoundsException) ? "missing option value" : e.getMessage();
+			System.err.println(PROGRAM_NAME + ": " + msg);
+			System.err.println(usage);
+			return 1;
+		}
+
+		try {
+			TaskExporter exporter = new TaskExporter(format);
+			if (status != null) {
+				/* export only the listed statuses */
+				for (short s = Task.STATUS_DONE; s <= Task.STATUS_DEFAULT; s++) exporter.setStatusFilter(s, false);
+				for (String name : status.split(",")) exporter.setStatusFilter(Task.parseStatus(name.trim()), true);
+			}
+
+			/* read the tree from disk as it is exported, without locking it, so the heap used does not grow with the
+			 * size of the tree */
+			TaskOutline tree = FileSystemTask.openOutline(path);
+
+			/* find the exported sub-tree */
+			if (subtree != null) {
+				for (String name : subtree.split("\\.")) {
+					TaskOutline child = null;
+					for (int i = 0; child == null && i < tree.getChildCount(); i++) {
+						TaskOutline task = tree.getChildAt(i);
+						if (name.equals(task.getPlainName())) child = task;
+					}
+					if (child == null) throw new Exception("no such sub-tree '" + subtree + "'");
+					tree = child;
+				}
+			}
+
+			int count = exporter.export(tree, output);
+			System.out.println(count + " tasks exported to " + output.getPath());
+		} catch (Exception e) {
+			System.err.println(PROGRAM_NAME + ": export failed: " + e.getMessage());
+			return 1;
+		}
+		return 0;
+	}
+
 	/** Saves the configuration. */
 	public static void saveConfiguration() {
 		File confFile = TaskMistress.getConfigFile();
@@ -229,6 +322,9 @@ public class TaskMistress {
 	 * @param args command line arguments (unused)
 	 */
 	public static void main(String[] args) {
+		/* command line export does not need the user interface */
+		if (args.length > 0 && args[0].equals("-export")) System.exit(exportTaskTree(args));
+
 		/* set native look and feel if possible */
 		try {
 			UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -248,7 +344,7 @@ public class TaskMistress {
 		else Debugger.addMessage(PROGRAM_NAME + " " + PROGRAM_VERSION + ", config: null");
 
 		/* try to parse it if it exists and extract the default task tree */
-		try { config = Configuration.parse(confFile); } catch (Exception e) {
+		try { config = Configuration.parseCached(confFile); } catch (Exception e) {
 			JOptionPane.showMessageDialog(null,
 			                              "Failed to parse " + confFile.getPath() + ": " + e.getMessage(),
 			                              "Warning",
@@ -260,6 +356,12 @@ public class TaskMistress {
 		/* TODO add decent command line argument handling */
 		if (args.length > 0) defaultPath = new File(args[0]);
 
+		/* -browse <task tree> opens the tree read-only, for trees too large for the main window */
+		if (args.length > 1 && args[0].equals("-browse")) {
+			browseTaskTree(new File(args[1]));
+			return;
+		}
+
 		if (defaultPath == null || !defaultPath.exists()) {
 			/* no default task tree or the default does not exist */
 			defaultPath = TaskMistress.showPathDialog();
@@ -42,23 +42,8 @@ public class TaskNodeRenderer extends DefaultTreeCellRenderer {
 	/** Resource/file name of the icon that represents default task folder. */
 	private static final String DEFAULT_FOLDER_ICON_FILE = "res/folder.gif";
 	
-	/** Icon that represents done task. */
-	private Icon doneIcon;
-
-	/** Icon that represents undone task. */
-	private Icon undoneIcon;
-
-	/** Icon that represents default task without done/undone status. */
-	private Icon defaultIcon;
-
-	/** Icon that represents folder with all tasks done. */
-	private Icon doneFolderIcon;
-
-	/** Icon that represents folder with some tasks undone. */
-	private Icon undoneFolderIcon;
-
-	/** Icon that represents folder with only default tasks. */
-	private Icon defaultFolderIcon;
+	/** The icons, indexed by the task status and by whether the task is a folder (1) or not (0). */
+	private Icon[][] icons = new Icon[Task.STATUS_DEFAULT + 1][2];
 	
 	/** Default constructor. */
 	public TaskNodeRenderer() {
@@ -84,41 +69,56 @@ public class TaskNodeRenderer extends DefaultTreeCellRenderer {
 	
 	/** Loads the icons used by the renderer. */
 	private void loadIcons() {
-		this.doneIcon = loadIcon(DONE_ICON_FILE);
-		this.undoneIcon = loadIcon(UNDONE_ICON_FILE);
-		this.defaultIcon = loadIcon(DEFAULT_ICON_FILE);
-		this.doneFolderIcon = loadIcon(DONE_FOLDER_ICON_FILE);
-		this.undoneFolderIcon = loadIcon(UNDONE_FOLDER_ICON_FILE);
-		this.defaultFolderIcon = loadIcon(DEFAULT_FOLDER_ICON_FILE);
+		this.icons[Task.STATUS_DONE][0] = loadIcon(DONE_ICON_FILE);
+		this.icons[Task.STATUS_UNDONE][0] = loadIcon(UNDONE_ICON_FILE);
+		this.icons[Task.STATUS_DEFAULT][0] = loadIcon(DEFAULT_ICON_FILE);
+		this.icons[Task.STATUS_DONE][1] = loadIcon(DONE_FOLDER_ICON_FILE);
+		this.icons[Task.STATUS_UNDONE][1] = loadIcon(UNDONE_FOLDER_ICON_FILE);
+		this.icons[Task.STATUS_DEFAULT][1] = loadIcon(DEFAULT_FOLDER_ICON_FILE);
+	}
+
+	/**
+	 * Switches a tree that uses this renderer to or from the large model mode. In the large model mode all the rows
+	 * have the same height, so the tree only measures the rows it paints and does not cache the sizes of all rows.
+	 * @param tree the tree
+	 * @param large true to switch to the large model mode, false to switch back to the normal mode
+	 */
+	public void setLargeModel(JTree tree, boolean large) {
+		tree.setRowHeight(large ? this.getRowHeight(tree) : 0);
+		tree.setLargeModel(large);
+	}
+
+	/**
+	 * Returns the height of the rows rendered by this renderer; the height of the icons or of the text, whichever is
+	 * taller.
+	 * @param tree the tree that uses the renderer
+	 * @return the row height
+	 */
+	public int getRowHeight(JTree tree) {
+		Component c = this.getTreeCellRendererComponent(tree, "Xy", false, false, true, 0, false);
+		int height = c.getPreferredSize().height;
+		for (Icon[] icons : this.icons) {
+			for (Icon icon : icons) if (icon != null) height = Math.max(height, icon.getIconHeight());
+		}
+		return height;
 	}
 	
+	/**
+	 * Returns the component that renders a node. The icon is chosen from the status of the task and the leaf flag
+	 * given by the tree, so the children of the task are never counted here.
+	 */
 	@Override
 	public Component getTreeCellRendererComponent(JTree tree, Object value, boolean sel, boolean expanded,
 						boolean leaf, int row, boolean hasFocus) {
 		/* get the default renderer */
 		super.getTreeCellRendererComponent(tree, value, sel, expanded, leaf, row, hasFocus);
 		
-		/* set the icon */
-		Task task = (Task) value;
-		Icon icon = this.defaultIcon;
-		
-		if (task == null) return this;
-		
-		if (task.getChildCount() > 0) {
-			switch (task.getStatus()) {
-			case Task.STATUS_DONE: icon = this.doneFolderIcon; break;
-			case Task.STATUS_UNDONE: icon = this.undoneFolderIcon; break;
-			case Task.STATUS_DEFAULT: icon = this.defaultFolderIcon; break;
-			}
-		} else {
-			switch (task.getStatus()) {
-			case Task.STATUS_DONE: icon = this.doneIcon; break;
-			case Task.STATUS_UNDONE: icon = this.undoneIcon; break;
-			case Task.STATUS_DEFAULT: icon = this.defaultIcon; break;
-			}
-		}
-		
-		this.setIcon(icon);
+		/* set the icon; the nodes can be tasks or handles of tasks in a TaskArena */
+		short status;
+		if (value instanceof Task) status = ((Task) value).getStatus();
+		else if (value instanceof TaskArenaModel.Node) status = ((TaskArenaModel.Node) value).getStatus();
+		else return this;
+		this.setIcon(this.icons[status][leaf ? 0 : 1]);
 		
 		return this;
 	}
@@ -0,0 +1,37 @@
+/* TaskObserver.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+/**
+ * Receives the changes made to a task tree. The observers are added to the root task of the tree and are informed of
+ * every change made to the tasks attached to it, whichever way the change is made: through the tree model, directly
+ * or by undoing a batch. The changes made to tasks that are not attached to the tree are not observed.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+interface TaskObserver {
+	/**
+	 * Called after a task has been attached to the tree, together with its sub-tree.
+	 * @param task the attached task
+	 */
+	void taskAdded(Task task);
+
+	/**
+	 * Called before a task is detached from the tree, together with its sub-tree.
+	 * @param task the task to be detached
+	 */
+	void taskRemoved(Task task);
+
+	/**
+	 * Called after the name, text, status or creation time of a task in the tree has changed.
+	 * @param task the changed task
+	 */
+	void taskChanged(Task task);
+}
@@ -0,0 +1,64 @@
+/* TaskOutline.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+/**
+ * A read-only view of a task and its sub-tree, as walked by the TaskExporter. The tasks of a snapshot are all in
+ * memory; the tasks of a tree read straight from disk (see FileSystemTask.openOutline) are read as they are walked.
+ * The children are walked in order; a view may drop the sub-trees of the children that have already been walked.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+public interface TaskOutline {
+	/**
+	 * Returns the name of the task.
+	 * @return the name of the task or null if the task is the root of a tree
+	 */
+	String getName();
+
+	/**
+	 * Returns the plain name of the task.
+	 * @return the plain name of the task
+	 */
+	String getPlainName();
+
+	/**
+	 * Returns the text of the task.
+	 * @return the text of the task
+	 */
+	String getText();
+
+	/**
+	 * Returns the creation time of the task.
+	 * @return the creation time stamp
+	 */
+	long getCreationTime();
+
+	/**
+	 * Returns the status of the task.
+	 * @return the status of the task
+	 */
+	short getStatus();
+
+	/**
+	 * Returns the number of child tasks.
+	 * @return the number of children
+	 * @throws Exception if the children can not be read
+	 */
+	int getChildCount() throws Exception;
+
+	/**
+	 * Returns a child task.
+	 * @param index the index of the child
+	 * @return the child
+	 * @throws Exception if the child can not be read
+	 */
+	TaskOutline getChildAt(int index) throws Exception;
+}
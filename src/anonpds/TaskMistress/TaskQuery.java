@@ -0,0 +1,230 @@
+/* TaskQuery.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.util.BitSet;
+
+/**
+ * A boolean filter over the tasks of a tree, answered from the index of the tree. The queries are built from the
+ * status, creation time and text conditions and combined with and(), or() and not():
+ *
+ *   TaskQuery.status(Task.STATUS_UNDONE).and(TaskQuery.createdBefore(lastWeek))
+ *
+ * The queries are immutable and can be reused. A query is run with TaskStore.query(), which evaluates the query as
+ * bitmap operations over the index instead of visiting the tasks; matches() tells whether a single task matches. The
+ * text is not indexed, so a text condition checks the tasks one by one; it is best combined with indexed conditions.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+public abstract class TaskQuery {
+	/** Constructs a query; the queries are made with the static methods. */
+	private TaskQuery() {
+	}
+
+	/**
+	 * Evaluates the query against an index.
+	 * @param index the index
+	 * @return a new bitmap of the ids of the matching tasks
+	 */
+	abstract BitSet evaluate(TaskIndex index);
+
+	/**
+	 * Tells whether a task matches the query.
+	 * @param task the task
+	 * @return true if the task matches, false if not
+	 */
+	public abstract boolean matches(Task task);
+
+	/**
+	 * Returns a query that matches every task.
+	 * @return the query
+	 */
+	public static TaskQuery all() {
+		return new TaskQuery() {
+			@Override
+			BitSet evaluate(TaskIndex index) {
+				return index.all();
+			}
+
+			@Override
+			public boolean matches(Task task) {
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns a query that matches the tasks of a status.
+	 * @param status the status
+	 * @return the query
+	 * @throws IllegalArgumentException if the status is illegal
+	 */
+	public static TaskQuery status(final short status) {
+		Task.statusName(status); /* throws on an illegal status */
+		return new TaskQuery() {
+			@Override
+			BitSet evaluate(TaskIndex index) {
+				return index.withStatus(status);
+			}
+
+			@Override
+			public boolean matches(Task task) {
+				return task.getStatus() == status;
+			}
+		};
+	}
+
+	/**
+	 * Returns a query that matches the tasks created in a time range.
+	 * @param from the start of the range, inclusive
+	 * @param to the end of the range, exclusive
+	 * @return the query
+	 */
+	public static TaskQuery createdBetween(final long from, final long to) {
+		return new TaskQuery() {
+			@Override
+			BitSet evaluate(TaskIndex index) {
+				return index.createdBetween(from, to);
+			}
+
+			@Override
+			public boolean matches(Task task) {
+				return task.getCreationTime() >= from && task.getCreationTime() < to;
+			}
+		};
+	}
+
+	/**
+	 * Returns a query that matches the tasks created at or after a time.
+	 * @param time the time
+	 * @return the query
+	 */
+	public static TaskQuery createdAfter(long time) {
+		return createdBetween(time, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Returns a query that matches the tasks created before a time.
+	 * @param time the time
+	 * @return the query
+	 */
+	public static TaskQuery createdBefore(long time) {
+		return createdBetween(Long.MIN_VALUE, time);
+	}
+
+	/**
+	 * Returns a query that matches the tasks whose name or text contains a string, ignoring case. The name is
+	 * checked first and the text only if the name does not match; a packed text is unpacked to be searched, unless
+	 * it is too short to contain the string, so a text query over a tree of packed texts unpacks most of them. The
+	 * unpacked copies are not kept.
+	 * @param text the string to look for
+	 * @return the query
+	 */
+	public static TaskQuery text(final String text) {
+		return new TaskQuery() {
+			@Override
+			BitSet evaluate(TaskIndex index) {
+				BitSet ids = index.all();
+				for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1))
+					if (!this.matches(index.getTask(id))) ids.clear(id);
+				return ids;
+			}
+
+			@Override
+			public boolean matches(Task task) {
+				if (contains(task.getName(), text)) return true;
+				Object raw = task.getRawText();
+				if (raw instanceof PackedText) {
+					if (((PackedText) raw).length() < text.length()) return false;
+					raw = ((PackedText) raw).unpack();
+				}
+				return contains((String) raw, text);
+			}
+		};
+	}
+
+	/**
+	 * Tells whether a string contains another, ignoring case.
+	 * @param string the string to search; may be null
+	 * @param part the string to look for
+	 * @return true if the string contains the other, false if not
+	 */
+	private static boolean contains(String string, String part) {
+		if (string == null) return false;
+		for (int i = 0; i + part.length() <= string.length(); i++)
+			if (string.regionMatches(true, i, part, 0, part.length())) return true;
+		return false;
+	}
+
+	/**
+	 * Returns a query that matches the tasks that match both this query and another.
+	 * @param other the other query
+	 * @return the query
+	 */
+	public TaskQuery and(final TaskQuery other) {
+		final TaskQuery self = this;
+		return new TaskQuery() {
+			@Override
+			BitSet evaluate(TaskIndex index) {
+				BitSet ids = self.evaluate(index);
+				if (!ids.isEmpty()) ids.and(other.evaluate(index));
+				return ids;
+			}
+
+			@Override
+			public boolean matches(Task task) {
+				return self.matches(task) && other.matches(task);
+			}
+		};
+	}
+
+	/**
+	 * Returns a query that matches the tasks that match this query, another or both.
+	 * @param other the other query
+	 * @return the query
+	 */
+	public TaskQuery or(final TaskQuery other) {
+		final TaskQuery self = this;
+		return new TaskQuery() {
+			@Override
+			BitSet evaluate(TaskIndex index) {
+				BitSet ids = self.evaluate(index);
+				ids.or(other.evaluate(index));
+				return ids;
+			}
+
+			@Override
+			public boolean matches(Task task) {
+				return self.matches(task) || other.matches(task);
+			}
+		};
+	}
+
+	/**
+	 * Returns a query that matches the tasks that do not match this query.
+	 * @return the query
+	 */
+	public TaskQuery not() {
+		final TaskQuery self = this;
+		return new TaskQuery() {
+			@Override
+			BitSet evaluate(TaskIndex index) {
+				BitSet ids = index.all();
+				ids.andNot(self.evaluate(index));
+				return ids;
+			}
+
+			@Override
+			public boolean matches(Task task) {
+				return !self.matches(task);
+			}
+		};
+	}
+}
@@ -0,0 +1,145 @@
+/* TaskSnapshot.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+/**
+ * An immutable snapshot of a task and its sub-tree.
+ *
+ * Snapshots are created by Task.getSnapshot() and cached by the Task until the task or one of its descendants changes.
+ * Unchanged sub-trees are shared between consecutive snapshots, so taking a snapshot of a tree where nothing has
+ * changed is free and otherwise only the changed nodes and their ancestors are copied. Since a snapshot never changes
+ * after it has been created, it can be read from any thread without locking.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+public final class TaskSnapshot implements TaskOutline {
+	/** Empty array of child snapshots, shared by all leaf snapshots. */
+	private static final TaskSnapshot[] NO_CHILDREN = new TaskSnapshot[0];
+
+	/** The name of the task. */
+	private final String name;
+
+	/** The plain name of the task. */
+	private final String plainName;
+
+	/** The text of the task; a String or a PackedText. */
+	private final Object text;
+
+	/** The creation time of the task. */
+	private final long timeStamp;
+
+	/** The status of the task. */
+	private final short status;
+
+	/** Snapshots of the child tasks. */
+	private final TaskSnapshot[] children;
+
+	/**
+	 * Constructs a new snapshot. Should only be called from Task.getSnapshot()!
+	 * @param name the name of the task
+	 * @param plainName the plain name of the task
+	 * @param text the text of the task; a String or a PackedText
+	 * @param timeStamp the creation time of the task
+	 * @param status the status of the task
+	 * @param children the snapshots of the child tasks; the array must not be changed afterwards
+	 */
+	TaskSnapshot(String name, String plainName, Object text, long timeStamp, short status, TaskSnapshot[] children) {
+		this.name = name;
+		this.plainName = plainName;
+		this.text = text;
+		this.timeStamp = timeStamp;
+		this.status = status;
+		this.children = (children.length == 0) ? NO_CHILDREN : children;
+	}
+
+	/**
+	 * Returns the name of the task.
+	 * @return the name of the task
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Returns the plain name of the task.
+	 * @return the plain name of the task
+	 */
+	public String getPlainName() {
+		return this.plainName;
+	}
+
+	/**
+	 * Returns the text of the task.
+	 * @return the text of the task
+	 */
+	public String getText() {
+		if (this.text instanceof PackedText) return ((PackedText) this.text).unpack();
+		return (String) this.text;
+	}
+
+	/**
+	 * Returns the text of the task as it is stored: a String or a PackedText.
+	 * @return the stored text
+	 */
+	Object getRawText() {
+		return this.text;
+	}
+
+	/**
+	 * Returns the creation time of the task.
+	 * @return the creation time stamp
+	 */
+	public long getCreationTime() {
+		return this.timeStamp;
+	}
+
+	/**
+	 * Returns the status of the task.
+	 * @return the status of the task
+	 */
+	public short getStatus() {
+		return this.status;
+	}
+
+	/**
+	 * Returns the number of child tasks.
+	 * @return the number of children
+	 */
+	public int getChildCount() {
+		return this.children.length;
+	}
+
+	/**
+	 * Returns a child task snapshot.
+	 * @param index the index of the child
+	 * @return the child snapshot
+	 */
+	public TaskSnapshot getChildAt(int index) {
+		return this.children[index];
+	}
+
+	/**
+	 * Counts the nodes in the snapshot.
+	 * @return the total number of nodes in the snapshot
+	 */
+	public int countNodes() {
+		int nodes = 1;
+		for (int i = 0; i < this.children.length; i++) nodes += this.children[i].countNodes();
+		return nodes;
+	}
+
+	/**
+	 * Returns the string representation of this object.
+	 * @return the string
+	 */
+	public String toString() {
+		return this.name;
+	}
+}
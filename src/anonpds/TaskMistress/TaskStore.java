@@ -10,6 +10,23 @@
 package anonpds.TaskMistress;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Vector;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
 
 import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
@@ -27,14 +44,26 @@ public class TaskStore implements TreeModelListener {
 	
 	private static final String LOCK_FILE = "tree.lck";
 
+	/** Prefix of the directories where imported tasks are written before they are attached to the tree. */
+	private static final String STAGING_PREFIX = ".import-";
+
+	/** The directory where removed tasks are kept until they are deleted from disk. */
+	private static final String TRASH_DIR = ".trash";
+
+	/** The time in milliseconds a removed task is kept in the trash before it is deleted from disk. */
+	private static final long RECLAIM_DELAY = 10 * 60 * 1000;
+
+	/** The time in milliseconds without deletions from the trash after which the blob store is collected. */
+	private static final long COLLECT_DELAY = 60 * 1000;
+
+	/** The number of recently opened tasks whose texts are kept unpacked. */
+	private static final int HOT_TEXTS = 32;
+
 	/** The meta data configuration variable of creation time. */
 	private static final String META_CREATION = "creationTime";
 
-	/** The meta data configuration variable of task tree format. */
-	private static final String META_FORMAT = "format";
-
-	/** Format string for the default "file system" format. */
-	private static final String FORMAT_FILE_SYSTEM = "fs";
+	/** The meta data configuration variable that enables deriving the status of parent tasks from the children. */
+	private static final String META_DERIVED_STATUS = "derivedStatus";
 
 	/** The tree model that contains the stored task tree. */
 	private DefaultTreeModel treeModel = new DefaultTreeModel(new Task());
@@ -44,6 +73,86 @@ public class TaskStore implements TreeModelListener {
 
 	/** The task tree configuration. */
 	private Configuration conf;
+
+	/** The currently open batch of changes or null if the changes are applied immediately. */
+	private TaskBatch batch;
+
+	/** The thread that deletes the removed tasks from disk. */
+	private Reclaimer reclaimer;
+
+	/** The owner of the room reserved in the cache of parsed files for the meta data of the tasks. */
+	private String cacheOwner;
+
+	/** Writes the tasks saved in the background, one at a time in the order they were queued. */
+	private ExecutorService saver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "TaskStore.saver");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** The number of pieces of work queued or running on the saver thread. */
+	private final AtomicInteger queued = new AtomicInteger();
+
+	/** Runs work on the saver thread, keeping count of the work that is queued or running. */
+	private final Executor saverQueue = new Executor() {
+		@Override
+		public void execute(final Runnable work) {
+			queued.incrementAndGet();
+			try {
+				saver.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							work.run();
+						} finally {
+							queued.decrementAndGet();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				queued.decrementAndGet();
+				throw e;
+			}
+		}
+	};
+
+	/** The duration of the last save in nanoseconds or -1 if nothing has been saved. */
+	private volatile long lastSaveTime = -1;
+
+	/** The number of tasks written by the last save. */
+	private volatile int lastSaveCount;
+
+	/** The options that affect how the tasks are written to disk. */
+	private StorageOptions options;
+
+	/** The store of the task texts that are kept by content instead of in the task directories. */
+	private BlobStore blobs;
+
+	/** Tells whether the status of parent tasks is derived from the status of their children. */
+	private boolean derivedStatus;
+
+	/** The index of the tasks used by the queries; built by the first query and kept up to date after that. */
+	private TaskIndex index;
+
+	/** The recently opened tasks, least recently opened first; the text of a task is packed when it is dropped. */
+	@SuppressWarnings("serial")
+	private LinkedHashMap<Task, Boolean> hotTexts = new LinkedHashMap<Task, Boolean>(HOT_TEXTS * 2, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Task, Boolean> eldest) {
+			if (this.size() <= HOT_TEXTS) return false;
+			eldest.getKey().packText();
+			return true;
+		}
+	};
+
+	/** The number of opened tasks whose text was already unpacked. */
+	private long hotHits;
+
+	/** The number of opened tasks whose text had to be unpacked. */
+	private long hotMisses;
 	
 	/**
 	 * Creates a new task store from the specified directory. The directory is created if it doesn't exist and an
@@ -69,17 +178,46 @@ public class TaskStore implements TreeModelListener {
 		if (!metaFile.exists()) {
 			this.conf = new Configuration();
 			this.conf.add(META_CREATION, System.currentTimeMillis());
-			this.conf.add(META_FORMAT, FORMAT_FILE_SYSTEM);
+			this.conf.add(StorageOptions.META_FORMAT, StorageOptions.FORMAT_FILE_SYSTEM);
 		} else {
 			/* throw an exception on error */
-			this.conf = Configuration.parse(metaFile);
+			this.conf = Configuration.parseCached(metaFile);
+		}
+		String format = this.conf.get(StorageOptions.META_FORMAT);
+		if (format != null && !format.equals(StorageOptions.FORMAT_FILE_SYSTEM) &&
+		    !format.equals(StorageOptions.FORMAT_RECORD)) {
+			throw new Exception("unknown task tree format '" + format + "'");
 		}
 		
+		this.blobs = new BlobStore(new File(path, BlobStore.BLOB_DIR));
+		this.options = new StorageOptions(this.conf, this.saverQueue, this.blobs);
+
 		/* add a listener to get information on changes to the tree; needed for task renames */
 		this.treeModel.addTreeModelListener(this);
 
-		/* load the task tree */
-		FileSystemTask.loadTree((Task) this.treeModel.getRoot(), path);
+		/* load the task tree; the tasks stored in the other layout are converted as they are saved */
+		FileSystemTask.loadTree((Task) this.treeModel.getRoot(), path, this.blobs, this.options);
+
+		/* make room for the meta data of the tasks in the cache of parsed files, so the blob collections find it there;
+		 * the room is capped by the cache and released when the tree is closed */
+		this.cacheOwner = path.getAbsolutePath();
+		Configuration.reserveCache(this.cacheOwner, this.getRoot().countNodes());
+
+		/* derive the status of the parent tasks, if enabled; the tree may have been edited with the option off */
+		this.derivedStatus = "true".equals(this.conf.get(META_DERIVED_STATUS));
+		if (this.derivedStatus) deriveStatus(this.getRoot());
+
+		/* start deleting the removed tasks; anything left in the trash or in the staging directories of imports is
+		 * from an earlier session */
+		Vector<File> leftovers = new Vector<File>();
+		File[] trash = new File(path, TRASH_DIR).listFiles();
+		if (trash != null) for (File file : trash) leftovers.add(file);
+		for (String name : path.list()) if (name.startsWith(STAGING_PREFIX)) leftovers.add(new File(path, name));
+		this.reclaimer = new Reclaimer(leftovers.toArray(new File[0]));
+		this.reclaimer.start();
+
+		/* delete the texts left unused by the earlier sessions */
+		this.collectBlobs();
 		
 		/* create the lock file to indicate that the task tree is open; set the file to be deleted on exit */
 		lockFile.createNewFile();
@@ -95,14 +233,24 @@ public class TaskStore implements TreeModelListener {
 	public void setPath(File path) throws Exception {
 		if (!path.exists() && !path.mkdirs()) throw new Exception("cannot create '" + path.getPath() + "'");
 		this.path = path;
+		this.blobs = new BlobStore(new File(path, BlobStore.BLOB_DIR));
+		this.options = new StorageOptions(this.conf, this.saverQueue, this.blobs);
 		this.getRoot().setAllDirty();
 	}
 	
 	/**
-	 * Closes the task store; writes out the configuration and any changed tasks. 
+	 * Closes the task store; writes out the configuration and any changed tasks. The removed tasks that are still in
+	 * the trash are left there and deleted the next time the store is opened.
 	 * @throws Exception on error 
 	 */
 	public void close() throws Exception {
+		/* stop deleting the removed tasks */
+		this.reclaimer.interrupt();
+
+		/* let the background saves finish */
+		this.saver.shutdown();
+		this.saver.awaitTermination(1, TimeUnit.MINUTES);
+
 		/* write the configuration */
 		File metaFile = new File(this.path, META_FILE);
 		this.conf.store(metaFile);
@@ -113,6 +261,9 @@ public class TaskStore implements TreeModelListener {
 		/* remove the lock file */
 		File lockFile = new File(this.path, LOCK_FILE);
 		lockFile.delete();
+
+		/* give back the room of the tree in the cache of parsed files */
+		Configuration.reserveCache(this.cacheOwner, 0);
 	}
 	
 	/**
@@ -131,9 +282,10 @@ public class TaskStore implements TreeModelListener {
 	 */
 	public void setVariable(String name, String value) {
 		if (META_CREATION.equals(name)) return;
-		if (META_FORMAT.equals(name)) return;
+		if (StorageOptions.META_FORMAT.equals(name)) return;
 		
 		this.conf.add(name, value);
+		this.options = new StorageOptions(this.conf, this.saverQueue, this.blobs);
 	}
 	
 	/**
@@ -152,6 +304,40 @@ public class TaskStore implements TreeModelListener {
 		return (Task) this.treeModel.getRoot();
 	}
 
+	/**
+	 * Returns an immutable snapshot of the whole task tree. Only the tasks that have changed since the previous
+	 * snapshot are copied, so this is cheap to call often. The snapshot must be taken on the event dispatch thread,
+	 * but it can then be handed to background threads (for saving, exporting etc.) which can read it without locking
+	 * while the user keeps editing the tree.
+	 * @return snapshot of the task tree
+	 */
+	public TaskSnapshot snapshot() {
+		return this.getRoot().getSnapshot();
+	}
+
+	/**
+	 * Returns the tasks that match a query, ordered by creation time. The query is answered from the index of the
+	 * tree, which is built when the first query is made and updated as the tree changes; the tasks that do not match
+	 * are not visited.
+	 * @param query the query
+	 * @return the matching tasks
+	 */
+	public Vector<Task> query(TaskQuery query) {
+		return this.query(query, null);
+	}
+
+	/**
+	 * Returns the tasks of a sub-tree that match a query, ordered by creation time. Only the ancestors of the
+	 * matching tasks are visited to find out whether they are in the sub-tree; the rest of the sub-tree is not.
+	 * @param query the query
+	 * @param scope the root of the sub-tree; the task itself can match too
+	 * @return the matching tasks
+	 */
+	public Vector<Task> query(TaskQuery query, Task scope) {
+		if (this.index == null) this.index = new TaskIndex(this.getRoot());
+		return this.index.getTasks(query.evaluate(this.index), scope);
+	}
+
 	/**
 	 * Adds a named node as a child of the given node. All add operations should be made through this function!
 	 * @param parent the parent node
@@ -159,15 +345,399 @@ public class TaskStore implements TreeModelListener {
 	 * @return the added node
 	 */
 	public Task add(Task parent, String name) {
-		Task task = new FileSystemTask(null, name, "", System.currentTimeMillis(), true);
-		this.treeModel.insertNodeInto(task, parent, parent.getChildCount());
+		final Task task = new FileSystemTask(null, name, "", System.currentTimeMillis(), true);
+		this.insertNode(task, parent, parent.getChildCount());
+		if (this.batch != null) {
+			this.batch.touch(task);
+			this.batch.addUndo(new TaskBatch.Undo() {
+				@Override
+				public void undo() {
+					task.removeFromParent();
+				}
+			});
+		}
 		
 		// mark the parent as dirty to update the index
 		parent.setDirty(true);
+		this.rollUp(parent);
 		
 		return(task);
 	}
 
+	/**
+	 * Tells whether the status of parent tasks is derived from the status of their children.
+	 * @return true if the status is derived, false if not
+	 */
+	public boolean isDerivedStatus() {
+		return this.derivedStatus;
+	}
+
+	/**
+	 * Sets whether the status of parent tasks is derived from the status of their children. The setting is stored in
+	 * the task tree configuration. When enabled, the status of all the parent tasks is derived at once and the tree
+	 * model is informed of the changed tasks with one event for each parent.
+	 * @param derived true to derive the status, false not to
+	 */
+	public void setDerivedStatus(boolean derived) {
+		this.conf.add(META_DERIVED_STATUS, derived ? "true" : "false");
+		if (derived == this.derivedStatus) return;
+		this.derivedStatus = derived;
+		if (!derived) return;
+
+		/* derive the status in a batch, so the events are coalesced */
+		TaskBatch outer = this.batch;
+		if (outer == null) this.batch = new TaskBatch();
+		this.deriveSubtree(this.getRoot());
+		if (outer != null) return;
+		TaskBatch batch = this.batch;
+		this.batch = null;
+		batch.fireEvents(this.treeModel);
+	}
+
+	/**
+	 * Derives the status of a task and its descendants from their children, without any tree model events.
+	 * @param task the task
+	 * @return true if the status of any task changed, false if not
+	 */
+	private static boolean deriveStatus(Task task) {
+		boolean changed = false;
+		for (int i = 0; i < task.getChildCount(); i++) changed |= deriveStatus((Task) task.getChildAt(i));
+		if (task.isRoot() || task.getStatus() == task.getDerivedStatus()) return changed;
+		try { task.setStatus(task.getDerivedStatus()); } catch (Exception e) { /* cannot happen */ }
+		return true;
+	}
+
+	/**
+	 * Sets the status of a task. If the status of parent tasks is derived, the change is propagated to the ancestors
+	 * of the task; the propagation stops at the first ancestor whose status does not change, and only the tasks whose
+	 * status changed are reported to the tree model.
+	 * @param task the task
+	 * @param status the new status
+	 * @throws Exception if the status is illegal
+	 */
+	public void setStatus(Task task, short status) throws Exception {
+		if (task.getStatus() == status) return;
+		this.changeStatus(task, status);
+		this.rollUp((Task) task.getParent());
+	}
+
+	/**
+	 * Sets the status of a task and all its sub-tasks in one pass. The tree model is informed of the changed tasks
+	 * with one event for each parent, and the changed tasks are written to disk in one go on the saver thread; of the
+	 * tasks that had no other unsaved changes, only the meta data is written. If a batch is open, the changes are
+	 * made in the batch and written when it is committed instead.
+	 * @param node the root of the sub-tree
+	 * @param status the new status
+	 * @return the number of tasks whose status changed
+	 * @throws Exception if the status is illegal
+	 */
+	public int setSubtreeStatus(Task node, short status) throws Exception {
+		Task.statusName(status); /* throws on an illegal status */
+
+		/* make the changes in a batch, so the events are coalesced */
+		TaskBatch outer = this.batch;
+		if (outer == null) this.batch = new TaskBatch();
+
+		/* change the sub-tree, remembering which of the tasks were saved before the change */
+		Vector<Task> changed = new Vector<Task>();
+		Vector<Boolean> clean = new Vector<Boolean>();
+		Vector<Task> stack = new Vector<Task>();
+		stack.add(node);
+		while (!stack.isEmpty()) {
+			Task task = stack.remove(stack.size() - 1);
+			for (int i = task.getChildCount() - 1; i >= 0; i--) stack.add((Task) task.getChildAt(i));
+			if (task.isRoot() || task.getStatus() == status) continue;
+			changed.add(task);
+			clean.add(!task.isDirty());
+			this.changeStatus(task, status);
+		}
+
+		/* derive the status of the ancestors */
+		Vector<Task> ancestors = new Vector<Task>();
+		Vector<Short> oldStatus = new Vector<Short>();
+		Vector<Boolean> ancestorClean = new Vector<Boolean>();
+		for (Task task = (Task) node.getParent(); task != null && !task.isRoot(); task = (Task) task.getParent()) {
+			ancestors.add(task);
+			oldStatus.add(task.getStatus());
+			ancestorClean.add(!task.isDirty());
+		}
+		this.rollUp((Task) node.getParent());
+		for (int i = 0; i < ancestors.size(); i++) {
+			if (ancestors.get(i).getStatus() == oldStatus.get(i)) continue;
+			changed.add(ancestors.get(i));
+			clean.add(ancestorClean.get(i));
+		}
+		if (outer != null) return changed.size();
+
+		/* inform the tree model and write the changed tasks */
+		TaskBatch batch = this.batch;
+		this.batch = null;
+		batch.fireEvents(this.treeModel);
+
+		Vector<PendingSave> saves = new Vector<PendingSave>();
+		for (int i = 0; i < changed.size(); i++) {
+			Task task = changed.get(i);
+			saves.add(new PendingSave(task, this.getNodePath(task), clean.get(i)));
+		}
+		this.flush(saves);
+		return changed.size();
+	}
+
+	/**
+	 * Derives the status of a task and its ancestors after the status or the children of the task have changed. Does
+	 * nothing if the status of parent tasks is not derived.
+	 * @param task the task whose status to derive
+	 */
+	private void rollUp(Task task) {
+		if (!this.derivedStatus) return;
+		for (; task != null && !task.isRoot(); task = (Task) task.getParent()) {
+			short status = task.getDerivedStatus();
+			if (status == task.getStatus()) break;
+			try { this.changeStatus(task, status); } catch (Exception e) { break; /* cannot happen */ }
+		}
+	}
+
+	/**
+	 * Derives the status of the parent tasks in a sub-tree from their children, reporting each change to the tree
+	 * model, as rollUp() does for the ancestors. Does nothing if the status of parent tasks is not derived.
+	 * @param task the root of the sub-tree
+	 */
+	private void deriveSubtree(Task task) {
+		if (!this.derivedStatus || task.getChildCount() == 0) return;
+		for (int i = 0; i < task.getChildCount(); i++) this.deriveSubtree((Task) task.getChildAt(i));
+		short status = task.getDerivedStatus();
+		if (task.isRoot() || status == task.getStatus()) return;
+		try { this.changeStatus(task, status); } catch (Exception e) { /* cannot happen */ }
+	}
+
+	/**
+	 * Changes the status of a task and reports the change to the tree model.
+	 * @param task the task
+	 * @param status the new status
+	 * @throws Exception if the status is illegal
+	 */
+	private void changeStatus(final Task task, short status) throws Exception {
+		final short oldStatus = task.getStatus();
+		task.setStatus(status);
+		if (this.batch != null) {
+			this.batch.addUndo(new TaskBatch.Undo() {
+				@Override
+				public void undo() {
+					try { task.setStatus(oldStatus); } catch (Exception e) { /* cannot happen */ }
+				}
+			});
+		}
+		this.nodeChanged(task);
+	}
+
+	/**
+	 * Writes a detached tree of imported tasks to a staging directory inside the task tree directory. This does not
+	 * touch the task tree itself, so it can be called from a background thread; the tasks must not be used by any
+	 * other thread until they are attached with attachImport().
+	 * @param tasks the detached root node whose children are the imported tasks
+	 * @return the staging directory
+	 * @throws Exception on IO errors
+	 */
+	public File stageImport(Task tasks) throws Exception {
+		String name = STAGING_PREFIX + System.currentTimeMillis();
+		File staging = new File(this.path, name);
+		for (int i = 1; staging.exists(); i++) staging = new File(this.path, name + "-" + i);
+		if (!staging.mkdirs()) throw new Exception("cannot create '" + staging.getPath() + "'");
+
+		FileSystemTask.saveTree(tasks, staging, this.options);
+		packTexts(tasks);
+		return staging;
+	}
+
+	/**
+	 * Packs the texts of a task and its children.
+	 * @param task the task
+	 */
+	private static void packTexts(Task task) {
+		task.packText();
+		for (int i = 0; i < task.getChildCount(); i++) packTexts((Task) task.getChildAt(i));
+	}
+
+	/**
+	 * Tells the store that a task has been opened for viewing. The text of the task is unpacked and kept unpacked
+	 * until enough other tasks have been opened.
+	 * @param task the opened task
+	 */
+	public void openText(Task task) {
+		if (task.unpackText()) this.hotMisses++;
+		else this.hotHits++;
+		this.hotTexts.put(task, Boolean.TRUE);
+	}
+
+	/**
+	 * Returns statistics of the task texts held in memory.
+	 * @return the statistics as lines of text
+	 */
+	public String getTextStatistics() {
+		/* unpacked tasks, unpacked characters, packed tasks, packed characters and packed bytes */
+		long[] counts = new long[5];
+		countTexts(this.getRoot(), counts);
+
+		long packedSize = counts[3] * 2;
+		long saved = packedSize - counts[4];
+		long opened = this.hotHits + this.hotMisses;
+		StringBuffer buffer = new StringBuffer();
+		buffer.append("Unpacked texts: " + counts[0] + " (" + counts[1] * 2 + " bytes)\n");
+		buffer.append("Packed texts: " + counts[2] + " (" + counts[4] + " bytes, " + packedSize + " unpacked)\n");
+		buffer.append("Memory saved: " + saved + " bytes\n");
+		buffer.append("Opened tasks: " + opened + ", " + this.hotHits + " already unpacked" +
+		              (opened > 0 ? " (" + (100 * this.hotHits / opened) + "%)" : "") + "\n");
+		buffer.append("Texts unpacked in total: " + PackedText.getUnpackCount() + "\n");
+		return buffer.toString();
+	}
+
+	/**
+	 * Counts the texts of a task and its children.
+	 * @param task the task
+	 * @param counts unpacked tasks, unpacked characters, packed tasks, packed characters and packed bytes
+	 */
+	private static void countTexts(Task task, long[] counts) {
+		Object text = task.getRawText();
+		if (text instanceof PackedText) {
+			counts[2]++;
+			counts[3] += ((PackedText) text).length();
+			counts[4] += ((PackedText) text).getPackedSize();
+		} else if (text != null) {
+			counts[0]++;
+			counts[1] += ((String) text).length();
+		}
+		for (int i = 0; i < task.getChildCount(); i++) countTexts((Task) task.getChildAt(i), counts);
+	}
+
+	/**
+	 * Returns statistics of the tree and of the saves. Unlike getTextStatistics(), these are read from counts that
+	 * are kept up to date as the tree changes, so they are cheap enough to read repeatedly, even on a large tree.
+	 * @return the statistics, one per line
+	 */
+	public String getStatistics() {
+		Task root = this.getRoot();
+		StringBuffer buffer = new StringBuffer();
+		int unsaved = root.getSubtreeDirty() - (root.isDirty() ? 1 : 0); /* the root is not a task */
+		buffer.append("Tasks: " + (root.countNodes() - 1) + " (" + unsaved + " unsaved)\n");
+		buffer.append("Texts in memory: " + root.getSubtreeUnpacked() + " unpacked, " + root.getSubtreePacked() +
+		              " packed\n");
+		long time = this.lastSaveTime;
+		if (time < 0) buffer.append("Last save: none\n");
+		else buffer.append("Last save: " + this.lastSaveCount + " tasks in " + (time / 1000) / 1000.0 + " ms\n");
+		buffer.append("Queued saves: " + this.queued.get() + "\n");
+		buffer.append("Estimated tree heap: " + root.getSubtreeBytes() / 1024 + " kB\n");
+		return buffer.toString();
+	}
+
+	/**
+	 * Returns the estimated heap size of the sub-tree of a task: the tasks, their names and their texts as they are
+	 * held in memory. The estimate is kept up to date as the tree changes, so this does not traverse the sub-tree.
+	 * @param task the root of the sub-tree
+	 * @return the estimated size in bytes
+	 */
+	public long getFootprint(Task task) {
+		return task.getSubtreeBytes();
+	}
+
+	/**
+	 * Returns the tasks whose sub-trees have the largest estimated heap size, the largest first. The sub-trees of the
+	 * returned tasks may contain each other. A sub-tree is never smaller than the sub-trees within it, so the tasks
+	 * are found by a best-first search from the root that only looks at the children of the returned tasks.
+	 * @param count the maximum number of tasks to return
+	 * @return the tasks
+	 */
+	public Vector<Task> getHeaviestSubtrees(int count) {
+		PriorityQueue<Task> queue = new PriorityQueue<Task>(16, new Comparator<Task>() {
+			@Override
+			public int compare(Task a, Task b) {
+				long bytesA = a.getSubtreeBytes(), bytesB = b.getSubtreeBytes();
+				return (bytesA > bytesB) ? -1 : (bytesA == bytesB) ? 0 : 1;
+			}
+		});
+		Task root = this.getRoot();
+		for (int i = 0; i < root.getChildCount(); i++) queue.add((Task) root.getChildAt(i));
+
+		Vector<Task> heaviest = new Vector<Task>();
+		while (heaviest.size() < count && !queue.isEmpty()) {
+			Task task = queue.poll();
+			heaviest.add(task);
+			for (int i = 0; i < task.getChildCount(); i++) queue.add((Task) task.getChildAt(i));
+		}
+		return heaviest;
+	}
+
+	/**
+	 * Attaches imported tasks under a node. The tasks are attached in a batch: the task directories written by
+	 * stageImport() are renamed into the directory of the parent, the index of the parent is written once and the
+	 * tree model is informed of the new tasks when the batch is committed. If any of the renames fails, the tasks
+	 * already moved are moved back and none of the tasks is attached. The staging directory is removed in either case.
+	 * @param parent the node under which to attach the tasks
+	 * @param tasks the detached root node whose children are the imported tasks
+	 * @param staging the staging directory returned by stageImport()
+	 * @return the number of top-level tasks attached
+	 * @throws Exception if a batch is open, if the parent is no longer in the tree or on IO errors
+	 */
+	public int attachImport(Task parent, Task tasks, File staging) throws Exception {
+		Task[] children = new Task[tasks.getChildCount()];
+		try {
+			if (this.batch != null) throw new Exception("cannot attach an import in a batch");
+			/* the parent may have been removed while the tasks were staged */
+			if (parent.getRoot() != this.getRoot()) throw new Exception("the parent task is no longer in the tree");
+
+			this.beginBatch();
+			try {
+				/* move the tasks under the parent; the plain names may change if they clash with the children */
+				final File parentPath = this.getNodePath(parent);
+				for (int i = 0; i < children.length; i++) children[i] = (Task) tasks.getChildAt(i);
+				for (final Task child : children) {
+					final File oldPath = new File(staging, child.getPlainName());
+					this.insertNode(child, parent, parent.getChildCount());
+					this.batch.addUndo(new TaskBatch.Undo() {
+						@Override
+						public void undo() {
+							child.removeFromParent();
+						}
+					});
+					final File newPath = new File(parentPath, child.getPlainName());
+					this.perform(new TaskBatch.DiskAction() {
+						/** Tells whether the directory was moved. */
+						private boolean moved;
+
+						@Override
+						void apply() throws Exception {
+							if (!parentPath.exists() && !parentPath.mkdirs())
+								throw new Exception("cannot create '" + parentPath + "'");
+							Files.move(oldPath.toPath(), newPath.toPath(), StandardCopyOption.ATOMIC_MOVE);
+							this.moved = true;
+						}
+
+						@Override
+						void undo() throws Exception {
+							if (this.moved)
+								Files.move(newPath.toPath(), oldPath.toPath(), StandardCopyOption.ATOMIC_MOVE);
+							this.moved = false;
+						}
+					});
+				}
+
+				/* the index of the parent is written when the batch is committed; the imported tasks keep the status
+				 * they had in the import, so it is derived for them before the ancestors of the parent */
+				parent.setDirty(true);
+				for (Task child : children) this.deriveSubtree(child);
+				this.rollUp(parent);
+			} catch (Exception e) {
+				this.rollbackBatch();
+				throw e;
+			}
+			this.commitBatch();
+		} finally {
+			/* only the index written by saveTree is left in the staging directory, unless the import failed */
+			this.deleteDirectory(staging);
+		}
+
+		return children.length;
+	}
+
 	/**
 	 * Returns the file system path of the node.
 	 * @param node the node to query
@@ -193,81 +763,223 @@ public class TaskStore implements TreeModelListener {
 	}
 	
 	/**
-	 * Deletes a directory and all its contents recursively.
+	 * Deletes a directory and all its contents recursively. Only the files of the task storage are deleted.
 	 * @param path the directory to delete
+	 * @return the number of bytes in the files that were deleted
 	 */
-	private void deleteDirectory(File path) {
-		if (!path.isDirectory()) return;
+	private long deleteDirectory(File path) {
+		if (!path.isDirectory()) return 0;
 		
-		/* recurse into sub-directories */
+		/* recurse into sub-directories; the sizes of the files are taken before the task files are removed */
+		long freed = 0;
 		File[] files = path.listFiles();
-		for (File file : files) {
-			if (file.isDirectory()) {
-				deleteDirectory(file); /* recurse on directories */
-				file.delete();
+		if (files == null) return 0;
+		long[] sizes = new long[files.length];
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].isDirectory()) {
+				freed += deleteDirectory(files[i]); /* recurse on directories */
+				files[i].delete();
+			} else {
+				sizes[i] = files[i].length();
 			}
 		}
 		
-		/* remove the task files */
+		/* remove the task files and count the files that are gone */
 		FileSystemTask.removeTaskFiles(path);
+		FileSystemTask.removeIndex(path);
+		for (int i = 0; i < files.length; i++) if (sizes[i] > 0 && !files[i].exists()) freed += sizes[i];
 
 		/* attempt to delete the directory when all sub-directories are clear; this may and should fail if there are
 		 * any files left that are not related to the task storage. */
 		path.delete();
+		return freed;
 	}
 	
 	/**
 	 * Removes a node and all its children from the tree.
 	 * @param node the node to remove
 	 */
-	public void remove(Task node) {
+	public void remove(final Task node) {
 		if (node.isRoot()) return; /* never remove the root node */
 		
-		/* delete the file system path of the node and its children */
-		File path = this.getNodePath(node);
-		this.deleteDirectory(path);
+		/* store the file system path and the location of the node in the tree */
+		final File path = this.getNodePath(node);
+		final Task parent = (Task) node.getParent();
+		final int index = parent.getIndex(node);
 
 		/* remove the node from the tree */
-		this.treeModel.removeNodeFromParent(node);
+		this.removeNode(node);
+		if (this.batch != null) {
+			this.batch.addUndo(new TaskBatch.Undo() {
+				@Override
+				public void undo() {
+					parent.insert(node, index);
+				}
+			});
+		}
 		
 		// mark parent node dirty to update the index
-		if (node.getParent() != null) ((Task)node.getParent()).setDirty(true);
+		parent.setDirty(true);
+		this.rollUp(parent);
+
+		/* move the directory of the node and its children to the trash with a single rename; the reclaimer deletes
+		 * it later, until then the removal can be undone. The unsaved changes of the sub-tree are written first, so
+		 * the sub-tree can be dropped from memory and read back from the trash when it is restored. */
+		final File trashPath = new File(this.path, TRASH_DIR);
+		final TrashEntry entry = new TrashEntry(node, parent, index, node.getPlainName());
+		try {
+			this.perform(new TaskBatch.DiskAction() {
+				@Override
+				void apply() throws Exception {
+					if (!path.exists()) return;
+					if (node.getSubtreeDirty() > 0) FileSystemTask.saveTree(node, path, options);
+					if (!trashPath.exists() && !trashPath.mkdir()) throw new Exception("cannot create " + trashPath);
+					String name = System.currentTimeMillis() + "-" + path.getName();
+					File dest = new File(trashPath, name);
+					for (int i = 1; dest.exists(); i++) dest = new File(trashPath, name + "-" + i);
+					Files.move(path.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+					entry.path = dest;
+					entry.node = null;
+				}
+
+				@Override
+				void undo() throws Exception {
+					if (entry.path != null) Files.move(entry.path.toPath(), path.toPath());
+					entry.path = null;
+					entry.node = node;
+				}
+
+				@Override
+				void finish() {
+					reclaimer.add(entry);
+				}
+			});
+		} catch (Exception e) {
+			Debugger.addMessage("TaskStore.remove: cannot delete " + path.getPath() + ": " + e.getMessage());
+		}
 	}
-	
+
+	/**
+	 * Restores the most recently removed task that has not yet been deleted from disk. The task is put back where it
+	 * was removed from, or under the root node if its old parent is no longer in the tree. A task that was moved to
+	 * the trash is read back from disk with its sub-tree, so the restored task is a new object.
+	 * @return the restored task or null if there is nothing to restore
+	 * @throws Exception if a batch is open or on IO errors
+	 */
+	public Task undelete() throws Exception {
+		if (this.batch != null) throw new Exception("cannot undelete in a batch");
+
+		TrashEntry entry = this.reclaimer.takeLatest();
+		if (entry == null) return null;
+
+		/* read the sub-tree back from the trash, under its old plain name */
+		Task node = entry.node;
+		if (entry.path != null) {
+			node = FileSystemTask.loadSubtree(entry.path, this.blobs, this.options);
+			if (node == null) throw new Exception("'" + entry.path.getPath() + "' contains no task");
+			node.setPlainName(entry.plainName);
+		}
+
+		/* put the node back in the tree; the plain name is changed if a sibling has taken it */
+		Task parent = entry.parent;
+		int index = entry.index;
+		if (parent.getRoot() != this.getRoot()) parent = this.getRoot();
+		if (index < 0 || index > parent.getChildCount()) index = parent.getChildCount();
+		this.insertNode(node, parent, index);
+
+		/* move the directory back from the trash; on failure it is left there and deleted when the store is opened
+		 * again */
+		if (entry.path != null) {
+			try {
+				Files.move(entry.path.toPath(), this.getNodePath(node).toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (Exception e) {
+				this.removeNode(node);
+				throw e;
+			}
+		}
+
+		// mark parent node dirty to update the index
+		parent.setDirty(true);
+		this.rollUp(parent);
+
+		return node;
+	}
+
 	/**
 	 * Renames a task.
 	 * @param node the node that contains the task to rename
 	 * @param name the new name of the task
 	 */
-	public void rename(Task node, String name) {
+	public void rename(final Task node, String name) {
 		/* don't rename if null name or name hasn't changed */
 		if (name == null || name.compareTo(node.getName()) == 0) return;
 		
-		/* store the old task folder and plain name */
-		File path = this.getNodePath(node);
-		String plainName = node.getPlainName();
+		/* store the old task folder, name and plain name */
+		final File path = this.getNodePath(node);
+		final String oldName = node.getName();
+		final String plainName = node.getPlainName();
 		
 		/* rename the task */
 		node.setName(name);
+		if (this.batch != null) {
+			this.batch.nodeChanged(node);
+			this.batch.addUndo(new TaskBatch.Undo() {
+				@Override
+				public void undo() {
+					node.setName(oldName);
+					node.setPlainName(plainName);
+				}
+			});
+		}
 		
-		/* no need to rename, if the plain name hasn't changed */
-		if (node.getPlainName().compareTo(plainName) == 0) return;
+		/* no need to rename, if the plain name hasn't changed; the views still need to know of the new name */
+		if (node.getPlainName().compareTo(plainName) == 0) {
+			this.nodeChanged(node);
+			return;
+		}
 		
 		/* rename the folder */
-		path.renameTo(this.getNodePath(node));
+		final File newPath = this.getNodePath(node);
+		try {
+			this.perform(new TaskBatch.DiskAction() {
+				/** Tells whether the folder was renamed. */
+				private boolean done;
+
+				@Override
+				void apply() throws Exception {
+					if (!path.exists()) return; /* not written out yet */
+					Files.move(path.toPath(), newPath.toPath(), StandardCopyOption.ATOMIC_MOVE);
+					this.done = true;
+				}
+
+				@Override
+				void undo() throws Exception {
+					if (this.done) Files.move(newPath.toPath(), path.toPath(), StandardCopyOption.ATOMIC_MOVE);
+					this.done = false;
+				}
+			});
+		} catch (Exception e) {
+			Debugger.addMessage("TaskStore.rename: cannot rename " + path.getPath() + ": " + e.getMessage());
+		}
 		
 		/* update the treeModel, so the node will be repainted in the tree view */
-		this.treeModel.nodeChanged(node);
+		this.nodeChanged(node);
 	}
 	
 	/**
 	 * Moves a node and all its children under another node.
+	 * 
+	 * On disk only the directory of the node is renamed and the indexes of the old and the new parent are rewritten.
+	 * The steps are ordered so that the tree can be loaded after a crash at any point: first the index of the new
+	 * parent is written with the node in it (the loader skips index entries whose directory does not exist), then
+	 * the directory is renamed and finally the index of the old parent is written without the node.
+	 * 
 	 * @param dest the destination node
 	 * @param node the node to move
 	 * @param index the index to move the node to (negative to move to the end of the list)
-	 * @throws Exception when the move is not possible
+	 * @throws Exception when the move is not possible or on IO errors
 	 */
-	public void move(Task dest, int index, Task node) throws Exception {
+	public void move(final Task dest, int index, final Task node) throws Exception {
 		/* never move root node or a node unto itself */
 		if (node.isRoot() || node == dest) return;
 
@@ -275,23 +987,302 @@ public class TaskStore implements TreeModelListener {
 		for (Task child = dest; child != null; child = (Task) child.getParent())
 			if (child == node) throw new Exception("Cannot move node under itself!");
 
-		// mark the old parent dirty to update the index
-		((Task)node.getParent()).setDirty(true);
+		/* store the location of the node in the tree and the indexes before the move */
+		final Task oldParent = (Task) node.getParent();
+		final int oldIndex = oldParent.getIndex(node);
+		final String plainName = node.getPlainName();
+		final String[] oldParentIndex = FileSystemTask.getChildNames(oldParent);
+		final String[] destIndex = FileSystemTask.getChildNames(dest);
 		
-		/* save the file system path of the old node location */
-		File oldPath = this.getNodePath(node);
+		/* save the file system paths of the old node location */
+		final File oldPath = this.getNodePath(node);
+		final File oldParentPath = oldPath.getParentFile();
 
 		/* remove the node and add it under the destination node */
-		this.treeModel.removeNodeFromParent(node);
-		if (index < 0) index = dest.getChildCount();
-		this.treeModel.insertNodeInto(node, dest, index);
+		this.removeNode(node);
+		if (index < 0 || index > dest.getChildCount()) index = dest.getChildCount();
+		this.insertNode(node, dest, index);
+		if (this.batch != null) {
+			this.batch.addUndo(new TaskBatch.Undo() {
+				@Override
+				public void undo() {
+					node.removeFromParent();
+					oldParent.insert(node, oldIndex);
+					node.setPlainName(plainName);
+				}
+			});
+		}
+		
+		this.rollUp(oldParent);
+		this.rollUp(dest);
+
+		/* the indexes after the move */
+		final String[] newOldParentIndex = FileSystemTask.getChildNames(oldParent);
+		final String[] newDestIndex = FileSystemTask.getChildNames(dest);
+		
+		/* update the file system: write the index of the destination, move the task directory and write the index
+		 * of the old parent */
+		final File newPath = this.getNodePath(node);
+		final File destPath = newPath.getParentFile();
+		final boolean sameParent = (oldParent == dest);
+		this.perform(new TaskBatch.DiskAction() {
+			/** Tells whether the directory was moved. */
+			private boolean moved;
+
+			@Override
+			void apply() throws Exception {
+				if (!destPath.exists() && !destPath.mkdirs()) throw new Exception("cannot create " + destPath);
+				FileSystemTask.saveIndex(newDestIndex, destPath);
+				if (!oldPath.equals(newPath) && oldPath.exists()) {
+					Files.move(oldPath.toPath(), newPath.toPath(), StandardCopyOption.ATOMIC_MOVE);
+					this.moved = true;
+				}
+				if (!sameParent && oldParentPath.exists()) FileSystemTask.saveIndex(newOldParentIndex, oldParentPath);
+			}
+
+			@Override
+			void undo() throws Exception {
+				if (!sameParent && oldParentPath.exists()) FileSystemTask.saveIndex(oldParentIndex, oldParentPath);
+				if (this.moved) Files.move(newPath.toPath(), oldPath.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				this.moved = false;
+				FileSystemTask.saveIndex(destIndex, destPath);
+			}
+		});
+	}
+
+	/**
+	 * Moves several nodes and their children under another node in a single batch. Nodes that are under other moved
+	 * nodes are moved along with them. The nodes are placed in the destination in the given order.
+	 * @param dest the destination node
+	 * @param index the index to move the nodes to (negative to move to the end of the list)
+	 * @param nodes the nodes to move
+	 * @throws Exception when the move is not possible or on IO errors; in that case none of the nodes is moved
+	 */
+	public void move(Task dest, int index, Task[] nodes) throws Exception {
+		boolean ownBatch = (this.batch == null);
+		if (ownBatch) this.beginBatch();
+
+		try {
+			for (Task node : nodes) {
+				/* skip nodes that are moved along with their ancestors */
+				boolean skip = false;
+				for (Task other : nodes) if (other != node && node.isNodeAncestor(other)) skip = true;
+				if (skip || node.isRoot() || node == dest) continue;
+
+				/* adjust the index if the node is moved from before it in the same parent */
+				if (index >= 0 && node.getParent() == dest && dest.getIndex(node) < index) index--;
+				this.move(dest, index, node);
+				if (index >= 0) index = dest.getIndex(node) + 1;
+			}
+		} catch (Exception e) {
+			if (ownBatch) this.rollbackBatch();
+			throw e;
+		}
+
+		if (ownBatch) this.commitBatch();
+	}
+
+	/**
+	 * Copies a node and all its children under another node. The copied tasks share their texts with the originals
+	 * until one of them is edited. The copies are written to disk at once in one pass; the text files of the tasks
+	 * that haven't changed since they were last saved are copied as files instead of being written out again.
+	 * @param dest the destination node
+	 * @param index the index to copy the node to (negative to copy to the end of the list)
+	 * @param node the node to copy
+	 * @return the copy of the node
+	 * @throws Exception when the copy is not possible or on IO errors
+	 */
+	public Task copy(final Task dest, int index, Task node) throws Exception {
+		if (node.isRoot()) throw new Exception("Cannot copy the root node!");
+
+		/* make the copy and add it to the tree */
+		final Map<Task, Task> sources = new IdentityHashMap<Task, Task>();
+		final Task copy = FileSystemTask.copyTree(node, sources);
+		if (index < 0 || index > dest.getChildCount()) index = dest.getChildCount();
+		this.insertNode(copy, dest, index);
+		if (this.batch != null) {
+			this.batch.addUndo(new TaskBatch.Undo() {
+				@Override
+				public void undo() {
+					copy.removeFromParent();
+				}
+			});
+		}
 		
 		// mark the new parent dirty to update the index
 		dest.setDirty(true);
-		writeOut(dest);
-		
-		/* update the file system: move the task directory */
-		oldPath.renameTo(this.getNodePath(node));
+		this.rollUp(dest);
+
+		/* write the copies out and update the index of the destination */
+		final File path = this.getNodePath(copy);
+		this.perform(new TaskBatch.DiskAction() {
+			@Override
+			void apply() throws Exception {
+				saveCopy(copy, path, sources);
+				File destPath = path.getParentFile();
+				if (dest.isRoot() || !dest.isDirty()) FileSystemTask.saveIndex(dest, destPath);
+				else ((FileSystemTask) dest).save(destPath, null, options);
+			}
+
+			@Override
+			void undo() throws Exception {
+				deleteDirectory(path);
+			}
+		});
+
+		return copy;
+	}
+
+	/**
+	 * Writes out a copied tree. The text file of an original task is copied, if the original hasn't changed since it
+	 * was saved and it still shares its text with the copy. Hard links are not used, because the task files are
+	 * rewritten in place when they are saved, which would change the text of both tasks.
+	 * @param copy the copied task
+	 * @param path the directory to write the task to
+	 * @param sources map of the original task of each copy
+	 * @return the number of tasks written
+	 * @throws Exception on IO errors
+	 */
+	private int saveCopy(Task copy, File path, Map<Task, Task> sources) throws Exception {
+		/* find the text file of the original task, if it can be used */
+		Task source = sources.get(copy);
+		File textSource = null;
+		if (source != null && !source.isDirty() && source.getRoot() == this.getRoot() &&
+		    source.getRawText() == copy.getRawText()) {
+			textSource = FileSystemTask.getTextFile(this.getNodePath(source));
+		}
+
+		int saved = ((FileSystemTask) copy).save(path, textSource, this.options) ? 1 : 0;
+		for (int i = 0; i < copy.getChildCount(); i++) {
+			Task child = (Task) copy.getChildAt(i);
+			saved += this.saveCopy(child, new File(path, child.getPlainName()), sources);
+		}
+		return saved;
+	}
+
+	/**
+	 * Starts a batch of changes. Until the batch is committed, the changes made to the tree through this TaskStore
+	 * (adding, removing, renaming and moving tasks) are not reported to the tree model and the file system is not
+	 * changed. A batch should be started, filled and committed or rolled back in a single event on the event dispatch
+	 * thread, since the tree view is not informed of the changes until the batch is committed.
+	 * @throws Exception if a batch is already open
+	 */
+	public void beginBatch() throws Exception {
+		if (this.batch != null) throw new Exception("a batch is already open");
+		this.batch = new TaskBatch();
+	}
+
+	/**
+	 * Commits the current batch. The file system changes are applied in the order they were made; if any of them
+	 * fails, the applied changes and the changes made to the tree are undone and an exception is thrown. Otherwise
+	 * the tree model is informed of the changes with as few events as possible and the changed tasks are written out.
+	 * @return the number of tasks written to disk
+	 * @throws Exception if the batch was rolled back or if writing out the tasks failed
+	 */
+	public int commitBatch() throws Exception {
+		TaskBatch batch = this.batch;
+		if (batch == null) throw new Exception("no batch open");
+		this.batch = null;
+
+		/* apply the file system changes; on failure restore the tree as it was before the batch */
+		this.waitForSaves();
+		try {
+			batch.apply();
+		} catch (Exception e) {
+			batch.undo();
+			throw new Exception("changes rolled back: " + e.getMessage());
+		}
+		batch.finish();
+
+		/* inform the tree model */
+		batch.fireEvents(this.treeModel);
+
+		/* write out the changed tasks that are still in the tree */
+		long start = System.nanoTime();
+		int saved = 0;
+		for (Task node : batch.getTouched()) {
+			if (node.getRoot() != this.getRoot() || !node.isDirty()) continue;
+			File path = this.getNodePath(node);
+			if (node.isRoot()) FileSystemTask.saveIndex(node, path);
+			else if (((FileSystemTask) node).save(path, null, this.options)) saved++;
+		}
+		this.recordSave(start, saved);
+		return saved;
+	}
+
+	/**
+	 * Rolls back the current batch, restoring the tree to the state it was in when the batch was started. The tree
+	 * model is told of the tasks the batch touched, as it would be when the batch is committed, so the expanded state
+	 * of the rest of the tree is kept.
+	 */
+	public void rollbackBatch() {
+		TaskBatch batch = this.batch;
+		if (batch == null) return;
+		this.batch = null;
+		batch.undo();
+		batch.fireEvents(this.treeModel);
+	}
+
+	/**
+	 * Tells whether a batch is open.
+	 * @return true if a batch is open, false if not
+	 */
+	public boolean isBatchOpen() {
+		return this.batch != null;
+	}
+
+	/**
+	 * Inserts a node into the tree. The tree model is informed of the insertion, unless a batch is open.
+	 * @param node the node to insert
+	 * @param parent the parent node
+	 * @param index the index of the node among the children of the parent
+	 */
+	private void insertNode(Task node, Task parent, int index) {
+		if (this.batch == null) {
+			this.treeModel.insertNodeInto(node, parent, index);
+		} else {
+			parent.insert(node, index);
+			this.batch.structureChanged(parent);
+		}
+	}
+
+	/**
+	 * Removes a node from the tree. The tree model is informed of the removal, unless a batch is open.
+	 * @param node the node to remove
+	 */
+	private void removeNode(Task node) {
+		if (this.batch == null) {
+			this.treeModel.removeNodeFromParent(node);
+		} else {
+			Task parent = (Task) node.getParent();
+			parent.remove(node);
+			this.batch.structureChanged(parent);
+		}
+	}
+
+	/**
+	 * Informs the tree model of a changed node, or records the change if a batch is open.
+	 * @param node the changed node
+	 */
+	private void nodeChanged(Task node) {
+		if (this.batch == null) this.treeModel.nodeChanged(node);
+		else this.batch.nodeChanged(node);
+	}
+
+	/**
+	 * Performs a file system change. If a batch is open, the change is recorded to be applied when the batch is
+	 * committed.
+	 * @param action the change to perform
+	 * @throws Exception if the change fails
+	 */
+	private void perform(TaskBatch.DiskAction action) throws Exception {
+		if (this.batch != null) {
+			this.batch.addDiskAction(action);
+		} else {
+			this.waitForSaves();
+			action.apply();
+			action.finish();
+		}
 	}
 
 	/**
@@ -310,7 +1301,11 @@ public class TaskStore implements TreeModelListener {
 	 * @throws Exception on any error
 	 */
 	public int writeOut(File path) throws Exception {
-		return FileSystemTask.saveTree(this.getRoot(), this.path);
+		this.waitForSaves();
+		long start = System.nanoTime();
+		int saved = FileSystemTask.saveTree(this.getRoot(), this.path, this.options);
+		this.recordSave(start, saved);
+		return saved;
 	}
 	
 	/**
@@ -321,7 +1316,119 @@ public class TaskStore implements TreeModelListener {
 	public void writeOut(Task node) throws Exception {
 		/* get the path of the node and the task */
 		File path = this.getNodePath(node);
-		if (!node.isRoot()) FileSystemTask.saveTree(node, path);
+		this.waitForSaves();
+		long start = System.nanoTime();
+		if (!node.isRoot()) this.recordSave(start, FileSystemTask.saveTree(node, path, this.options));
+	}
+
+	/**
+	 * Records the duration of a save for the statistics.
+	 * @param start the value of System.nanoTime() when the save started
+	 * @param count the number of tasks written
+	 */
+	private void recordSave(long start, int count) {
+		this.lastSaveTime = System.nanoTime() - start;
+		this.lastSaveCount = count;
+	}
+
+	/**
+	 * Writes out a task and its changed sub-tasks on a background thread. The tasks are recorded as they are now and
+	 * can be edited further while they are written; a task is set non-dirty after the write only if it has not been
+	 * changed in the meantime. Errors are reported to the debugger and the tasks are left dirty, so they are written
+	 * again when the tree is written out.
+	 * @param node the task node
+	 */
+	public void saveInBackground(Task node) {
+		if (node.isRoot() || node.getParent() == null || node.getSubtreeDirty() == 0) return;
+
+		/* record the changed tasks of the sub-tree */
+		Vector<PendingSave> saves = new Vector<PendingSave>();
+		this.recordTree(node, this.getNodePath(node), saves);
+		this.flush(saves);
+	}
+
+	/**
+	 * Records the changed tasks of a sub-tree for a background save. The sub-trees of the children that have no
+	 * changed tasks are skipped.
+	 * @param node the root of the sub-tree
+	 * @param path the directory of the node
+	 * @param saves the list that receives the records of the changed tasks
+	 */
+	private void recordTree(Task node, File path, Vector<PendingSave> saves) {
+		if (node.isDirty()) saves.add(new PendingSave(node, path, false));
+		for (int i = 0; i < node.getChildCount(); i++) {
+			Task child = (Task) node.getChildAt(i);
+			if (child.getSubtreeDirty() == 0) continue;
+			this.recordTree(child, new File(path, child.getPlainName()), saves);
+		}
+	}
+
+	/**
+	 * Writes recorded tasks on the saver thread, in one go.
+	 * @param saves the records of the tasks to write
+	 */
+	private void flush(final Vector<PendingSave> saves) {
+		if (saves.isEmpty()) return;
+
+		this.saverQueue.execute(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.nanoTime();
+				final Vector<PendingSave> saved = new Vector<PendingSave>();
+				for (PendingSave save : saves) {
+					try {
+						if (save.metaOnly) save.record.writeMeta(save.path, options);
+						else save.record.write(save.path, null, options);
+						saved.add(save);
+					} catch (Exception e) {
+						Debugger.addMessage("TaskStore.flush: " + save.path + ": " + e.getMessage());
+					}
+				}
+				recordSave(start, saved.size());
+
+				/* clear the dirty flags of the tasks that were not changed during the write */
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						for (PendingSave save : saved) {
+							if (save.task.getVersion() == save.version) save.task.setDirty(false);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Deletes the unused texts from the blob store on the saver thread. The tasks on disk are counted, including the
+	 * ones in the trash, so the texts of removed tasks are kept until the tasks are deleted for good.
+	 */
+	private void collectBlobs() {
+		if (!new File(this.path, BlobStore.BLOB_DIR).isDirectory()) return;
+		final File path = this.path;
+		this.options.runInBackground(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					blobs.collect(path);
+				} catch (Exception e) {
+					Debugger.addMessage("TaskStore.collectBlobs: " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits until the queued background saves have been written. Called before the directories of the tasks are
+	 * changed, so a background save never writes to a directory that has been moved away.
+	 * @throws Exception if the wait was interrupted
+	 */
+	private void waitForSaves() throws Exception {
+		if (this.saver.isShutdown()) return;
+		this.saver.submit(new Runnable() {
+			@Override
+			public void run() { /* nothing; the saves queued before this are done when this runs */ }
+		}).get();
 	}
 
 	/**
@@ -370,4 +1477,174 @@ public class TaskStore implements TreeModelListener {
 	@Override
 	public void treeStructureChanged(TreeModelEvent event) {
 	}
+
+	/**
+	 * A task recorded to be written on the saver thread.
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	private static class PendingSave {
+		/** The task. */
+		private final Task task;
+
+		/** The contents of the task as they were when the save was queued. */
+		private final FileSystemTask.Record record;
+
+		/** The directory of the task. */
+		private final File path;
+
+		/** The version of the task when the save was queued. */
+		private final int version;
+
+		/** Tells whether only the meta data of the task needs to be written. */
+		private final boolean metaOnly;
+
+		/**
+		 * Records a task to be saved. Must be called on the event dispatch thread.
+		 * @param task the task
+		 * @param path the directory of the task
+		 * @param metaOnly true to write only the meta data, false to write the whole task
+		 */
+		PendingSave(Task task, File path, boolean metaOnly) {
+			this.task = task;
+			this.record = new FileSystemTask.Record(task);
+			this.path = path;
+			this.version = task.getVersion();
+			this.metaOnly = metaOnly;
+		}
+	}
+
+	/**
+	 * A removed task that can still be restored.
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	private static class TrashEntry {
+		/** The removed task; null once the task has been moved to the trash, where it is read back from. */
+		private Task node;
+
+		/** The parent the task was removed from. */
+		private Task parent;
+
+		/** The index the task was removed from. */
+		private int index;
+
+		/** The plain name of the task. */
+		private String plainName;
+
+		/** The directory of the task in the trash or null if the task was not on disk. */
+		private File path;
+
+		/** The time the task was put in the trash. */
+		private long time;
+
+		/**
+		 * Constructs a new trash entry.
+		 * @param node the removed task
+		 * @param parent the parent the task was removed from
+		 * @param index the index the task was removed from
+		 * @param plainName the plain name of the task
+		 */
+		public TrashEntry(Task node, Task parent, int index, String plainName) {
+			this.node = node;
+			this.parent = parent;
+			this.index = index;
+			this.plainName = plainName;
+		}
+	}
+
+	/**
+	 * A background thread that deletes the removed tasks from disk once they have been in the trash longer than
+	 * RECLAIM_DELAY. The freed disk space is reported in the debug messages. The blob store is collected once no
+	 * more tasks have been deleted for COLLECT_DELAY.
+	 * @author anonpds <anonpds@gmail.com>
+	 */
+	private class Reclaimer extends Thread {
+		/** The tasks in the trash, oldest first. */
+		private Vector<TrashEntry> entries = new Vector<TrashEntry>();
+
+		/** Trash and import staging directories left over from earlier sessions. */
+		private File[] leftovers;
+
+		/**
+		 * Constructs a new reclaimer.
+		 * @param leftovers the left-over directories to delete at once; can be null
+		 */
+		public Reclaimer(File[] leftovers) {
+			super("TaskStore.Reclaimer");
+			this.leftovers = leftovers;
+			this.setDaemon(true);
+			this.setPriority(MIN_PRIORITY);
+		}
+
+		/**
+		 * Adds a removed task to the trash.
+		 * @param entry the removed task
+		 */
+		public synchronized void add(TrashEntry entry) {
+			entry.time = System.currentTimeMillis();
+			this.entries.add(entry);
+			this.notifyAll();
+		}
+
+		/**
+		 * Takes the most recently removed task out of the trash.
+		 * @return the removed task or null if the trash is empty
+		 */
+		public synchronized TrashEntry takeLatest() {
+			if (this.entries.isEmpty()) return null;
+			return this.entries.remove(this.entries.size() - 1);
+		}
+
+		/**
+		 * Waits until the oldest task in the trash expires and takes it out of the trash.
+		 * @param timeout the longest time to wait in milliseconds or -1 to wait as long as it takes
+		 * @return the expired task or null if no task expired before the timeout
+		 * @throws InterruptedException if the thread was interrupted
+		 */
+		private synchronized TrashEntry takeExpired(long timeout) throws InterruptedException {
+			long end = (timeout < 0) ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+			while (true) {
+				long now = System.currentTimeMillis();
+				long expiry = this.entries.isEmpty() ? Long.MAX_VALUE : this.entries.get(0).time + RECLAIM_DELAY;
+				if (expiry <= now) return this.entries.remove(0);
+				if (end <= now) return null;
+
+				long until = Math.min(expiry, end);
+				if (until == Long.MAX_VALUE) this.wait();
+				else this.wait(until - now);
+			}
+		}
+
+		/** Deletes the left-over trash and then the removed tasks as they expire, until interrupted. */
+		@Override
+		public void run() {
+			if (this.leftovers != null && this.leftovers.length > 0) {
+				long freed = 0;
+				for (File file : this.leftovers) freed += deleteDirectory(file);
+				Debugger.addMessage("TaskStore.Reclaimer: deleted " + this.leftovers.length + " left-overs, " + freed +
+				                    " bytes freed");
+				collectBlobs();
+			}
+			this.leftovers = null;
+
+			try {
+				/* the blobs of the deleted tasks are collected once the deletions have stopped for a while */
+				boolean collect = false;
+				while (true) {
+					TrashEntry entry = this.takeExpired(collect ? COLLECT_DELAY : -1);
+					if (entry == null) {
+						collectBlobs();
+						collect = false;
+						continue;
+					}
+					if (entry.path == null) continue;
+					long freed = deleteDirectory(entry.path);
+					Debugger.addMessage("TaskStore.Reclaimer: deleted " + entry.path.getName() + ", " + freed +
+					                    " bytes freed");
+					collect = true;
+				}
+			} catch (InterruptedException e) {
+				/* the store was closed */
+			}
+		}
+	}
 }
@@ -19,12 +19,11 @@ import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.Timer;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
-import javax.swing.tree.DefaultTreeModel;
 
 /* CRITICAL does this task have to have its own dirty status? Why not just use the tasks one? */
-/* TODO remove the dirty status and instead update the task text from the editor text periodically (eg, every 15s) */
 
 /**
  * Implements a component that displays task editor and information about the currently edited task.
@@ -50,6 +49,9 @@ public class TaskView extends JPanel implements DocumentListener, ActionListener
 	/** Text of task undone status. */
 	private static final String UNDONE_TEXT = "Undone";
 
+	/** The time in milliseconds after the last edit when the editor text is saved. */
+	private static final int AUTOSAVE_DELAY = 3000;
+
 	/** Label that displays the Task status. */
 	private JLabel statusBar;
 	
@@ -68,15 +70,18 @@ public class TaskView extends JPanel implements DocumentListener, ActionListener
 	/** statusBox choices. */
 	private String[] comboBoxChoices = { DEFAULT_TEXT, DONE_TEXT, UNDONE_TEXT };
 
-	/** TreeModel that contains the task. Informed of changes to task status. */
-	private DefaultTreeModel treeModel;
+	/** The store that contains the task. Changes the task status. */
+	private TaskStore store;
+
+	/** Saves the editor text when the user has stopped typing; restarted on every edit. */
+	private Timer autosaveTimer;
 
 	/**
 	 * Constructs the TaskView.
-	 * @param model 
+	 * @param store the store that contains the displayed tasks
 	 */
-	public TaskView(DefaultTreeModel model) {
-		this.treeModel = model;
+	public TaskView(TaskStore store) {
+		this.store = store;
 		
 		/* build the user interface */
 		this.editor = new TaskEditor();
@@ -94,6 +99,15 @@ public class TaskView extends JPanel implements DocumentListener, ActionListener
 		
 		/* set the document listener to the editor to watch for changes */
 		this.editor.getDocument().addDocumentListener(this);
+
+		/* save the text a moment after the last edit */
+		this.autosaveTimer = new Timer(AUTOSAVE_DELAY, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent event) {
+				autosave();
+			}
+		});
+		this.autosaveTimer.setRepeats(false);
 	}
 
 	/**
@@ -110,6 +124,7 @@ public class TaskView extends JPanel implements DocumentListener, ActionListener
 	 * @param node the tree node that contains the task
 	 */
 	public void setTask(Task task) {
+		this.autosaveTimer.stop();
 		if (task.getParent() == null) {
 			this.task = null;
 			this.statusBar.setText("No task selected.");
@@ -118,6 +133,7 @@ public class TaskView extends JPanel implements DocumentListener, ActionListener
 		} else {
 			this.task = task;
 			this.editor.open(this.task.getText());
+			this.autosaveTimer.stop(); /* opening the text is not an edit */
 			this.setDirty(false);
 			this.setStatusBox(task.getStatus());
 			this.updateStatus();
@@ -138,13 +154,16 @@ public class TaskView extends JPanel implements DocumentListener, ActionListener
 	private void setTaskStatus(short status) {
 		if (task == null || status == this.task.getStatus()) return;
 
-		try { this.task.setStatus(status); } catch (Exception e) { /* TODO error */ }
+		try { this.store.setStatus(this.task, status); } catch (Exception e) { /* TODO error */ }
 		this.setDirty(true);
 		this.updateStatus();
-		
-		if (this.treeModel != null) this.treeModel.reload(this.task);
 	}
 	
+	/** Shows the status of the task again, after it has been changed elsewhere. */
+	public void statusChanged() {
+		if (this.task != null) this.setStatusBox(this.task.getStatus());
+	}
+
 	/** Updates the status bar text. */
 	public void updateStatus() {
 		/* has the task been changed since last save */
@@ -159,8 +178,11 @@ public class TaskView extends JPanel implements DocumentListener, ActionListener
 		this.statusBar.setText("Created: " + format.format(date) + edited);
 	}
 
-	/** Handles changes in the editor component; sets the dirty flag and updates the status text. */
+	/** Handles changes in the editor component; sets the dirty flag, updates the status text and restarts the autosave
+	 * timer. */
 	public void editorChanged() {
+		if (this.task == null) return;
+		this.autosaveTimer.restart();
 		if (!this.isDirty()) {
 			this.setDirty(true);
 			this.updateStatus();
@@ -172,6 +194,15 @@ public class TaskView extends JPanel implements DocumentListener, ActionListener
 		if (this.isDirty())	this.task.setText(this.editor.getText());
 	}
 
+	/** Updates the Task text from the editor and writes the task to disk in the background. */
+	private void autosave() {
+		if (this.task == null || !this.isDirty()) return;
+		this.updateText();
+		this.store.saveInBackground(this.task);
+		this.setDirty(false);
+		this.updateStatus();
+	}
+
 	/**
 	 * Tells whether the task text has been edited since the editor was initialised.
 	 * @return true if the text has changed, false if not
@@ -0,0 +1,163 @@
+/* TextFile.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes task text files, which are either plain UTF-8 or compressed.
+ *
+ * A compressed file starts with a header that plain text never starts with: a zero byte, the letters "TMZ" and a
+ * version byte. The rest of the file is the UTF-8 text compressed with deflate. The files are read and written through
+ * file channels in fixed-size buffers, so a large text is never held in memory twice in encoded form.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+final class TextFile {
+	/** The header of a compressed text file. */
+	private static final byte[] HEADER = { 0, 'T', 'M', 'Z', 1 };
+
+	/** The size of the buffers used for reading and writing. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** The UTF-8 character set. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Not instantiated. */
+	private TextFile() {
+	}
+
+	/**
+	 * Reads the header of a file, if it has one. The position of the channel is left after the header if the file is
+	 * compressed and at the start of the file if not.
+	 * @param channel the channel of the file
+	 * @return true if the file has the header of a compressed file
+	 * @throws Exception on IO errors
+	 */
+	private static boolean hasHeader(FileChannel channel) throws Exception {
+		ByteBuffer header = ByteBuffer.allocate(HEADER.length);
+		while (header.hasRemaining() && channel.read(header) >= 0);
+		for (int i = 0; i < HEADER.length; i++) {
+			if (header.position() <= i || header.get(i) != HEADER[i]) {
+				channel.position(0);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a text file, decompressing it if needed.
+	 * @param file the file to read
+	 * @return the text of the file
+	 * @throws Exception on IO errors or if the compressed data is corrupt
+	 */
+	public static String read(File file) throws Exception {
+		FileChannel channel = new FileInputStream(file).getChannel();
+		try {
+			long size = channel.size();
+			ByteArrayOutputStream text = new ByteArrayOutputStream((int) Math.min(size, Integer.MAX_VALUE - 8));
+			ByteBuffer in = ByteBuffer.allocate((int) Math.min(size + 1, BUFFER_SIZE));
+
+			if (!hasHeader(channel)) {
+				/* plain text */
+				while (channel.read(in) >= 0) {
+					text.write(in.array(), 0, in.position());
+					in.clear();
+				}
+				return new String(text.toByteArray(), UTF8);
+			}
+
+			/* compressed text; feed the file to the inflater one buffer at a time */
+			Inflater inflater = new Inflater();
+			byte[] out = new byte[(int) Math.min(size * 4 + 64, BUFFER_SIZE)];
+			try {
+				while (!inflater.finished()) {
+					if (inflater.needsInput()) {
+						in.clear();
+						if (channel.read(in) < 0) throw new DataFormatException("unexpected end of " + file.getPath());
+						inflater.setInput(in.array(), 0, in.position());
+					}
+					int n = inflater.inflate(out);
+					if (n == 0 && inflater.needsDictionary()) throw new DataFormatException("bad data");
+					text.write(out, 0, n);
+				}
+			} finally {
+				inflater.end();
+			}
+			return new String(text.toByteArray(), UTF8);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes a text file.
+	 * @param file the file to write
+	 * @param text the text to write
+	 * @param compress true to compress the text, false to write it as plain UTF-8
+	 * @throws Exception on IO errors
+	 */
+	public static void write(File file, String text, boolean compress) throws Exception {
+		FileChannel channel = new FileOutputStream(file).getChannel();
+		Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+		try {
+			if (compress) channel.write(ByteBuffer.wrap(HEADER));
+
+			/* encode the text one buffer at a time and write or compress each buffer */
+			CharsetEncoder encoder = UTF8.newEncoder();
+			CharBuffer chars = CharBuffer.wrap(text);
+			int bufferSize = (int) Math.min(text.length() * 3L + 16, BUFFER_SIZE); /* small texts need small buffers */
+			ByteBuffer bytes = ByteBuffer.allocate(bufferSize);
+			ByteBuffer out = ByteBuffer.allocate(bufferSize);
+			boolean flushing = false, last = false;
+			while (!last) {
+				CoderResult result = flushing ? encoder.flush(bytes) : encoder.encode(chars, bytes, true);
+				if (!flushing && result.isUnderflow()) {
+					/* all the characters are encoded; flush the encoder */
+					flushing = true;
+					result = encoder.flush(bytes);
+				}
+				if (result.isError()) result.throwException();
+				last = flushing && result.isUnderflow();
+
+				bytes.flip();
+				if (compress) {
+					deflater.setInput(bytes.array(), 0, bytes.limit());
+					if (last) deflater.finish();
+					while (last ? !deflater.finished() : !deflater.needsInput()) {
+						out.clear();
+						out.position(deflater.deflate(out.array()));
+						out.flip();
+						while (out.hasRemaining()) channel.write(out);
+					}
+				} else {
+					while (bytes.hasRemaining()) channel.write(bytes);
+				}
+				bytes.clear();
+			}
+		} finally {
+			if (deflater != null) deflater.end();
+			channel.close();
+		}
+	}
+}
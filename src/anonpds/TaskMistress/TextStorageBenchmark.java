@@ -0,0 +1,151 @@
+/* TextStorageBenchmark.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the time it takes to save and open a task tree and the disk space it takes, with plain and with compressed
+ * text files. Two trees are measured: one with many typical notes and one with a few large ones. The trees are written
+ * to a temporary directory, which is deleted afterwards:
+ *
+ *   java anonpds.TaskMistress.TextStorageBenchmark [rounds]
+ *
+ * The files are read back from the operating system cache, so the open times are those of a warm cache; on a cold
+ * cache the smaller compressed files are read from the disk faster still.
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+public class TextStorageBenchmark {
+	/** Words the notes are made of. */
+	private static final String[] WORDS = {
+		"the", "task", "list", "done", "call", "meeting", "notes", "write", "check", "review", "project", "plan",
+		"report", "fix", "bug", "send", "mail", "to", "and", "of", "for", "with", "on", "before", "after", "friday",
+		"draft", "budget", "update", "release", "test", "version", "client", "server", "deadline", "ask", "about"
+	};
+
+	/**
+	 * Runs the benchmark.
+	 * @param args the number of rounds to run
+	 * @throws Exception on IO errors
+	 */
+	public static void main(String[] args) throws Exception {
+		int rounds = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+
+		run("typical notes", 2000, 2 * 1024, rounds);
+		run("large notes", 20, 1024 * 1024, rounds);
+	}
+
+	/**
+	 * Measures a tree with plain and with compressed text files.
+	 * @param name the name of the tree
+	 * @param tasks the number of tasks in the tree
+	 * @param size the length of the task texts in characters
+	 * @param rounds the number of rounds to run
+	 * @throws Exception on IO errors
+	 */
+	private static void run(String name, int tasks, int size, int rounds) throws Exception {
+		Random random = new Random(tasks);
+		String[] texts = new String[tasks];
+		for (int i = 0; i < tasks; i++) texts[i] = makeText(random, size);
+
+		System.out.println(name + ": " + tasks + " tasks of " + size + " characters");
+		measure("plain", texts, false, rounds);
+		measure("compressed", texts, true, rounds);
+	}
+
+	/**
+	 * Saves and opens a tree a number of times and prints the median times and the disk space used.
+	 * @param name the name of the run
+	 * @param texts the texts of the tasks
+	 * @param compress true to compress the text files, false not to
+	 * @param rounds the number of rounds to run
+	 * @throws Exception on IO errors
+	 */
+	private static void measure(String name, String[] texts, boolean compress, int rounds) throws Exception {
+		long[] saveTimes = new long[rounds], openTimes = new long[rounds];
+		long diskSize = 0;
+
+		for (int round = 0; round < rounds; round++) {
+			File dir = new File(System.getProperty("java.io.tmpdir"), "TextStorageBenchmark-" + System.nanoTime());
+
+			/* build and save the tree */
+			TaskStore store = new TaskStore(dir, true);
+			store.setVariable(StorageOptions.META_COMPRESS_TEXT, compress ? "true" : "false");
+			for (int i = 0; i < texts.length; i++) store.add(store.getRoot(), "Task " + i).setText(texts[i]);
+			long start = System.nanoTime();
+			store.writeOut();
+			saveTimes[round] = System.nanoTime() - start;
+			store.close();
+			diskSize = size(dir);
+
+			/* open the tree; the texts are read when the tree is loaded */
+			start = System.nanoTime();
+			store = new TaskStore(dir, true);
+			openTimes[round] = System.nanoTime() - start;
+			store.close();
+
+			delete(dir);
+		}
+
+		Arrays.sort(saveTimes);
+		Arrays.sort(openTimes);
+		System.out.println("  " + name + ": save " + saveTimes[rounds / 2] / 1000000 + " ms, open " +
+		                   openTimes[rounds / 2] / 1000000 + " ms, " + diskSize / 1024 + " kB on disk");
+	}
+
+	/**
+	 * Makes a note of random words in lines of random length.
+	 * @param random the random number generator
+	 * @param size the length of the note in characters
+	 * @return the note
+	 */
+	private static String makeText(Random random, int size) {
+		StringBuffer text = new StringBuffer(size + 16);
+		int line = 0;
+		while (text.length() < size) {
+			String word = WORDS[random.nextInt(WORDS.length)];
+			if (random.nextInt(50) == 0) word = Integer.toString(random.nextInt(10000));
+			text.append(word);
+			line += word.length() + 1;
+			if (line > 40 + random.nextInt(40)) {
+				text.append('\n');
+				line = 0;
+			} else text.append(' ');
+		}
+		text.setLength(size);
+		return text.toString();
+	}
+
+	/**
+	 * Returns the total size of the files in a directory tree.
+	 * @param path the directory
+	 * @return the size in bytes
+	 */
+	private static long size(File path) {
+		long size = 0;
+		for (File file : path.listFiles()) size += file.isDirectory() ? size(file) : file.length();
+		return size;
+	}
+
+	/**
+	 * Deletes a directory tree.
+	 * @param path the directory
+	 */
+	private static void delete(File path) {
+		for (File file : path.listFiles()) {
+			if (file.isDirectory()) delete(file);
+			else file.delete();
+		}
+		path.delete();
+	}
+}
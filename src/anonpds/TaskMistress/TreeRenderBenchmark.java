@@ -0,0 +1,125 @@
+/* TreeRenderBenchmark.java - Part of Task Mistress
+ * Written in 2012 by anonymous.
+ *
+ * To the extent possible under law, the author(s) have dedicated all copyright and related and neighbouring rights to
+ * this software to the public domain worldwide. This software is distributed without any warranty.
+ *
+ * Full license at <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+package anonpds.TaskMistress;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import javax.swing.JTree;
+import javax.swing.tree.DefaultTreeModel;
+
+/**
+ * Measures the time it takes to paint a fully expanded task tree, in the normal and in the large model mode. The tree
+ * is painted into a BufferedImage one window-sized frame at a time, as if it was scrolled from the top to the bottom,
+ * so the benchmark can be run without a display:
+ *
+ *   java -Djava.awt.headless=true anonpds.TaskMistress.TreeRenderBenchmark [folders] [tasks per folder]
+ *
+ * @author anonpds <anonpds@gmail.com>
+ */
+public class TreeRenderBenchmark {
+	/** The width of the painted frames. */
+	private static final int WIDTH = 400;
+
+	/** The height of the painted frames. */
+	private static final int HEIGHT = 600;
+
+	/** The number of times the whole tree is scrolled through before measuring. */
+	private static final int WARM_UP = 2;
+
+	/**
+	 * Runs the benchmark.
+	 * @param args the number of folders and the number of tasks in each folder
+	 */
+	public static void main(String[] args) {
+		int folders = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+		int tasks = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+
+		/* build the tree; every fifth task is done and every seventh undone */
+		Task root = new Task();
+		for (int i = 0; i < folders; i++) {
+			Task folder = new Task(null, "Folder " + i, "", System.currentTimeMillis(), true);
+			root.add(folder);
+			for (int j = 0; j < tasks; j++) {
+				Task task = new Task(null, "Task " + i + "." + j, "", System.currentTimeMillis(), true);
+				try {
+					if (j % 5 == 0) task.setStatus(Task.STATUS_DONE);
+					else if (j % 7 == 0) task.setStatus(Task.STATUS_UNDONE);
+				} catch (Exception e) { /* cannot happen */ }
+				folder.add(task);
+			}
+		}
+		System.out.println(folders + " folders, " + folders * tasks + " tasks");
+
+		run("normal", root, false);
+		run("large model", root, true);
+	}
+
+	/**
+	 * Builds a tree view, expands it fully and measures the time it takes to paint it frame by frame.
+	 * @param name the name of the run
+	 * @param root the root of the tree to paint
+	 * @param large true to use the large model mode, false to use the normal mode
+	 */
+	private static void run(String name, Task root, boolean large) {
+		long start = System.nanoTime();
+		JTree tree = new JTree(new DefaultTreeModel(root));
+		tree.setRootVisible(false);
+		tree.setShowsRootHandles(true);
+		TaskNodeRenderer renderer = new TaskNodeRenderer();
+		tree.setCellRenderer(renderer);
+		renderer.setLargeModel(tree, large);
+		for (int row = 0; row < tree.getRowCount(); row++) tree.expandRow(row);
+		tree.setSize(WIDTH, tree.getPreferredSize().height);
+		long setup = System.nanoTime() - start;
+
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		for (int i = 0; i < WARM_UP; i++) paint(tree, image, null);
+
+		long[] times = new long[tree.getHeight() / HEIGHT + 1];
+		paint(tree, image, times);
+
+		/* report the average, median and maximum frame times */
+		long total = 0;
+		for (long time : times) total += time;
+		Arrays.sort(times);
+		System.out.println(name + ": " + tree.getRowCount() + " rows, set-up " + setup / 1000000 + " ms, " +
+		                   times.length + " frames, average " + format(total / times.length) + " ms, median " +
+		                   format(times[times.length / 2]) + " ms, max " + format(times[times.length - 1]) + " ms");
+	}
+
+	/**
+	 * Paints the tree frame by frame from the top to the bottom.
+	 * @param tree the tree to paint
+	 * @param image the image to paint to
+	 * @param times the array to store the frame times to, or null not to store them
+	 */
+	private static void paint(JTree tree, BufferedImage image, long[] times) {
+		for (int frame = 0; frame * HEIGHT < tree.getHeight(); frame++) {
+			long start = System.nanoTime();
+			Graphics2D g = image.createGraphics();
+			g.setClip(0, 0, WIDTH, HEIGHT);
+			g.translate(0, -frame * HEIGHT);
+			tree.paint(g);
+			g.dispose();
+			if (times != null && frame < times.length) times[frame] = System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Formats a time in nanoseconds as milliseconds with two decimals.
+	 * @param nanos the time in nanoseconds
+	 * @return the formatted time
+	 */
+	private static String format(long nanos) {
+		return String.format("%.2f", nanos / 1000000.0);
+	}
+}
@@ -10,6 +10,10 @@
 package anonpds.TaskMistress;
 
 import java.awt.Dimension;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * Static utility functions for Task Mistress.
@@ -59,4 +63,88 @@ public class Util {
 		
 		return d;
 	}
+
+	/**
+	 * Joins an array of strings into a single string.
+	 * @param strings the strings to join
+	 * @param separator the separator placed between the strings
+	 * @return the joined string
+	 */
+	public static String join(String[] strings, String separator) {
+		StringBuffer buffer = new StringBuffer();
+		for (int i = 0; i < strings.length; i++) {
+			if (i > 0) buffer.append(separator);
+			buffer.append(strings[i]);
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Compresses data with the deflate algorithm.
+	 * @param data the data to compress
+	 * @return the compressed data
+	 */
+	public static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		deflater.setInput(data);
+		deflater.finish();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+		byte[] buffer = new byte[4096];
+		while (!deflater.finished()) out.write(buffer, 0, deflater.deflate(buffer));
+		deflater.end();
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decompresses data compressed with deflate().
+	 * @param data the compressed data
+	 * @param length the length of the decompressed data
+	 * @return the decompressed data
+	 * @throws DataFormatException if the data is not valid compressed data
+	 */
+	public static byte[] inflate(byte[] data, int length) throws DataFormatException {
+		Inflater inflater = new Inflater();
+		inflater.setInput(data);
+
+		byte[] result = new byte[length];
+		int n = 0;
+		while (n < length && !inflater.finished()) {
+			int read = inflater.inflate(result, n, length - n);
+			if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+			n += read;
+		}
+		inflater.end();
+		if (n != length) throw new DataFormatException("Util.inflate: " + n + " bytes, expected " + length);
+
+		return result;
+	}
+
+	/**
+	 * Decompresses data compressed with deflate(), when the length of the decompressed data is not known.
+	 * @param data the compressed data
+	 * @return the decompressed data
+	 * @throws DataFormatException if the data is not valid compressed data
+	 */
+	public static byte[] inflate(byte[] data) throws DataFormatException {
+		Inflater inflater = new Inflater();
+		inflater.setInput(data);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4 + 16);
+		byte[] buffer = new byte[4096];
+		try {
+			while (!inflater.finished()) {
+				int read = inflater.inflate(buffer);
+				if (read == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new DataFormatException("Util.inflate: unexpected end of data");
+				}
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			inflater.end();
+		}
+
+		return out.toByteArray();
+	}
 }